@@ -0,0 +1,680 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/** Writes the files of a commit as a tar (POSIX ustar, with pax headers
+ * for long names and sizes) or zip archive, streaming each blob from the
+ * object store into the archive without touching the working tree. Every
+ * file gets the commit's time and mode 644. Only whole, unchunked blobs
+ * (smaller than core.chunkThreshold) are ever held in memory; chunked
+ * blobs are written a chunk at a time. Zip entries are deflated by
+ * core.pipelineThreads threads (default the number of processors), at
+ * most core.pipelineDepth entries ahead of the one being written (default
+ * 16), and written in order; chunked blobs are deflated as they stream.
+ * @author Jeff Xiang
+ */
+class Archive {
+
+    /** An archive in FORMAT, TAR or ZIP, written to OUT.
+     * @param out destination
+     * @param format archive format */
+    Archive(OutputStream out, String format) {
+        _out = new Counter(out);
+        _format = format;
+        _threads = Math.max(1, Config.getInt(StagingPipeline.THREADS,
+                Runtime.getRuntime().availableProcessors()));
+        _depth = Math.max(1, Config.getInt(StagingPipeline.DEPTH,
+                DEFAULT_DEPTH));
+        _entries = new ArrayList<>();
+    }
+
+    /** Writes the files of commit C, in order of name, and ends the
+     * archive. Does not close the destination.
+     * @param c commit to archive */
+    void write(Commit c) throws IOException {
+        _time = c.getTime();
+        if (_format.equals(TAR)) {
+            for (String name : c.getSortedFilenames()) {
+                writeTar(name, Blob.read(c.getBlobs().get(name)));
+            }
+            _out.write(new byte[2 * BLOCK]);
+        } else {
+            writeZipEntries(c);
+            writeCentralDirectory();
+        }
+        _out.flush();
+    }
+
+    /** Writes a tar entry for the file NAME with the contents of BLOB.
+     * @param name file path
+     * @param blob file contents */
+    private void writeTar(String name, Blob blob) throws IOException {
+        long size = blob.size();
+        byte[] path = name.getBytes(StandardCharsets.UTF_8);
+        int split = ustarSplit(path);
+        StringBuilder pax = new StringBuilder();
+        if (split < 0) {
+            pax.append(paxRecord("path", name));
+        }
+        if (size > MAX_OCTAL_SIZE) {
+            pax.append(paxRecord("size", Long.toString(size)));
+        }
+        if (pax.length() > 0) {
+            byte[] records = pax.toString().getBytes(StandardCharsets.UTF_8);
+            _out.write(tarHeader(PAX_NAME, new byte[0], records.length,
+                    PAX_TYPE));
+            _out.write(records);
+            pad(records.length);
+        }
+        byte[] prefix = new byte[0];
+        if (split > 0) {
+            prefix = Arrays.copyOfRange(path, 0, split);
+            path = Arrays.copyOfRange(path, split + 1, path.length);
+        } else if (split < 0) {
+            path = Arrays.copyOf(path, NAME_LENGTH);
+        }
+        _out.write(tarHeader(path, prefix, Math.min(size, MAX_OCTAL_SIZE),
+                FILE_TYPE));
+        blob.writeTo(_out);
+        pad(size);
+    }
+
+    /** Returns 0 if the UTF-8 path PATH fits the name field of a ustar
+     * header, the position of the slash at which to split it between the
+     * prefix and name fields if it fits both, or -1 if it needs a pax
+     * header.
+     * @param path file path */
+    private static int ustarSplit(byte[] path) {
+        if (path.length <= NAME_LENGTH) {
+            return 0;
+        }
+        for (int k = Math.min(path.length - 2, PREFIX_LENGTH); k > 0;
+             k -= 1) {
+            if (path[k] == '/') {
+                return path.length - k - 1 <= NAME_LENGTH ? k : -1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the pax extended header record setting KEY to VALUE: its
+     * length in bytes, counting the length itself, then the setting.
+     * @param key pax keyword
+     * @param value its value */
+    private static String paxRecord(String key, String value) {
+        int length = (" " + key + "=" + value + "\n")
+                .getBytes(StandardCharsets.UTF_8).length;
+        int total = length + Integer.toString(length).length();
+        if (Integer.toString(total).length()
+                > Integer.toString(length).length()) {
+            total += 1;
+        }
+        return total + " " + key + "=" + value + "\n";
+    }
+
+    /** Returns a ustar header block for a file of SIZE bytes and type
+     * TYPE whose path is PREFIX, a slash, and NAME, or just NAME if
+     * PREFIX is empty.
+     * @param name name field
+     * @param prefix prefix field
+     * @param size contents length
+     * @param type type flag */
+    private byte[] tarHeader(byte[] name, byte[] prefix, long size,
+                             char type) {
+        byte[] header = new byte[BLOCK];
+        System.arraycopy(name, 0, header, 0, name.length);
+        octal(header, MODE_FIELD, OCTAL_FIELD, FILE_MODE);
+        octal(header, UID_FIELD, OCTAL_FIELD, 0);
+        octal(header, GID_FIELD, OCTAL_FIELD, 0);
+        octal(header, SIZE_FIELD, LONG_OCTAL_FIELD, size);
+        octal(header, MTIME_FIELD, LONG_OCTAL_FIELD, _time / MILLIS);
+        header[TYPE_FIELD] = (byte) type;
+        System.arraycopy(USTAR, 0, header, MAGIC_FIELD, USTAR.length);
+        System.arraycopy(prefix, 0, header, PREFIX_FIELD, prefix.length);
+        Arrays.fill(header, CHECKSUM_FIELD,
+                CHECKSUM_FIELD + OCTAL_FIELD, (byte) ' ');
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & BYTE_MASK;
+        }
+        octal(header, CHECKSUM_FIELD, OCTAL_FIELD - 1, sum);
+        return header;
+    }
+
+    /** Puts VALUE in HEADER as a NUL-terminated, zero-padded octal
+     * number filling the LENGTH bytes at POS.
+     * @param header header block
+     * @param pos start of the field
+     * @param length field length
+     * @param value number to put */
+    private static void octal(byte[] header, int pos, int length,
+                              long value) {
+        String digits = String.format("%0" + (length - 1) + "o", value);
+        byte[] bytes = digits.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, pos, length - 1);
+        header[pos + length - 1] = 0;
+    }
+
+    /** Pads the tar contents just written, SIZE bytes, to a whole block.
+     * @param size contents length */
+    private void pad(long size) throws IOException {
+        int rest = (int) (size % BLOCK);
+        if (rest != 0) {
+            _out.write(new byte[BLOCK - rest]);
+        }
+    }
+
+    /** Writes the zip entries of the files of commit C, deflating whole
+     * blobs ahead on other threads, if there are several.
+     * @param c commit to archive */
+    private void writeZipEntries(Commit c) throws IOException {
+        ExecutorService pool = _threads > 1
+                ? Executors.newFixedThreadPool(_threads) : null;
+        ArrayDeque<Future<ZipEntry>> ahead = new ArrayDeque<>();
+        try {
+            for (String name : c.getSortedFilenames()) {
+                Blob blob = Blob.read(c.getBlobs().get(name));
+                if (!blob.getChunks().isEmpty()) {
+                    while (!ahead.isEmpty()) {
+                        writeZip(finish(ahead.poll()));
+                    }
+                    streamZip(name, blob);
+                } else if (pool == null) {
+                    writeZip(deflate(name, blob.getContents()));
+                } else {
+                    if (ahead.size() >= _depth) {
+                        writeZip(finish(ahead.poll()));
+                    }
+                    byte[] contents = blob.getContents();
+                    ahead.add(pool.submit(() -> deflate(name, contents)));
+                }
+            }
+            while (!ahead.isEmpty()) {
+                writeZip(finish(ahead.poll()));
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /** Returns the result of ENTRY, once deflated, rethrowing any
+     * failure.
+     * @param entry pending deflated entry */
+    private static ZipEntry finish(Future<ZipEntry> entry) {
+        try {
+            return entry.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted.");
+        } catch (ExecutionException excp) {
+            throw Utils.error("Could not compress: %s",
+                    excp.getCause().getMessage());
+        }
+    }
+
+    /** Returns the zip entry of file NAME with CONTENTS, deflated, or
+     * stored as is if deflating would not make it smaller.
+     * @param name file path
+     * @param contents file contents */
+    private static ZipEntry deflate(String name, byte[] contents) {
+        ZipEntry entry = new ZipEntry(name);
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        entry._crc = crc.getValue();
+        entry._size = contents.length;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        deflater.setInput(contents);
+        deflater.finish();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (!deflater.finished() && out.size() < contents.length) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        if (deflater.finished() && out.size() < contents.length) {
+            entry._data = out.toByteArray();
+            entry._method = DEFLATED;
+        } else {
+            entry._data = contents;
+            entry._method = STORED;
+        }
+        deflater.end();
+        entry._compressedSize = entry._data.length;
+        return entry;
+    }
+
+    /** Writes ENTRY, whose contents are already compressed, as a local
+     * header and its data.
+     * @param entry entry to write */
+    private void writeZip(ZipEntry entry) throws IOException {
+        entry._offset = _out.count();
+        _out.write(localHeader(entry, false));
+        _out.write(entry._data);
+        entry._data = null;
+        _entries.add(entry);
+    }
+
+    /** Writes the zip entry of file NAME with the contents of the chunked
+     * BLOB, deflating the chunks as they are written and giving the sizes
+     * and checksum after the data.
+     * @param name file path
+     * @param blob file contents */
+    private void streamZip(String name, Blob blob) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry._method = DEFLATED;
+        entry._streamed = true;
+        entry._offset = _out.count();
+        _out.write(localHeader(entry, true));
+        long start = _out.count();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        DeflaterOutputStream deflated = new DeflaterOutputStream(_out,
+                deflater, BUFFER_SIZE);
+        CRC32 crc = new CRC32();
+        Counter size = new Counter(deflated);
+        OutputStream contents = new CheckedOutputStream(size, crc);
+        blob.writeTo(contents);
+        deflated.finish();
+        deflater.end();
+        entry._crc = crc.getValue();
+        entry._size = size.count();
+        entry._compressedSize = _out.count() - start;
+        ByteBuffer descriptor;
+        if (entry._size >= MAX_32 || entry._compressedSize >= MAX_32) {
+            descriptor = buffer(ZIP64_DESCRIPTOR_LENGTH);
+            descriptor.putInt(DESCRIPTOR_SIG).putInt((int) entry._crc)
+                    .putLong(entry._compressedSize).putLong(entry._size);
+        } else {
+            descriptor = buffer(DESCRIPTOR_LENGTH);
+            descriptor.putInt(DESCRIPTOR_SIG).putInt((int) entry._crc)
+                    .putInt((int) entry._compressedSize)
+                    .putInt((int) entry._size);
+        }
+        _out.write(descriptor.array());
+        _entries.add(entry);
+    }
+
+    /** Returns the local header of ENTRY. If STREAMED, its sizes and
+     * checksum are zero, and follow its data in a data descriptor, with
+     * 64-bit sizes only if they need them, as java.util.zip writes them.
+     * @param entry zip entry
+     * @param streamed true iff the data descriptor follows the data */
+    private byte[] localHeader(ZipEntry entry, boolean streamed) {
+        ByteBuffer header = buffer(LOCAL_LENGTH + entry._name.length);
+        header.putInt(LOCAL_SIG).putShort((short) VERSION)
+                .putShort((short) (UTF8_FLAG | (streamed ? STREAM_FLAG : 0)))
+                .putShort((short) entry._method)
+                .putShort((short) dosTime()).putShort((short) dosDate())
+                .putInt((int) entry._crc)
+                .putInt((int) entry._compressedSize)
+                .putInt((int) entry._size)
+                .putShort((short) entry._name.length)
+                .putShort((short) 0).put(entry._name);
+        return header.array();
+    }
+
+    /** Writes the central directory of the entries written, with zip64
+     * records where sizes, offsets or the number of entries need them,
+     * ending the zip archive. */
+    private void writeCentralDirectory() throws IOException {
+        long start = _out.count();
+        for (ZipEntry entry : _entries) {
+            boolean bigSize = entry._size >= MAX_32;
+            boolean bigCompressed = entry._compressedSize >= MAX_32;
+            boolean bigOffset = entry._offset >= MAX_32;
+            int extra = (bigSize ? Long.BYTES : 0)
+                    + (bigCompressed ? Long.BYTES : 0)
+                    + (bigOffset ? Long.BYTES : 0);
+            if (extra > 0) {
+                extra += ZIP64_EXTRA_HEADER;
+            }
+            ByteBuffer header = buffer(CENTRAL_LENGTH + entry._name.length
+                    + extra);
+            header.putInt(CENTRAL_SIG)
+                    .putShort((short) (UNIX_HOST | ZIP64_VERSION))
+                    .putShort((short) (extra > 0 ? ZIP64_VERSION : VERSION))
+                    .putShort((short) (UTF8_FLAG
+                            | (entry._streamed ? STREAM_FLAG : 0)))
+                    .putShort((short) entry._method)
+                    .putShort((short) dosTime()).putShort((short) dosDate())
+                    .putInt((int) entry._crc)
+                    .putInt((int) Math.min(entry._compressedSize, MAX_32))
+                    .putInt((int) Math.min(entry._size, MAX_32))
+                    .putShort((short) entry._name.length)
+                    .putShort((short) extra).putShort((short) 0)
+                    .putShort((short) 0).putShort((short) 0)
+                    .putInt(UNIX_FILE_ATTRIBUTES)
+                    .putInt((int) Math.min(entry._offset, MAX_32))
+                    .put(entry._name);
+            if (extra > 0) {
+                header.putShort((short) ZIP64_TAG)
+                        .putShort((short) (extra - ZIP64_EXTRA_HEADER));
+                if (bigSize) {
+                    header.putLong(entry._size);
+                }
+                if (bigCompressed) {
+                    header.putLong(entry._compressedSize);
+                }
+                if (bigOffset) {
+                    header.putLong(entry._offset);
+                }
+            }
+            _out.write(header.array());
+        }
+        long end = _out.count();
+        long length = end - start;
+        long count = _entries.size();
+        if (count >= MAX_16 || length >= MAX_32 || start >= MAX_32) {
+            ByteBuffer zip64 = buffer(ZIP64_END_LENGTH + ZIP64_LOCATOR_LENGTH);
+            zip64.putInt(ZIP64_END_SIG)
+                    .putLong(ZIP64_END_LENGTH - Integer.BYTES - Long.BYTES)
+                    .putShort((short) (UNIX_HOST | ZIP64_VERSION))
+                    .putShort((short) ZIP64_VERSION).putInt(0).putInt(0)
+                    .putLong(count).putLong(count).putLong(length)
+                    .putLong(start);
+            zip64.putInt(ZIP64_LOCATOR_SIG).putInt(0).putLong(end).putInt(1);
+            _out.write(zip64.array());
+        }
+        ByteBuffer trailer = buffer(END_LENGTH);
+        trailer.putInt(END_SIG).putShort((short) 0).putShort((short) 0)
+                .putShort((short) Math.min(count, MAX_16))
+                .putShort((short) Math.min(count, MAX_16))
+                .putInt((int) Math.min(length, MAX_32))
+                .putInt((int) Math.min(start, MAX_32)).putShort((short) 0);
+        _out.write(trailer.array());
+    }
+
+    /** Returns a little-endian buffer of LENGTH bytes.
+     * @param length buffer size */
+    private static ByteBuffer buffer(int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Returns the commit time as the time field of a zip header. */
+    private int dosTime() {
+        LocalDateTime t = dosDateTime();
+        return (t.getHour() << 11) | (t.getMinute() << 5)
+                | (t.getSecond() / 2);
+    }
+
+    /** Returns the commit time as the date field of a zip header. */
+    private int dosDate() {
+        LocalDateTime t = dosDateTime();
+        return ((t.getYear() - DOS_EPOCH) << 9) | (t.getMonthValue() << 5)
+                | t.getDayOfMonth();
+    }
+
+    /** Returns the local commit time, or the start of 1980, the earliest
+     * time a zip header can hold, if it is earlier. */
+    private LocalDateTime dosDateTime() {
+        LocalDateTime t = LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(_time), ZoneId.systemDefault());
+        return t.getYear() < DOS_EPOCH
+                ? LocalDateTime.of(DOS_EPOCH, 1, 1, 0, 0) : t;
+    }
+
+    /** A zip entry: what its central directory record needs, and its
+     * compressed contents until written. */
+    private static class ZipEntry {
+
+        /** An entry for the file NAME.
+         * @param name file path */
+        ZipEntry(String name) {
+            _name = name.getBytes(StandardCharsets.UTF_8);
+        }
+
+        /** UTF-8 file path. */
+        private final byte[] _name;
+
+        /** Compression method. */
+        private int _method;
+
+        /** CRC-32 of the contents. */
+        private long _crc;
+
+        /** Length of the contents. */
+        private long _size;
+
+        /** Length of the compressed contents. */
+        private long _compressedSize;
+
+        /** Position of the local header in the archive. */
+        private long _offset;
+
+        /** True iff the sizes and checksum follow the data. */
+        private boolean _streamed;
+
+        /** Compressed contents, until written. */
+        private byte[] _data;
+    }
+
+    /** An output stream that counts the bytes written through it. */
+    private static class Counter extends FilterOutputStream {
+
+        /** A counter of the bytes written to OUT.
+         * @param out destination */
+        Counter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            _count += len;
+        }
+
+        /** Returns the number of bytes written. */
+        long count() {
+            return _count;
+        }
+
+        /** Bytes written. */
+        private long _count;
+    }
+
+    /** Tar archive format. */
+    static final String TAR = "tar";
+
+    /** Zip archive format. */
+    static final String ZIP = "zip";
+
+    /** Queue depth when none is configured. */
+    private static final int DEFAULT_DEPTH = 16;
+
+    /** Size of a tar block. */
+    private static final int BLOCK = 512;
+
+    /** Length of the name field of a ustar header. */
+    private static final int NAME_LENGTH = 100;
+
+    /** Length of the prefix field of a ustar header. */
+    private static final int PREFIX_LENGTH = 155;
+
+    /** Position of the mode field of a ustar header. */
+    private static final int MODE_FIELD = 100;
+
+    /** Position of the owner field of a ustar header. */
+    private static final int UID_FIELD = 108;
+
+    /** Position of the group field of a ustar header. */
+    private static final int GID_FIELD = 116;
+
+    /** Position of the size field of a ustar header. */
+    private static final int SIZE_FIELD = 124;
+
+    /** Position of the time field of a ustar header. */
+    private static final int MTIME_FIELD = 136;
+
+    /** Position of the checksum field of a ustar header. */
+    private static final int CHECKSUM_FIELD = 148;
+
+    /** Position of the type flag of a ustar header. */
+    private static final int TYPE_FIELD = 156;
+
+    /** Position of the magic field of a ustar header. */
+    private static final int MAGIC_FIELD = 257;
+
+    /** Position of the prefix field of a ustar header. */
+    private static final int PREFIX_FIELD = 345;
+
+    /** Length of the short octal fields of a ustar header. */
+    private static final int OCTAL_FIELD = 8;
+
+    /** Length of the size and time fields of a ustar header. */
+    private static final int LONG_OCTAL_FIELD = 12;
+
+    /** Largest size a ustar header can hold. */
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    /** Mode of archived files. */
+    private static final int FILE_MODE = 0644;
+
+    /** Tar type flag of a regular file. */
+    private static final char FILE_TYPE = '0';
+
+    /** Tar type flag of a pax extended header. */
+    private static final char PAX_TYPE = 'x';
+
+    /** Name field of pax extended headers. */
+    private static final byte[] PAX_NAME =
+        "././@PaxHeader".getBytes(StandardCharsets.US_ASCII);
+
+    /** Magic and version fields of a ustar header. */
+    private static final byte[] USTAR =
+        "ustar\00000".getBytes(StandardCharsets.US_ASCII);
+
+    /** Signature of a zip local header. */
+    private static final int LOCAL_SIG = 0x04034b50;
+
+    /** Signature of a zip data descriptor. */
+    private static final int DESCRIPTOR_SIG = 0x08074b50;
+
+    /** Signature of a zip central directory header. */
+    private static final int CENTRAL_SIG = 0x02014b50;
+
+    /** Signature of the zip64 end of central directory record. */
+    private static final int ZIP64_END_SIG = 0x06064b50;
+
+    /** Signature of the zip64 end of central directory locator. */
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+
+    /** Signature of the end of central directory record. */
+    private static final int END_SIG = 0x06054b50;
+
+    /** Length of a zip local header, without name or extra field. */
+    private static final int LOCAL_LENGTH = 30;
+
+    /** Length of a zip data descriptor. */
+    private static final int DESCRIPTOR_LENGTH = 16;
+
+    /** Length of a zip64 data descriptor. */
+    private static final int ZIP64_DESCRIPTOR_LENGTH = 24;
+
+    /** Length of a zip central directory header, without name or extra
+     * field. */
+    private static final int CENTRAL_LENGTH = 46;
+
+    /** Length of the zip64 end of central directory record. */
+    private static final int ZIP64_END_LENGTH = 56;
+
+    /** Length of the zip64 end of central directory locator. */
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+
+    /** Length of the end of central directory record. */
+    private static final int END_LENGTH = 22;
+
+    /** Length of the tag and size of a zip extra field. */
+    private static final int ZIP64_EXTRA_HEADER = 4;
+
+    /** Zip version needed to extract plain entries. */
+    private static final int VERSION = 20;
+
+    /** Zip version needed to extract zip64 entries. */
+    private static final int ZIP64_VERSION = 45;
+
+    /** Zip "version made by" host system: Unix. */
+    private static final int UNIX_HOST = 3 << 8;
+
+    /** Zip external attributes of archived files: a regular file with
+     * mode 644. */
+    private static final int UNIX_FILE_ATTRIBUTES = 0100644 << 16;
+
+    /** Zip flag: the sizes and checksum follow the data. */
+    private static final int STREAM_FLAG = 1 << 3;
+
+    /** Zip flag: the name is UTF-8. */
+    private static final int UTF8_FLAG = 1 << 11;
+
+    /** Zip method of entries stored as is. */
+    private static final int STORED = 0;
+
+    /** Zip method of deflated entries. */
+    private static final int DEFLATED = 8;
+
+    /** Tag of the zip64 extra field. */
+    private static final int ZIP64_TAG = 1;
+
+    /** Largest value of a 16-bit zip field, which marks one given in a
+     * zip64 record instead. */
+    private static final long MAX_16 = 0xffffL;
+
+    /** Largest value of a 32-bit zip field, which marks one given in a
+     * zip64 record instead. */
+    private static final long MAX_32 = 0xffffffffL;
+
+    /** First year a zip header can hold. */
+    private static final int DOS_EPOCH = 1980;
+
+    /** Milliseconds in a second. */
+    private static final long MILLIS = 1000;
+
+    /** Mask of the bits of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Size of deflate output buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Destination. */
+    private final Counter _out;
+
+    /** Archive format, TAR or ZIP. */
+    private final String _format;
+
+    /** Deflating threads. */
+    private final int _threads;
+
+    /** Most entries deflated ahead of the one being written. */
+    private final int _depth;
+
+    /** Zip entries written, for the central directory. */
+    private final ArrayList<ZipEntry> _entries;
+
+    /** Commit time, in milliseconds since the epoch. */
+    private long _time;
+}
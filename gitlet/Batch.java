@@ -0,0 +1,118 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/** A batch of gitlet commands read one per line and run in a single
+ * process. The batch holds the repository lock throughout and keeps the
+ * commit tree, the index and new reflog entries in memory, so they are
+ * written durably, together, only at "checkpoint" lines and at the end,
+ * rather than once per command. Each
+ * line is split into words at blanks, except within double quotes, as a
+ * shell would; blank lines and lines starting with # are skipped.
+ * @author Jeff Xiang
+ */
+class Batch {
+
+    /** A batch of the commands read from INPUT.
+     * @param input source of command lines */
+    Batch(BufferedReader input) {
+        _input = input;
+    }
+
+    /** Runs every command of this batch. A command that fails with a
+     * GitletException has its message printed and does not stop the
+     * batch. */
+    void run() {
+        CommitTree.deferWrites();
+        try {
+            String line;
+            while ((line = _input.readLine()) != null) {
+                String[] args = split(line);
+                if (args.length == 0 || args[0].startsWith("#")) {
+                    continue;
+                }
+                if (args.length == 1 && args[0].equals(CHECKPOINT)) {
+                    CommitTree.flush();
+                    continue;
+                }
+                if (!lock()) {
+                    System.out.println(CommandInterpreter.LOCKED);
+                    return;
+                }
+                IgnoreRules.forget();
+                try {
+                    new CommandInterpreter(args, _lock != null).statement();
+                } catch (GitletException excp) {
+                    System.out.println(excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not read commands: %s",
+                    excp.getMessage());
+        } finally {
+            try {
+                CommitTree.stopDeferring();
+            } finally {
+                if (_lock != null) {
+                    _lock.release();
+                }
+            }
+        }
+    }
+
+    /** Locks the repository exclusively for the rest of the batch, if it
+     * exists and is not yet locked. Returns false if it could not be
+     * locked in time. */
+    private boolean lock() {
+        File gitletDir = new File(".gitlet");
+        if (_lock == null && gitletDir.isDirectory()) {
+            _lock = RepositoryLock.acquire(gitletDir, true);
+            return _lock != null;
+        }
+        return true;
+    }
+
+    /** Returns the words of LINE: maximal runs of non-blank characters,
+     * where a double-quoted part, without its quotes, may contain blanks.
+     * @param line command line */
+    static String[] split(String line) {
+        ArrayList<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                word.append(c);
+            }
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /** Line asking for the commit tree to be written durably. */
+    static final String CHECKPOINT = "checkpoint";
+
+    /** Source of command lines. */
+    private final BufferedReader _input;
+
+    /** Exclusive lock on the repository, once it exists. */
+    private RepositoryLock _lock;
+}
@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** Reachability bitmaps, .gitlet/bitmaps. Every object is given a
+ * permanent bit position, and selected commits (the branch heads) are
+ * stored with a compressed bitmap of all the objects reachable from
+ * them. The bitmap of any other commit is computed by walking back only
+ * as far as commits that have bitmaps, so counting the objects of a
+ * branch, or those one branch has and another lacks, costs a few bitmap
+ * operations instead of deserializing all of history. The stored bitmaps
+ * are refreshed only by repack, under the exclusive lock; readers walk
+ * from whatever is stored.
+ * @author Jeff Xiang
+ */
+class BitmapIndex {
+
+    /** An empty index. */
+    private BitmapIndex() {
+        _objects = new ArrayList<>();
+        _positions = new HashMap<>();
+        _commitBits = new BitSet();
+        _bitmaps = new LinkedHashMap<>();
+    }
+
+    /** Reads and returns the bitmap index of the current repository, or
+     * an empty one if there is none. */
+    static BitmapIndex read() {
+        BitmapIndex result = new BitmapIndex();
+        File f = new File(Utils.BITMAPS);
+        if (!f.isFile()) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new ByteArrayInputStream(
+                        Utils.readContents(f))))) {
+            if (in.readInt() != MAGIC) {
+                throw Utils.error("Corrupt bitmap index.");
+            }
+            int idlength = in.readUnsignedByte();
+            int nobjects = in.readInt();
+            byte[] id = new byte[idlength];
+            for (int i = 0; i < nobjects; i += 1) {
+                boolean commit = in.readBoolean();
+                in.readFully(id);
+                result.position(Hashing.hex(id), commit);
+            }
+            int nbitmaps = in.readInt();
+            for (int i = 0; i < nbitmaps; i += 1) {
+                in.readFully(id);
+                result._bitmaps.put(Hashing.hex(id), EwahBitmap.read(in));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not read bitmap index: %s",
+                    excp.getMessage());
+        }
+        result._changed = false;
+        return result;
+    }
+
+    /** Writes this index if it has changed. */
+    void write() {
+        if (!_changed) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(Hashing.objects().hexLength() / 2);
+            out.writeInt(_objects.size());
+            for (int i = 0; i < _objects.size(); i += 1) {
+                out.writeBoolean(_commitBits.get(i));
+                out.write(Hashing.unhex(_objects.get(i)));
+            }
+            out.writeInt(_bitmaps.size());
+            for (Map.Entry<String, EwahBitmap> e : _bitmaps.entrySet()) {
+                out.write(Hashing.unhex(e.getKey()));
+                e.getValue().write(out);
+            }
+            out.close();
+            Utils.writeAtomically(new File(Utils.BITMAPS),
+                    bytes.toByteArray(), false);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write bitmap index: %s",
+                    excp.getMessage());
+        }
+        _changed = false;
+    }
+
+    /** Stores bitmaps for the MAX_BITMAPS most recent of the commits
+     * HEADS, oldest first so that each walk stops at the bitmaps stored
+     * before it, and drops the oldest stored bitmaps of other commits
+     * beyond MAX_BITMAPS.
+     * @param graph commit graph
+     * @param heads full SHA-1 values of commits, e.g. branch heads */
+    void select(CommitGraph graph, Set<String> heads) {
+        Comparator<String> byTime = Comparator.comparingLong(
+                (String sha) -> graph.get(sha).getTime())
+                .thenComparing(Comparator.naturalOrder());
+        PriorityQueue<String> recent = new PriorityQueue<>(byTime);
+        for (String head : heads) {
+            recent.add(head);
+            if (recent.size() > MAX_BITMAPS) {
+                recent.poll();
+            }
+        }
+        HashSet<String> selected = new HashSet<>(recent);
+        while (!recent.isEmpty()) {
+            String head = recent.poll();
+            if (!_bitmaps.containsKey(head)) {
+                _bitmaps.put(head, reachable(graph, head));
+                _changed = true;
+            }
+        }
+        ArrayList<String> stored = new ArrayList<>(_bitmaps.keySet());
+        for (int i = 0; i < stored.size() && _bitmaps.size() > MAX_BITMAPS;
+             i += 1) {
+            if (!selected.contains(stored.get(i))) {
+                _bitmaps.remove(stored.get(i));
+                _changed = true;
+            }
+        }
+    }
+
+    /** Returns the bitmap of the objects reachable from commit SHA. The
+     * walk back from SHA stops at commits with stored bitmaps, which are
+     * merged in whole, and at commits already covered by them.
+     * @param graph commit graph
+     * @param sha full SHA-1 value of a commit */
+    EwahBitmap reachable(CommitGraph graph, String sha) {
+        EwahBitmap stored = _bitmaps.get(sha);
+        if (stored != null) {
+            return stored;
+        }
+        BitSet bits = new BitSet();
+        ArrayDeque<String> work = new ArrayDeque<>();
+        work.push(sha);
+        while (!work.isEmpty()) {
+            String curr = work.pop();
+            Integer pos = _positions.get(curr);
+            if (pos != null && bits.get(pos)) {
+                continue;
+            }
+            EwahBitmap base = _bitmaps.get(curr);
+            if (base != null) {
+                bits.or(base.toBitSet());
+                continue;
+            }
+            bits.set(position(curr, true));
+            Commit c = Commit.read(curr);
+            for (String blob : c.getBlobs().values()) {
+                bits.set(position(blob, false));
+            }
+            CommitGraph.Entry entry = graph.get(curr);
+            if (entry.getParent2SHA() != null) {
+                work.push(entry.getParent2SHA());
+            }
+            if (entry.getParentSHA() != null) {
+                work.push(entry.getParentSHA());
+            }
+        }
+        return EwahBitmap.of(bits);
+    }
+
+    /** Returns the number of commits set in BITMAP.
+     * @param bitmap object bitmap */
+    long countCommits(EwahBitmap bitmap) {
+        return bitmap.and(EwahBitmap.of(_commitBits)).cardinality();
+    }
+
+    /** Returns the bit position of object SHA, giving it the next one if
+     * it has none. COMMIT is true iff the object is a commit.
+     * @param sha object id
+     * @param commit true for commits, false for blobs */
+    private int position(String sha, boolean commit) {
+        Integer pos = _positions.get(sha);
+        if (pos == null) {
+            pos = _objects.size();
+            _objects.add(sha);
+            _positions.put(sha, pos);
+            if (commit) {
+                _commitBits.set(pos);
+            }
+            _changed = true;
+        }
+        return pos;
+    }
+
+    /** Magic number at the start of the index ("GLBM"). */
+    private static final int MAGIC = 0x474c424d;
+
+    /** Number of branch heads given bitmaps, and of stored bitmaps above
+     * which those of commits that are no longer selected are dropped. */
+    private static final int MAX_BITMAPS = 64;
+
+    /** Object ids, indexed by bit position. */
+    private final ArrayList<String> _objects;
+
+    /** Bit positions, keyed by object id. */
+    private final HashMap<String, Integer> _positions;
+
+    /** The positions of commits. */
+    private final BitSet _commitBits;
+
+    /** Stored bitmaps, keyed by commit SHA-1 value, oldest first. */
+    private final LinkedHashMap<String, EwahBitmap> _bitmaps;
+
+    /** True iff this index differs from .gitlet/bitmaps. */
+    private boolean _changed;
+}
@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** Per-line attribution of one file at one commit: for each line, the
+ * commit that last changed it. Finished results are serialized in
+ * .gitlet/blame, keyed by (commit, file), so a later blame at a descendant
+ * commit starts from the nearest cached result instead of the file's
+ * first revision.
+ * @author Jeff Xiang
+ */
+class Blame implements Serializable {
+
+    /** A blame of file contents BLOBSHA whose line I was last changed by
+     * commit COMMITS.get(LINECOMMITS[I]).
+     * @param blobSHA SHA-1 value of the blamed blob
+     * @param commits commit SHA-1 values, each listed once
+     * @param lineCommits index into commits of each line */
+    private Blame(String blobSHA, ArrayList<String> commits,
+                  int[] lineCommits) {
+        _blobSHA = blobSHA;
+        _commits = commits;
+        _lineCommits = lineCommits;
+    }
+
+    /** Returns the blame of file PATH at the commit with SHA, or null if
+     * PATH is not in that commit. Walks history backwards along first
+     * parents through GRAPH, visiting only the commit with SHA and those
+     * whose changed-path filter might contain PATH. At each revision of
+     * the file, the lines not matched in the revision before it are
+     * attributed to the commit that made it, and the rest are followed
+     * back. The walk stops once every line is attributed, at a cached
+     * blame, or where the file was added. The result is cached under the
+     * commit that introduced the blamed contents, which any later blame
+     * of a descendant with the same contents will visit.
+     * @param graph commit graph
+     * @param sha full SHA-1 value of the commit to blame at
+     * @param path file name */
+    static Blame compute(CommitGraph graph, String sha, String path) {
+        Blame cached = readCached(sha, path);
+        if (cached != null) {
+            return cached;
+        }
+        String blobSHA = readCommit(sha).getBlobs().get(path);
+        if (blobSHA == null) {
+            return null;
+        }
+        List<String> revlines = linesOf(blobSHA);
+        String revblob = blobSHA;
+        String revcommit = sha;
+        String intro = null;
+        String[] owners = new String[revlines.size()];
+        int[] positions = new int[owners.length];
+        for (int i = 0; i < positions.length; i += 1) {
+            positions[i] = i;
+        }
+        int remaining = owners.length;
+        String curr = graph.get(sha).getParentSHA();
+        while (remaining > 0 && curr != null) {
+            if (!graph.get(curr).mightChange(path)) {
+                curr = graph.get(curr).getParentSHA();
+                continue;
+            }
+            Blame base = readCached(curr, path);
+            String prevblob = base != null ? base._blobSHA
+                    : readCommit(curr).getBlobs().get(path);
+            if (revblob.equals(prevblob) && base == null) {
+                revcommit = curr;
+                curr = graph.get(curr).getParentSHA();
+                continue;
+            }
+            if (intro == null) {
+                intro = revcommit;
+            }
+            if (prevblob == null) {
+                break;
+            }
+            int[] matches = revblob.equals(prevblob) ? null
+                    : LineDiff.match(linesOf(prevblob), revlines);
+            for (int i = 0; i < owners.length; i += 1) {
+                if (owners[i] != null) {
+                    continue;
+                }
+                int prev = matches == null ? positions[i]
+                        : matches[positions[i]];
+                if (prev < 0) {
+                    owners[i] = revcommit;
+                    remaining -= 1;
+                } else if (base != null) {
+                    owners[i] = base.getCommit(prev);
+                    remaining -= 1;
+                } else {
+                    positions[i] = prev;
+                }
+            }
+            if (base != null) {
+                break;
+            }
+            revlines = linesOf(prevblob);
+            revblob = prevblob;
+            revcommit = curr;
+            curr = graph.get(curr).getParentSHA();
+        }
+        ArrayList<String> commits = new ArrayList<>();
+        int[] linecommits = new int[owners.length];
+        HashMap<String, Integer> indices = new HashMap<>();
+        for (int i = 0; i < owners.length; i += 1) {
+            String owner = owners[i] == null ? revcommit : owners[i];
+            Integer index = indices.get(owner);
+            if (index == null) {
+                index = commits.size();
+                indices.put(owner, index);
+                commits.add(owner);
+            }
+            linecommits[i] = index;
+        }
+        Blame result = new Blame(blobSHA, commits, linecommits);
+        result.writeCached(intro == null ? revcommit : intro, path);
+        return result;
+    }
+
+    /** Returns the lines of the blob with BLOBSHA.
+     * @param blobSHA blob SHA-1 value */
+    private static List<String> linesOf(String blobSHA) {
+        Blob blob = Blob.read(blobSHA);
+        return LineDiff.lines(
+                new String(blob.getContents(), StandardCharsets.UTF_8));
+    }
+
+    /** Returns the commit with full SHA.
+     * @param sha commit SHA-1 value */
+    private static Commit readCommit(String sha) {
+        return Commit.read(sha);
+    }
+
+    /** Returns the cached blame of PATH at commit SHA, or null.
+     * @param sha commit SHA-1 value
+     * @param path file name */
+    private static Blame readCached(String sha, String path) {
+        File f = cacheFile(sha, path);
+        return f.isFile() ? Utils.readObject(f, Blame.class) : null;
+    }
+
+    /** Caches this blame as that of PATH at commit SHA.
+     * @param sha commit SHA-1 value
+     * @param path file name */
+    private void writeCached(String sha, String path) {
+        File f = cacheFile(sha, path);
+        if (!f.exists()) {
+            new File(Utils.BLAME).mkdir();
+            Utils.writeObject(f, this);
+        }
+    }
+
+    /** Returns the cache file of the blame of PATH at commit SHA.
+     * @param sha commit SHA-1 value
+     * @param path file name */
+    private static File cacheFile(String sha, String path) {
+        return new File(Utils.BLAME + Utils.sha1(sha, path));
+    }
+
+    /** Returns the number of blamed lines. */
+    int size() {
+        return _lineCommits.length;
+    }
+
+    /** Returns the SHA-1 value of the commit that last changed line I.
+     * @param i line number, starting at 0 */
+    String getCommit(int i) {
+        return _commits.get(_lineCommits[i]);
+    }
+
+    /** Returns the SHA-1 value of the blamed blob. */
+    String getBlobSHA() {
+        return _blobSHA;
+    }
+
+    /** SHA-1 value of the blamed blob. */
+    private final String _blobSHA;
+
+    /** Commits owning at least one line, each listed once. */
+    private final ArrayList<String> _commits;
+
+    /** Index into _commits of the owner of each line. */
+    private final int[] _lineCommits;
+}
@@ -1,9 +1,22 @@
 package gitlet;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-/** An object that stores contents of files.
+/** An object that stores contents of files. A file of at least
+ * core.chunkThreshold bytes (default 1 MiB) is stored as a list of
+ * content-defined chunks, each kept once in the chunk store under its own
+ * id, so versions of a large file that differ slightly share most of
+ * their storage. The blob's id is that of its whole contents either way.
  * @author Jeff Xiang
  */
 public class Blob implements Serializable {
@@ -14,25 +27,224 @@ public class Blob implements Serializable {
     Blob(byte[] contents, String filename) {
         _contents = contents;
         _name = filename;
-        _sha = Utils.sha1(_contents, filename);
+        _sha = sha(_contents, filename);
+        _chunks = null;
+        _sizes = null;
+    }
+
+    /** A stored blob of file FILENAME with id SHA whose contents are the
+     * chunks CHUNKS, of lengths SIZES.
+     * @param sha blob id
+     * @param filename name of file
+     * @param chunks chunk ids, in order
+     * @param sizes chunk lengths, in order */
+    private Blob(String sha, String filename, ArrayList<String> chunks,
+                 int[] sizes) {
+        _contents = null;
+        _name = filename;
+        _sha = sha;
+        _chunks = chunks;
+        _sizes = sizes;
+    }
+
+    /** Returns the blob of working file FILE, named FILENAME. A file large
+     * enough to be chunked is never held whole: it is hashed and cut into
+     * chunks as it is read, a chunk at a time, and its chunks not yet
+     * stored are written durably before this returns.
+     * @param file working file
+     * @param filename name of file */
+    static Blob fromFile(File file, String filename) {
+        if (!isLarge(file.length())) {
+            return new Blob(Utils.readContents(file), filename);
+        }
+        Hashing.Digest digest = Hashing.objects().start();
+        ArrayList<String> ids = new ArrayList<>();
+        ArrayList<Integer> sizes = new ArrayList<>();
+        ObjectStore.Batch batch = Utils.chunks().batch();
+        byte[] window = new byte[2 * Chunker.MAX_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int filled = 0;
+            boolean eof = false;
+            while (!eof || filled > 0) {
+                while (!eof && filled < Chunker.MAX_SIZE) {
+                    int n = in.read(window, filled, window.length - filled);
+                    if (n < 0) {
+                        eof = true;
+                    } else {
+                        filled += n;
+                    }
+                }
+                int end = Chunker.cut(window, 0, filled);
+                byte[] chunk = Arrays.copyOf(window, end);
+                digest.update(chunk);
+                String id = Utils.objectId(chunk);
+                batch.put(id, chunk);
+                ids.add(id);
+                sizes.add(end);
+                System.arraycopy(window, end, window, 0, filled - end);
+                filled -= end;
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not read %s: %s", filename,
+                    excp.getMessage());
+        }
+        batch.flush();
+        int[] lengths = sizes.stream().mapToInt(Integer::intValue).toArray();
+        return new Blob(digest.update(filename).hex(), filename, ids,
+                lengths);
+    }
+
+    /** Returns the SHA-1 value (or the id in the repository's object
+     * format) a blob of file FILENAME with CONTENTS would have, without
+     * creating it.
+     * @param contents byte array of contents
+     * @param filename name of file */
+    static String sha(byte[] contents, String filename) {
+        return Utils.objectId(contents, filename);
     }
 
     /** Deserializes me and returns a byte array of my contents.
      * Assumes I am already serialized. */
     byte[] getContents() {
-        return _contents;
+        if (_contents != null) {
+            return _contents;
+        }
+        int length = 0;
+        ArrayList<byte[]> parts = new ArrayList<>();
+        for (String chunk : _chunks) {
+            byte[] part = Utils.chunks().get(chunk);
+            parts.add(part);
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
     }
 
-    /** Returns my serialized file in .gitlet/serialized.
-     * Assumes I am already serialized. */
-    File getSerializedFile() {
-        return new File(Utils.SERIALIZED + this._sha);
+    /** Writes my contents to OUT, a chunk at a time if I am chunked.
+     * @param out destination */
+    void writeTo(OutputStream out) throws IOException {
+        if (_contents != null) {
+            out.write(_contents);
+        } else {
+            for (String chunk : _chunks) {
+                out.write(Utils.chunks().get(chunk));
+            }
+        }
+    }
+
+    /** Returns the length of my contents. */
+    long size() {
+        if (_contents != null) {
+            return _contents.length;
+        }
+        long result = 0;
+        for (int size : _sizes) {
+            result += size;
+        }
+        return result;
+    }
+
+    /** Returns the ids of my chunks, or an empty list if I am stored
+     * whole. */
+    List<String> getChunks() {
+        return _chunks == null ? new ArrayList<>() : _chunks;
+    }
+
+    /** Returns the stored blob with id SHA.
+     * @param sha blob id */
+    static Blob read(String sha) {
+        return Utils.deserialize(Utils.objects().get(sha), Blob.class);
     }
 
-    /** Serialize this blob. */
+    /** Serialize this blob, unless an identical blob already is. A
+     * chunked blob and its new chunks are written durably together. */
     void serialize() {
-        File f = new File(Utils.SERIALIZED + _sha);
-        Utils.writeObject(f, this);
+        if (Utils.objects().has(_sha)) {
+            return;
+        }
+        LinkedHashMap<String, byte[]> chunks = new LinkedHashMap<>();
+        store(_sha, encode(chunks), chunks);
+    }
+
+    /** Adds to BATCH the write of this blob object, after durably writing
+     * its chunks not yet stored, if it is large.
+     * @param batch pending object writes */
+    void serialize(ObjectStore.Batch batch) {
+        LinkedHashMap<String, byte[]> chunks = new LinkedHashMap<>();
+        byte[] encoded = encode(chunks);
+        writeChunks(chunks);
+        batch.put(_sha, encoded);
+    }
+
+    /** Returns my stored form, without storing anything. If I am large,
+     * that is the list of my chunks, and each chunk is put in CHUNKS
+     * under its id.
+     * @param chunks receives the chunks of a large blob */
+    byte[] encode(Map<String, byte[]> chunks) {
+        if (!isLarge()) {
+            return Utils.serialize(this);
+        }
+        ArrayList<String> ids = new ArrayList<>();
+        List<Integer> cuts = Chunker.cuts(_contents);
+        int[] sizes = new int[cuts.size()];
+        int start = 0;
+        for (int i = 0; i < sizes.length; i += 1) {
+            int end = cuts.get(i);
+            byte[] chunk = Arrays.copyOfRange(_contents, start, end);
+            String id = Utils.objectId(chunk);
+            chunks.putIfAbsent(id, chunk);
+            ids.add(id);
+            sizes[i] = end - start;
+            start = end;
+        }
+        return Utils.serialize(new Blob(_sha, _name, ids, sizes));
+    }
+
+    /** Stores the blob with id SHA whose stored form, from encode, is
+     * ENCODED, unless it is already stored. Its CHUNKS, if any, and then
+     * the blob itself are written durably.
+     * @param sha blob id
+     * @param encoded stored form
+     * @param chunks chunks of a large blob, keyed by id */
+    static void store(String sha, byte[] encoded, Map<String, byte[]> chunks) {
+        if (Utils.objects().has(sha)) {
+            return;
+        }
+        if (chunks.isEmpty()) {
+            Utils.objects().put(sha, encoded);
+        } else {
+            writeChunks(chunks);
+            ObjectStore.Batch batch = Utils.objects().batch();
+            batch.put(sha, encoded);
+            batch.flush();
+        }
+    }
+
+    /** Durably writes those of CHUNKS not yet stored.
+     * @param chunks chunks, keyed by id */
+    private static void writeChunks(Map<String, byte[]> chunks) {
+        if (!chunks.isEmpty()) {
+            ObjectStore.Batch batch = Utils.chunks().batch();
+            chunks.forEach(batch::put);
+            batch.flush();
+        }
+    }
+
+    /** Returns true iff my contents are large enough to be chunked. */
+    private boolean isLarge() {
+        return _contents != null && isLarge(_contents.length);
+    }
+
+    /** Returns true iff contents of LENGTH bytes are chunked.
+     * @param length length of contents */
+    static boolean isLarge(long length) {
+        return length
+                >= Config.getInt(CHUNK_THRESHOLD, DEFAULT_CHUNK_THRESHOLD);
     }
 
     /** Name of this blob.
@@ -46,6 +258,16 @@ public class Blob implements Serializable {
         return _sha;
     }
 
+    /** Key of the size, in bytes, from which contents are chunked. */
+    static final String CHUNK_THRESHOLD = "core.chunkThreshold";
+
+    /** Chunking threshold when none is configured. */
+    private static final int DEFAULT_CHUNK_THRESHOLD = 1 << 20;
+
+    /** Serialization version, fixed so that blobs stored before chunking
+     * existed remain readable. */
+    private static final long serialVersionUID = -1069932392486982642L;
+
     /** The SHA-1 value of this blob. */
     private final String _sha;
 
@@ -54,4 +276,11 @@ public class Blob implements Serializable {
 
     /** The name of this blob. */
     private final String _name;
+
+    /** Ids of the chunks holding my contents, in order, or null if
+     * _contents holds them. */
+    private final ArrayList<String> _chunks;
+
+    /** Lengths of my chunks, in order, or null if I am stored whole. */
+    private final int[] _sizes;
 }
@@ -0,0 +1,117 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/** A Bloom filter over file paths. A negative answer from mightContain is
+ * certain; a positive one is wrong with a probability of about 1%.
+ * @author Jeff Xiang
+ */
+class BloomFilter {
+
+    /** A filter sized for, and containing, PATHS.
+     * @param paths file paths to add */
+    BloomFilter(Collection<String> paths) {
+        int bits = Math.max(MIN_BITS, paths.size() * BITS_PER_PATH);
+        _bits = new byte[(bits + 7) / 8];
+        for (String path : paths) {
+            add(path);
+        }
+    }
+
+    /** A filter whose bit array is BITS.
+     * @param bits bit array, as returned by toByteArray */
+    BloomFilter(byte[] bits) {
+        _bits = bits;
+    }
+
+    /** Returns true if PATH may have been added to this filter, and false
+     * if it certainly was not.
+     * @param path file path */
+    boolean mightContain(String path) {
+        if (_bits.length == 0) {
+            return true;
+        }
+        int h1 = hash(path, SEED1);
+        int h2 = hash(path, SEED2);
+        long nbits = _bits.length * 8L;
+        for (int i = 0; i < NUM_HASHES; i += 1) {
+            int bit = (int) Math.floorMod(h1 + (long) i * h2, nbits);
+            if ((_bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns my bit array. */
+    byte[] toByteArray() {
+        return _bits;
+    }
+
+    /** Adds PATH to this filter.
+     * @param path file path */
+    private void add(String path) {
+        int h1 = hash(path, SEED1);
+        int h2 = hash(path, SEED2);
+        long nbits = _bits.length * 8L;
+        for (int i = 0; i < NUM_HASHES; i += 1) {
+            int bit = (int) Math.floorMod(h1 + (long) i * h2, nbits);
+            _bits[bit >>> 3] |= 1 << (bit & 7);
+        }
+    }
+
+    /** Returns the 32-bit Murmur3 hash of the UTF-8 bytes of PATH.
+     * @param path file path
+     * @param seed hash seed */
+    private static int hash(String path, int seed) {
+        byte[] data = path.getBytes(StandardCharsets.UTF_8);
+        int h = seed;
+        int i = 0;
+        for (; i + 4 <= data.length; i += 4) {
+            int k = (data[i] & 0xff) | (data[i + 1] & 0xff) << 8
+                    | (data[i + 2] & 0xff) << 16 | (data[i + 3] & 0xff) << 24;
+            h ^= mix(k);
+            h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+        }
+        int k = 0;
+        for (int shift = 0; i < data.length; i += 1, shift += 8) {
+            k |= (data[i] & 0xff) << shift;
+        }
+        h ^= mix(k);
+        h ^= data.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** Returns the Murmur3 mix of block K.
+     * @param k 32-bit block */
+    private static int mix(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1b873593;
+    }
+
+    /** Bits used per path; with NUM_HASHES, gives about 1% false
+     * positives. */
+    private static final int BITS_PER_PATH = 10;
+
+    /** Number of bit positions set per path. */
+    private static final int NUM_HASHES = 7;
+
+    /** Smallest filter size, in bits. */
+    private static final int MIN_BITS = 64;
+
+    /** Seed of the first hash. */
+    private static final int SEED1 = 0x293ae76f;
+
+    /** Seed of the second hash. */
+    private static final int SEED2 = 0x7e646e2c;
+
+    /** The bit array; empty to mean "might contain anything". */
+    private final byte[] _bits;
+}
@@ -0,0 +1,260 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/** The objects one repository must send another so that the receiver has
+ * a given commit and its history. The commits to send are found by
+ * walking the sender's commit graph back from the wanted commit and
+ * stopping at the commits the receiver already has; only blobs the
+ * receiver lacks are sent. The objects then travel as a single stream
+ * from a writer thread to the receiver, which writes them as one batch.
+ * Bundle format:
+ * <pre>
+ * MAGIC  object-format
+ * CHUNK  id length bytes          (chunks of the next blob it lacks)
+ * OBJECT id length bytes          (blobs, then commits, parents first)
+ * GRAPH  commit-graph record      (one per commit, parents first)
+ * END
+ * </pre>
+ * @author Jeff Xiang
+ */
+class Bundle {
+
+    /** A bundle of the objects the repository whose .gitlet directory is
+     * DEST lacks to have commit WANT of the repository in SOURCE.
+     * @param source .gitlet directory of the sending repository
+     * @param dest .gitlet directory of the receiving repository
+     * @param want full SHA-1 value of the wanted commit */
+    Bundle(File source, File dest, String want) {
+        _dest = dest;
+        _sourceObjects = ObjectStore.open(source);
+        _destObjects = ObjectStore.open(dest);
+        _sourceChunks = chunkStore(source);
+        _destChunks = chunkStore(dest);
+        _sourceGraph = CommitGraph.read(source, _sourceObjects);
+        CommitGraph destgraph = CommitGraph.read(dest, _destObjects);
+        _commits = missingCommits(destgraph, want);
+        _blobs = missingBlobs();
+    }
+
+    /** Returns the commits WANT and its ancestors that DESTGRAPH lacks,
+     * parents before children.
+     * @param destgraph commit graph of the receiver
+     * @param want full SHA-1 value of the wanted commit */
+    private ArrayList<String> missingCommits(CommitGraph destgraph,
+                                             String want) {
+        ArrayList<String> result = new ArrayList<>();
+        HashSet<String> visited = new HashSet<>();
+        HashSet<String> done = new HashSet<>();
+        ArrayDeque<String> work = new ArrayDeque<>();
+        work.push(want);
+        while (!work.isEmpty()) {
+            String sha = work.peek();
+            if (done.contains(sha) || destgraph.has(sha)) {
+                work.pop();
+            } else if (visited.add(sha)) {
+                CommitGraph.Entry entry = _sourceGraph.get(sha);
+                if (entry.getParent2SHA() != null) {
+                    work.push(entry.getParent2SHA());
+                }
+                if (entry.getParentSHA() != null) {
+                    work.push(entry.getParentSHA());
+                }
+            } else {
+                work.pop();
+                done.add(sha);
+                result.add(sha);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the blobs of my commits that the receiver lacks. */
+    private ArrayList<String> missingBlobs() {
+        ArrayList<String> result = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        for (String sha : _commits) {
+            Commit c = Utils.deserialize(_sourceObjects.get(sha),
+                    Commit.class);
+            for (String blob : c.getBlobs().values()) {
+                if (seen.add(blob) && !_destObjects.has(blob)) {
+                    result.add(blob);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Sends this bundle to the receiver, then appends the new commits to
+     * its commit graph. Returns the commits sent, parents first; the
+     * caller updates the receiver's branches. */
+    List<String> transfer() {
+        if (_commits.isEmpty()) {
+            return _commits;
+        }
+        IOException[] failure = new IOException[1];
+        try (PipedInputStream pipe = new PipedInputStream(PIPE_SIZE)) {
+            PipedOutputStream sink = new PipedOutputStream(pipe);
+            Thread writer = new Thread(() -> {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(sink, PIPE_SIZE))) {
+                    write(out);
+                } catch (IOException excp) {
+                    failure[0] = excp;
+                }
+            });
+            writer.start();
+            List<CommitGraph.Entry> entries = read(new DataInputStream(
+                    new BufferedInputStream(pipe, PIPE_SIZE)));
+            writer.join();
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            CommitGraph.append(_dest, entries);
+        } catch (IOException | InterruptedException excp) {
+            throw Utils.error("Could not transfer objects: %s",
+                    excp.getMessage());
+        }
+        return _commits;
+    }
+
+    /** Writes this bundle to OUT.
+     * @param out bundle stream */
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeUTF(Hashing.objects().getName());
+        HashSet<String> chunks = new HashSet<>();
+        for (String sha : _blobs) {
+            byte[] contents = _sourceObjects.get(sha);
+            Blob blob = Utils.deserialize(contents, Blob.class);
+            for (String chunk : blob.getChunks()) {
+                if (chunks.add(chunk) && !_destChunks.has(chunk)) {
+                    writeRecord(out, CHUNK, chunk, _sourceChunks.get(chunk));
+                }
+            }
+            writeRecord(out, OBJECT, sha, contents);
+        }
+        for (String sha : _commits) {
+            writeRecord(out, OBJECT, sha, _sourceObjects.get(sha));
+        }
+        for (String sha : _commits) {
+            out.writeByte(GRAPH);
+            _sourceGraph.get(sha).write(out);
+        }
+        out.writeByte(END);
+    }
+
+    /** Writes a record of type TYPE holding object or chunk ID, whose
+     * contents are CONTENTS, to OUT.
+     * @param out bundle stream
+     * @param type OBJECT or CHUNK
+     * @param id object or chunk id
+     * @param contents stored contents */
+    private void writeRecord(DataOutputStream out, int type, String id,
+                             byte[] contents) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(id);
+        out.writeInt(contents.length);
+        out.write(contents);
+    }
+
+    /** Reads a bundle from IN, durably writing its objects into the
+     * receiver, and returns its commit-graph records.
+     * @param in bundle stream */
+    private List<CommitGraph.Entry> read(DataInputStream in)
+            throws IOException {
+        if (in.readInt() != MAGIC
+                || !in.readUTF().equals(Hashing.objects().getName())) {
+            throw new IOException("bad bundle");
+        }
+        ObjectStore.Batch chunkbatch = _destChunks.batch();
+        ObjectStore.Batch batch = _destObjects.batch();
+        ArrayList<CommitGraph.Entry> entries = new ArrayList<>();
+        int idlength = Hashing.objects().hexLength() / 2;
+        for (int type = in.readByte(); type != END; type = in.readByte()) {
+            if (type == OBJECT || type == CHUNK) {
+                String id = in.readUTF();
+                byte[] contents = new byte[in.readInt()];
+                in.readFully(contents);
+                if (type == CHUNK) {
+                    chunkbatch.put(id, contents);
+                } else {
+                    batch.put(id, contents);
+                }
+            } else if (type == GRAPH) {
+                entries.add(CommitGraph.readEntry(in, idlength));
+            } else {
+                throw new IOException("bad bundle record");
+            }
+        }
+        chunkbatch.flush();
+        batch.flush();
+        return entries;
+    }
+
+    /** Returns the chunk store of the repository whose .gitlet directory
+     * is GITLETDIR.
+     * @param gitletDir .gitlet directory */
+    private static ObjectStore chunkStore(File gitletDir) {
+        return new LooseObjectStore(new File(gitletDir, "chunks"),
+                new File(gitletDir, "tmp"));
+    }
+
+    /** Returns the number of blobs in this bundle. */
+    int getBlobCount() {
+        return _blobs.size();
+    }
+
+    /** Magic number at the start of a bundle ("GLBN"). */
+    private static final int MAGIC = 0x474c424e;
+
+    /** Record type: end of bundle. */
+    private static final int END = 0;
+
+    /** Record type: a serialized object. */
+    private static final int OBJECT = 1;
+
+    /** Record type: a commit-graph record. */
+    private static final int GRAPH = 2;
+
+    /** Record type: a chunk of a large blob. */
+    private static final int CHUNK = 3;
+
+    /** Size of the pipe and stream buffers. */
+    private static final int PIPE_SIZE = 1 << 16;
+
+    /** Object store of the sender. */
+    private final ObjectStore _sourceObjects;
+
+    /** Object store of the receiver. */
+    private final ObjectStore _destObjects;
+
+    /** Chunk store of the sender. */
+    private final ObjectStore _sourceChunks;
+
+    /** Chunk store of the receiver. */
+    private final ObjectStore _destChunks;
+
+    /** .gitlet directory of the receiver. */
+    private final File _dest;
+
+    /** Commit graph of the sender. */
+    private final CommitGraph _sourceGraph;
+
+    /** Commits to send, parents first. */
+    private final ArrayList<String> _commits;
+
+    /** Blobs to send. */
+    private final ArrayList<String> _blobs;
+}
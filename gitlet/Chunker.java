@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Content-defined chunking in the manner of FastCDC. A rolling "gear"
+ * hash is updated with each byte, and a chunk ends where the hash's top
+ * bits are all zero. Since boundaries depend only on the bytes just
+ * before them, an edit moves the boundaries near it and leaves the rest
+ * in place, so two versions of a file share all chunks away from their
+ * differences. Boundaries are harder to find before the normal chunk
+ * size and easier after it, which narrows the spread of chunk sizes, and
+ * the first MIN_SIZE bytes of a chunk are skipped entirely.
+ * @author Jeff Xiang
+ */
+class Chunker {
+
+    /** Returns the offsets at which DATA is cut into chunks: the end of
+     * each chunk, the last being DATA.length.
+     * @param data contents to divide */
+    static List<Integer> cuts(byte[] data) {
+        ArrayList<Integer> result = new ArrayList<>();
+        int start = 0;
+        do {
+            start = cut(data, start, data.length);
+            result.add(start);
+        } while (start < data.length);
+        return result;
+    }
+
+    /** Returns the end of the chunk of DATA that starts at START, where
+     * the data ends at END.
+     * @param data contents
+     * @param start start of the chunk
+     * @param end end of the contents */
+    static int cut(byte[] data, int start, int end) {
+        if (end - start <= MIN_SIZE) {
+            return end;
+        }
+        int limit = Math.min(end, start + MAX_SIZE);
+        int normal = Math.min(limit, start + NORMAL_SIZE);
+        long hash = 0;
+        int i = start + MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & BYTE_MASK];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & BYTE_MASK];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Returns the gear table: a fixed pseudo-random value per byte, the
+     * same in every repository so that chunk boundaries, and hence chunk
+     * ids, agree between them. */
+    private static long[] gear() {
+        long[] result = new long[BYTE_MASK + 1];
+        Random random = new Random(GEAR_SEED);
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = random.nextLong();
+        }
+        return result;
+    }
+
+    /** Smallest chunk, except at the end of the data. */
+    static final int MIN_SIZE = 1 << 14;
+
+    /** Size at which finding a boundary becomes easier. */
+    static final int NORMAL_SIZE = 1 << 16;
+
+    /** Largest chunk. */
+    static final int MAX_SIZE = 1 << 18;
+
+    /** Boundary mask before NORMAL_SIZE: two more bits than the average
+     * chunk size implies, so boundaries there are rarer. The top bits
+     * depend on the last 64 bytes, the window of the hash. */
+    private static final long MASK_SMALL = -1L << (Long.SIZE - 18);
+
+    /** Boundary mask after NORMAL_SIZE: two fewer bits. */
+    private static final long MASK_LARGE = -1L << (Long.SIZE - 14);
+
+    /** Seed of the gear table. */
+    private static final long GEAR_SEED = 0x676974_6c6574L;
+
+    /** Mask of the low eight bits of an int. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Gear hash value of each byte. */
+    private static final long[] GEAR = gear();
+}
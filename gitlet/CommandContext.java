@@ -0,0 +1,110 @@
+package gitlet;
+
+import java.util.HashMap;
+
+/** The repository state one command works on: the commit tree, the
+ * staging index and the commits it reads, each loaded at most once and
+ * shared by every helper the command calls. Changes to the commit tree
+ * and index are marked rather than written, and written back once, by
+ * save, when the command completes.
+ * @author Jeff Xiang
+ */
+class CommandContext {
+
+    /** The state of a command described, in the reflog entries of the
+     * changes it makes, by REFLOGMESSAGE.
+     * @param reflogMessage the command line */
+    CommandContext(String reflogMessage) {
+        _reflogMessage = reflogMessage;
+    }
+
+    /** Returns the commit tree, reading it on first use. */
+    CommitTree getCommitTree() {
+        if (_commitTree == null) {
+            _commitTree = Utils.getCommitTree();
+            _commitTree.setReflogMessage(_reflogMessage);
+        }
+        return _commitTree;
+    }
+
+    /** Returns the head commit of the current branch, as the commit tree
+     * now has it. */
+    Commit getHead() {
+        return getCommit(getCommitTree().getHeadSHA());
+    }
+
+    /** Returns the head commit of branch BRANCH, or null if there is no
+     * such branch.
+     * @param branch branch name */
+    Commit getBranchHead(String branch) {
+        String sha = getCommitTree().getBranch(branch);
+        return sha == null ? null : getCommit(sha);
+    }
+
+    /** Returns the commit whose full SHA-1 value is SHA, reading it on
+     * first use.
+     * @param sha SHA-1 value of a commit */
+    Commit getCommit(String sha) {
+        Commit result = _commits.get(sha);
+        if (result == null) {
+            result = Commit.read(sha);
+            _commits.put(sha, result);
+        }
+        return result;
+    }
+
+    /** Returns the first parent of commit C, or null if it has none.
+     * @param c commit */
+    Commit getParent(Commit c) {
+        return c.getParentSHA() == null ? null : getCommit(c.getParentSHA());
+    }
+
+    /** Returns the staging index, reading it on first use. */
+    Index getIndex() {
+        if (_index == null) {
+            _index = Index.read();
+        }
+        return _index;
+    }
+
+    /** Records that the commit tree has changed and must be saved. */
+    void treeChanged() {
+        _treeChanged = true;
+    }
+
+    /** Records that the index has changed and must be saved. */
+    void indexChanged() {
+        _indexChanged = true;
+    }
+
+    /** Writes back the commit tree, then the index, if they changed. New
+     * objects were written before either names them. */
+    void save() {
+        if (_treeChanged) {
+            _commitTree.serialize();
+            _treeChanged = false;
+        }
+        if (_indexChanged) {
+            _index.write();
+            _indexChanged = false;
+        }
+    }
+
+    /** Message of the reflog entries of this command's changes. */
+    private final String _reflogMessage;
+
+    /** The commit tree, once read. */
+    private CommitTree _commitTree;
+
+    /** The staging index, once read. */
+    private Index _index;
+
+    /** Commits read, keyed by SHA-1 value. */
+    private final HashMap<String, Commit> _commits = new HashMap<>();
+
+    /** True iff _commitTree must be saved. */
+    private boolean _treeChanged;
+
+    /** True iff _index must be saved. */
+    private boolean _indexChanged;
+}
@@ -1,13 +1,26 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.Map;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 /** An object that reads and interperets commands from an input source.
  * @author Jeff Xiang
@@ -19,7 +32,17 @@ public class CommandInterpreter {
     /** A new CommandInterpreter object.
      * @param inp input string array */
     CommandInterpreter(String[] inp) {
+        this(inp, false);
+    }
+
+    /** A new CommandInterpreter object for a command run while its caller
+     * holds the repository lock, iff LOCKED.
+     * @param inp input string array
+     * @param locked true if the repository is already locked */
+    CommandInterpreter(String[] inp, boolean locked) {
         _input = inp;
+        _locked = locked;
+        _context = new CommandContext(String.join(" ", inp));
     }
 
     /** Parse and execute one statement from the token stream. */
@@ -28,13 +51,37 @@ public class CommandInterpreter {
             System.out.println("Please enter a command.");
             return;
         }
-        boolean correctops = true;
-        if (!_input[0].equals("init")) {
+        if (!_input[0].equals("init") && !_input[0].equals("batch")) {
             if (!new File(".gitlet").exists()) {
                 System.out.println("Not in an initialized Gitlet directory.");
                 return;
             }
         }
+        RepositoryLock lock = null;
+        if (!_locked && !UNLOCKED.contains(_input[0])) {
+            lock = RepositoryLock.acquire(new File(".gitlet"),
+                    !READ_ONLY.contains(_input[0]));
+            if (lock == null) {
+                System.out.println(LOCKED);
+                return;
+            }
+        }
+        try {
+            if (!execute()) {
+                System.out.println("Incorrect operands.");
+            }
+            _context.save();
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+        }
+    }
+
+    /** Executes the statement, holding whatever lock it needs.
+     * @return true if operands are correct. */
+    private boolean execute() {
+        boolean correctops = true;
         switch (_input[0]) {
         case "init":
             correctops = initStatement();
@@ -75,21 +122,88 @@ public class CommandInterpreter {
         case "merge":
             correctops = mergeStatement();
             break;
+        case "blame":
+            correctops = blameStatement();
+            break;
+        case "import":
+            correctops = importStatement();
+            break;
+        case "count-objects":
+            correctops = countobjectsStatement();
+            break;
+        case "fsmonitor":
+            correctops = fsmonitorStatement();
+            break;
+        case "add-remote":
+            correctops = addremoteStatement();
+            break;
+        case "rm-remote":
+            correctops = rmremoteStatement();
+            break;
+        case "fetch":
+            correctops = fetchStatement();
+            break;
+        case "push":
+            correctops = pushStatement();
+            break;
+        case "pull":
+            correctops = pullStatement();
+            break;
+        case "lock-stats":
+            correctops = lockstatsStatement();
+            break;
+        case "batch":
+            correctops = batchStatement();
+            break;
+        case "sparse-checkout":
+            correctops = sparsecheckoutStatement();
+            break;
+        case "repack":
+            correctops = repackStatement();
+            break;
+        case "pack-refs":
+            correctops = packrefsStatement();
+            break;
+        case "config":
+            correctops = configStatement();
+            break;
+        case "unlock":
+            correctops = unlockStatement();
+            break;
+        case "archive":
+            correctops = archiveStatement();
+            break;
+        case "reflog":
+            correctops = reflogStatement();
+            break;
+        case "cherry-pick":
+            correctops = cherrypickStatement();
+            break;
+        case "rebase":
+            correctops = rebaseStatement();
+            break;
         default:
             System.out.println("No command with that name exists.");
             break;
         }
-        if (!correctops) {
-            System.out.println("Incorrect operands.");
-        }
+        return correctops;
     }
 
     /** Execute an init statement.
      * @return true if operands are correct. */
     boolean initStatement() {
-        if (_input.length != 1) {
+        String format = Hashing.SHA1.getName();
+        if (_input.length == 2
+                && _input[1].startsWith("--object-format=")) {
+            format = _input[1].substring("--object-format=".length());
+        } else if (_input.length != 1) {
             return false;
         }
+        if (!format.equals(Hashing.SHA1.getName())
+                && !format.equals(Hashing.SHA256.getName())) {
+            System.out.println("Unknown object format.");
+            return true;
+        }
         File f = new File(".gitlet");
         boolean success = f.mkdir();
         if (!success) {
@@ -98,47 +212,58 @@ public class CommandInterpreter {
             return true;
         } else {
             File serializeddir = new File(".gitlet/serialized");
-            File stageddir = new File(".gitlet/staged");
             serializeddir.mkdir();
-            stageddir.mkdir();
+            Config.set(Hashing.OBJECT_FORMAT, format);
             Commit initcommit = new Commit();
             CommitTree commitTree = new CommitTree(initcommit);
-            initcommit.serialize();
+            Index index = new Index();
+            Utils.useStores(null, null);
+            ObjectStore.Batch batch = Utils.objects().batch();
+            initcommit.serialize(batch, index);
+            batch.flush();
+            CommitGraph.append(initcommit);
             commitTree.serialize();
+            index.write();
             return true;
         }
     }
 
-    /** Execute an add statement.
+    /** Execute an add statement: "add PATH" stages the file PATH, or
+     * every file under directory PATH, and "add --timings PATH" also
+     * prints the time spent in each stage of staging.
      * @return true if operands are correct. */
     boolean addStatement() {
-        if (_input.length != 2) {
+        boolean timings = _input.length == 3
+                && _input[1].equals("--timings");
+        if (_input.length != 2 && !timings) {
             return false;
         }
-        String filename = _input[1];
-        File toadd = new File(filename);
-        if (!toadd.exists()) {
+        String path = _input[_input.length - 1];
+        String filename = WorkingTree.normalize(path);
+        if (!new File(path).exists()) {
             System.out.println("File does not exist.");
             return true;
         }
-        byte[] toaddcontents = Utils.readContents(toadd);
-        CommitTree commitTree = Utils.readObject(
-                new File(Utils.SERIALIZED + "CT"), CommitTree.class);
-        Commit headcommit = commitTree.getHeadCommit();
-        if (headcommit.blobExists(filename)) {
-            Blob commited = headcommit.getBlob(filename);
-            byte[] commitedcontents = commited.getContents();
-            if (Arrays.equals(toaddcontents, commitedcontents)) {
-                new File(Utils.STAGED + filename).delete();
-                return true;
-            }
-            if (commitTree.getRmMarked().contains(filename)) {
-                commitTree.removeRmMarked(filename);
-                commitTree.serialize();
+        Commit headcommit = _context.getHead();
+        Index index = _context.getIndex();
+        List<String> names = WorkingTree.files(filename,
+                headcommit.getFilenames(), index.getStaged().keySet());
+        StagingPipeline pipeline =
+                new StagingPipeline(headcommit.getBlobs());
+        Map<String, String> blobs = pipeline.run(names);
+        for (String name : names) {
+            index.unmarkRemoved(name);
+            String sha = blobs.get(name);
+            if (sha.equals(headcommit.getBlobs().get(name))) {
+                index.unstage(name);
+            } else {
+                index.stage(name, sha);
             }
         }
-        File tostage = new File(Utils.STAGED + filename);
-        Utils.writeContents(tostage, toaddcontents);
+        _context.indexChanged();
+        if (timings) {
+            pipeline.printTimings();
+        }
         return true;
     }
 
@@ -154,93 +279,123 @@ public class CommandInterpreter {
             return true;
         }
         String message = _input[1];
-        List<String> files = Arrays.asList(new File(Utils.STAGED).list());
-        CommitTree commitTree = Utils.getCommitTree();
-        if ((files.size() == 0)
-                && commitTree.getRmMarked().isEmpty()) {
+        CommitTree commitTree = _context.getCommitTree();
+        Index index = _context.getIndex();
+        if (index.isEmpty()) {
             System.out.println("No changes added to the commit.");
             return true;
         }
-        Commit c = new Commit(message, files);
-        commitTree.setHead(c.getSHA());
-        c.initiate(c.getFilenames());
-        commitTree.addCommit(c.getSHA());
-        commitTree.clearrmMarked();
-        commitTree.serialize();
-        for (String filename: files) {
-            File todelete = new File(Utils.STAGED + filename);
-            todelete.delete();
-        }
+        Commit c = new Commit(message, _context.getHead(), index);
+        publishCommit(c, commitTree, index);
         return true;
     }
 
+    /** Durably writes new commit C and the blobs staged in INDEX, then
+     * makes C the head of COMMITTREE and clears INDEX.
+     * @param c new commit
+     * @param commitTree commit tree
+     * @param index staging index C was built from */
+    void publishCommit(Commit c, CommitTree commitTree, Index index) {
+        ObjectStore.Batch batch = Utils.objects().batch();
+        c.serialize(batch, index);
+        batch.flush();
+        CommitGraph.append(c);
+        commitTree.setHead(c.getSHA());
+        _context.treeChanged();
+        index.clear();
+        _context.indexChanged();
+    }
+
     /** Execute an rm statement.
      * @return true if operands are correct. */
     boolean rmStatement() {
         if (_input.length != 2) {
             return false;
         }
-        String filename = _input[1];
-        File torm = new File(Utils.STAGED + filename);
-        CommitTree commitTree = Utils.getCommitTree();
-        Commit headcommit = commitTree.getHeadCommit();
-        boolean tormexists = torm.exists();
+        String filename = WorkingTree.normalize(_input[1]);
+        Commit headcommit = _context.getHead();
+        Index index = _context.getIndex();
+        boolean tormexists = index.isStaged(filename);
         if (!tormexists && !headcommit.blobExists(filename)) {
             System.out.println("No reason to remove the file.");
             return true;
         }
         if (tormexists) {
-            torm.delete();
+            index.unstage(filename);
         }
         if (headcommit.blobExists(filename)) {
-            commitTree.addRmMarked(filename);
-            commitTree.serialize();
-            if (new File(filename).exists()) {
-                Utils.restrictedDelete(new File(filename));
-                commitTree.addRemoved(filename);
-                commitTree.serialize();
-            }
+            index.markRemoved(filename);
+            WorkingTree.delete(filename);
         }
+        _context.indexChanged();
         return true;
     }
 
     /** Execute a log statement.
      * @return true if operands are correct. */
     boolean logStatement() {
-        if (_input.length != 1) {
+        if (_input.length == 3 && _input[1].equals("--")) {
+            pathLog(_input[2]);
+            return true;
+        } else if (_input.length != 1) {
             return false;
         }
-        CommitTree commitTree = Utils.getCommitTree();
-        Commit currcommit = commitTree.getHeadCommit();
+        Commit currcommit = _context.getHead();
         while (currcommit != null) {
-            System.out.println("===");
-            System.out.println("commit " + currcommit.getSHA());
-            if (currcommit.getParent2SHA() != null) {
-                System.out.println("Merge: "
-                        + currcommit.getParentSHA().substring(0, 7) + " "
-                        + currcommit.getParent2SHA().substring(0, 7));
-            }
-            System.out.println("Date: " + currcommit.getDate());
-            System.out.println(currcommit.getMessage());
-            System.out.println("");
+            printLogEntry(currcommit);
             if (currcommit.getParentSHA() == null) {
                 break;
             }
-            currcommit = currcommit.getParentCommit();
+            currcommit = _context.getParent(currcommit);
         }
         return true;
     }
 
+    /** Prints the log entries of the commits, from the head back along
+     * first parents, that changed file or directory PATH. Uses the
+     * changed-path filters in the commit graph, so only commits that
+     * might have changed PATH are deserialized.
+     * @param path file or directory path */
+    void pathLog(String path) {
+        CommitGraph graph = CommitGraph.read();
+        String sha = _context.getCommitTree().getHeadSHA();
+        while (sha != null) {
+            CommitGraph.Entry entry = graph.get(sha);
+            if (entry.mightChange(path)) {
+                Commit c = _context.getCommit(sha);
+                Commit parent = _context.getParent(c);
+                if (CommitGraph.changedPaths(c, parent).contains(path)) {
+                    printLogEntry(c);
+                }
+            }
+            sha = entry.getParentSHA();
+        }
+    }
+
+    /** Prints the log entry of commit C.
+     * @param c commit */
+    void printLogEntry(Commit c) {
+        System.out.println("===");
+        System.out.println("commit " + c.getSHA());
+        if (c.getParent2SHA() != null) {
+            System.out.println("Merge: "
+                    + c.getParentSHA().substring(0, 7) + " "
+                    + c.getParent2SHA().substring(0, 7));
+        }
+        System.out.println("Date: " + c.getDate());
+        System.out.println(c.getMessage());
+        System.out.println("");
+    }
+
     /** Execute a global-log statement.
      * @return true if operands are correct. */
     boolean globallogStatement() {
         if (_input.length != 1) {
             return false;
         }
-        ArrayList<String> commits = Utils.getCommitTree().getCommits();
+        List<String> commits = _context.getCommitTree().getCommits();
         for (String commitSHA: commits) {
-            Commit currcommit = Utils.readObject(
-                    new File(Utils.SERIALIZED + commitSHA), Commit.class);
+            Commit currcommit = Commit.read(commitSHA);
             System.out.println("===");
             System.out.println("commit " + currcommit.getSHA());
             if (currcommit.getParent2SHA() != null) {
@@ -262,11 +417,10 @@ public class CommandInterpreter {
             return false;
         }
         String commitmessage = _input[1];
-        ArrayList<String> commits = Utils.getCommitTree().getCommits();
+        List<String> commits = _context.getCommitTree().getCommits();
         int found = 0;
         for (String commitSHA: commits) {
-            Commit currcommit = Utils.readObject(
-                    new File(Utils.SERIALIZED + commitSHA), Commit.class);
+            Commit currcommit = Commit.read(commitSHA);
             if (currcommit.getMessage().equals(commitmessage)) {
                 System.out.println(currcommit.getSHA());
                 found++;
@@ -284,170 +438,103 @@ public class CommandInterpreter {
         if (_input.length != 1) {
             return false;
         }
-        CommitTree commitTree = Utils.getCommitTree();
-        ArrayList<String> branches = commitTree.getBranches();
-        Collections.sort(branches);
+        CommitTree commitTree = _context.getCommitTree();
         System.out.println("=== Branches ===");
-        for (String branch: branches) {
-            if (!branch.equals(commitTree.getHeadName())) {
-                System.out.println(branch);
-            } else {
-                System.out.println("*" + commitTree.getHeadName());
-            }
-        }
+        printBranches(commitTree, "", null);
         System.out.println("");
         System.out.println("=== Staged Files ===");
-        String[] filenames = new File(Utils.STAGED).list();
-        if (filenames != null) {
-            Arrays.sort(filenames);
-        }
-        for (String filename: filenames) {
+        Index index = _context.getIndex();
+        Commit headcommit = _context.getHead();
+        WorkingState working = WorkingState.read(
+                headcommit.getFilenames(), index.getStaged().keySet());
+        for (String filename: index.getStaged().keySet()) {
             System.out.println(filename);
         }
         System.out.println("");
         System.out.println("=== Removed Files ===");
-        ArrayList<String> removed = commitTree.getRemoved();
-        Collections.sort(removed);
-        for (String removedfilename: removed) {
-            if (!new File(removedfilename).exists()) {
+        for (String removedfilename: index.getRemoved()) {
+            if (!working.exists(removedfilename)) {
                 System.out.println(removedfilename);
             }
         }
         System.out.println("");
         System.out.println("=== Modifications Not Staged For Commit ===");
-        removedfiles();
+        printModifications(index, working, headcommit);
         System.out.println("=== Untracked Files ===");
-        String[] filesinworkingdir = new File(".").list();
-        Commit headcommit = commitTree.getHeadCommit();
-        ArrayList<String> untracked = new ArrayList<>();
-        for (String filename: filesinworkingdir) {
-            boolean staged = new File(Utils.STAGED + filename).exists();
-            boolean tracked = headcommit.blobExists(filename);
-            if (!staged && !tracked) {
-                untracked.add(filename);
-            }
-        }
-        Collections.sort(untracked);
-        for (String untrackedname: untracked) {
-            if (!new File(untrackedname).isDirectory()) {
-                System.out.println(untrackedname);
+        MergeJoin join = new MergeJoin(working.paths(),
+                index.getStaged().keySet(), headcommit.getSortedFilenames());
+        while (join.next()) {
+            if (join.in(0) && !join.in(1) && !join.in(2)) {
+                System.out.println(join.name());
             }
         }
         System.out.println("");
+        working.write();
         return true;
     }
 
-    /** List out removed files. */
-    void removedfiles() {
-        ArrayList<String> modnotstaged = modnotstaged();
-        CommitTree commitTree = Utils.getCommitTree();
-        List<String> headfiles = commitTree.getHeadCommit().getFilenames();
-        for (String headfile: headfiles) {
-            boolean stagedforrm = commitTree.getRmMarked().contains(headfile);
-            if (!stagedforrm
-                    && !new File(headfile).exists()) {
-                modnotstaged.add(headfile);
-            }
-        }
-        Collections.sort(modnotstaged);
-        for (String modnotstagedfile: modnotstaged) {
-            boolean deleted = !new File(modnotstagedfile).exists();
-            if (deleted) {
-                System.out.println(modnotstagedfile + " (deleted)");
-            } else {
-                System.out.println(modnotstagedfile + " (modified)");
-            }
-        }
-        System.out.println("");
-    }
-
-    /** Helper method for status. Returns an ArrayList
-     * of filenames that are modified but not
-     * staged for commit, unordered. */
-    private ArrayList<String> modnotstaged() {
-        ArrayList<String> modnotstaged = new ArrayList<>();
-        String[] filesinworkingdir = new File(".").list();
-        CommitTree commitTree = Utils.getCommitTree();
-        Commit headcommit = commitTree.getHeadCommit();
-        for (String filename: filesinworkingdir) {
-            boolean cond1, cond2, cond3, cond4;
-            cond1 = cond2 = cond3 = cond4 = false;
-            boolean workingfileexists = new File(filename).exists();
-            boolean tracked = headcommit.blobExists(filename);
-            boolean staged = new File(Utils.STAGED + filename).exists();
-            boolean stagedforremoval = commitTree.getRmMarked()
-                    .contains(filename);
-            if (workingfileexists) {
-                if (tracked) {
-                    boolean changed = !headcommit.sameContents(filename);
-                    if (changed && !staged) {
-                        cond1 = true;
-                    }
-                }
-                if (staged) {
-                    byte[] stagedcontents = Utils.readContents(
-                            new File(Utils.STAGED + filename));
-                    byte[] workingcontents =
-                            Utils.readContents(new File(filename));
-                    if (!Arrays.equals(stagedcontents, workingcontents)) {
-                        cond2 = true;
-                    }
+    /** Prints, in order, the files with changes not staged for commit:
+     * the working files that differ from their staged or (if not staged)
+     * HEADCOMMIT's versions, and the staged or tracked files deleted from
+     * the working tree but not staged for removal. One merge join of the
+     * sorted working files, staged files and tracked files finds them.
+     * @param index staging index
+     * @param working state of the working tree
+     * @param headcommit head commit */
+    private void printModifications(Index index, WorkingState working,
+                                    Commit headcommit) {
+        SparseCheckout sparse = SparseCheckout.load();
+        MergeJoin join = new MergeJoin(working.paths(),
+                index.getStaged().keySet(), headcommit.getSortedFilenames());
+        while (join.next()) {
+            String name = join.name();
+            boolean staged = join.in(1), tracked = join.in(2);
+            if (!join.in(0)) {
+                if (sparse.includes(name) && (staged
+                        || tracked && !index.isRemoved(name))) {
+                    System.out.println(name + " (deleted)");
                 }
-            } else {
-                if (staged) {
-                    cond3 = true;
-                }
-                if (!stagedforremoval && tracked) {
-                    cond4 = true;
-                }
-            }
-            if (cond1 || cond2 || cond3 || cond4) {
-                modnotstaged.add(filename);
+            } else if (staged ? !working.getSHA(name).equals(
+                               index.getStagedSHA(name))
+                       : tracked && !working.getSHA(name).equals(
+                               headcommit.getBlobs().get(name))) {
+                System.out.println(name + " (modified)");
             }
         }
-        return modnotstaged;
+        System.out.println("");
     }
 
     /** Case 1 of checkout.
      * @param commitTree commit tree */
     void checkoutcase1(CommitTree commitTree) {
-        String filename = _input[2];
-        Commit headcommit = commitTree.getHeadCommit();
+        String filename = WorkingTree.normalize(_input[2]);
+        Commit headcommit = _context.getHead();
         if (!headcommit.blobExists(filename)) {
             System.out.println("File does not exist in that commit.");
         } else {
-            Blob commitedblob = headcommit.getBlob(filename);
-            byte[] commitedcontents = commitedblob.getContents();
-            Utils.writeContents(new File(filename), commitedcontents);
+            WorkingTree.write(filename, headcommit.getBlob(filename));
         }
     }
 
     /** Case 2 of checkout. */
     void checkoutcase2() {
         String commitid = _input[1];
-        String filename = _input[3];
-        for (String name: new File(Utils.SERIALIZED).list()) {
-            if (!name.equals("CT") && name.contains(commitid)
-                    || name.equals(commitid)) {
-                Commit commit = Utils.readObject(
-                        new File(Utils.SERIALIZED + name), Commit.class);
-                if (!commit.blobExists(filename)) {
-                    System.out.print("File does not exist in that commit.");
-                    return;
-                }
-                Blob commitedblob = commit.getBlob(filename);
-                byte[] commitedcontents = commitedblob.getContents();
-                Utils.writeContents(new File(filename), commitedcontents);
-                return;
-            }
+        String filename = WorkingTree.normalize(_input[3]);
+        Commit commit = _context.getCommitTree().getCommit(commitid);
+        if (commit == null) {
+            return;
+        }
+        if (!commit.blobExists(filename)) {
+            System.out.print("File does not exist in that commit.");
+            return;
         }
-        System.out.println("No commit with that id exists.");
+        WorkingTree.write(filename, commit.getBlob(filename));
     }
 
     /** Executes a checkout statement.
      * @return true if operands are correct. */
     boolean checkoutStatement() {
-        CommitTree commitTree = Utils.getCommitTree();
+        CommitTree commitTree = _context.getCommitTree();
         try {
             if (_input[1].equals("--")) {
                 checkoutcase1(commitTree);
@@ -457,7 +544,7 @@ public class CommandInterpreter {
                 return true;
             } else if (_input.length == 2) {
                 String branchname = _input[1];
-                if (!commitTree.getBranchMap().containsKey(branchname)) {
+                if (!commitTree.hasBranch(branchname)) {
                     System.out.println("No such branch exists.");
                     return true;
                 } else if (commitTree.getHeadBranchName().equals(branchname)) {
@@ -465,31 +552,13 @@ public class CommandInterpreter {
                             "No need to checkout the current branch.");
                     return true;
                 }
-                Commit tocommit = commitTree.getHeadCommit(branchname);
-                String[] workingfilelist = new File(".").list();
-                ArrayList<String> notintocommit = new ArrayList<>();
-                for (String workingfile : workingfilelist) {
-                    if (untrackedChange(workingfile, tocommit)) {
-                        return true;
-                    }
-                    if (!tocommit.blobExists(workingfile)) {
-                        notintocommit.add(workingfile);
-                    }
-                }
-                List<String> commitfiles = tocommit.getFilenames();
-                for (String file : commitfiles) {
-                    Blob b = tocommit.getBlob(file);
-                    Utils.writeContents(new File(b.getName()), b.getContents());
-                }
-                for (String filenotincommit : notintocommit) {
-                    if (!filenotincommit.equals("Makefile")
-                            && !filenotincommit.equals("proj3.iml")) {
-                        Utils.restrictedDelete(filenotincommit);
-                    }
+                Commit tocommit = _context.getBranchHead(branchname);
+                if (!switchTo(_context.getHead(), tocommit)) {
+                    return true;
                 }
                 commitTree.setHeadBranchName(branchname);
                 commitTree.setHead(tocommit.getSHA());
-                commitTree.serialize();
+                _context.treeChanged();
                 return true;
             } else {
                 return false;
@@ -499,20 +568,54 @@ public class CommandInterpreter {
         }
     }
 
-    /** Executes a branch statement.
+    /** Prints the names of the branches of COMMITTREE starting with
+     * PREFIX and matching PATTERN (any, if null), in order, marking the
+     * current branch with "*". Only those branches are read.
+     * @param commitTree commit tree
+     * @param prefix start of the branch names
+     * @param pattern names to print, or null */
+    private void printBranches(CommitTree commitTree, String prefix,
+                               Pattern pattern) {
+        String head = commitTree.getHeadName();
+        commitTree.forEachBranch(prefix, (branch, sha) -> {
+            if (pattern != null && !pattern.matcher(branch).matches()) {
+                return;
+            }
+            System.out.println(branch.equals(head) ? "*" + branch : branch);
+        });
+    }
+
+    /** Executes a branch statement: branch NAME creates a branch, and
+     * branch --list [PATTERN] lists the branches whose names match the
+     * glob PATTERN, reading only those that start with its literal
+     * prefix.
      * @return true if operands are correct. */
     boolean branchStatement() {
+        if (_input.length > 1 && _input[1].equals("--list")) {
+            if (_input.length > 3) {
+                return false;
+            }
+            String pattern = _input.length == 3 ? _input[2] : "*";
+            printBranches(_context.getCommitTree(),
+                    RefStore.globPrefix(pattern),
+                    RefStore.globPattern(pattern));
+            return true;
+        }
         if (_input.length != 2) {
             return false;
         }
         String branchname = _input[1];
-        CommitTree commitTree = Utils.getCommitTree();
-        if (commitTree.getBranchMap().containsKey(branchname)) {
+        CommitTree commitTree = _context.getCommitTree();
+        if (!RefStore.isValidName(branchname)) {
+            System.out.println("Invalid branch name.");
+            return true;
+        }
+        if (commitTree.hasBranch(branchname)) {
             System.out.println("A branch with that name already exists.");
             return true;
         }
         commitTree.addBranch(branchname);
-        commitTree.serialize();
+        _context.treeChanged();
         return true;
     }
 
@@ -523,15 +626,15 @@ public class CommandInterpreter {
             return false;
         }
         String branchname = _input[1];
-        CommitTree commitTree = Utils.getCommitTree();
-        if (!commitTree.getBranchMap().containsKey(branchname)) {
+        CommitTree commitTree = _context.getCommitTree();
+        if (!commitTree.hasBranch(branchname)) {
             System.out.println("A branch with that name does not exist.");
         } else {
             if (commitTree.getHeadBranchName().equals(branchname)) {
                 System.out.println("Cannot remove the current branch.");
             } else {
                 commitTree.rmBranch(branchname);
-                commitTree.serialize();
+                _context.treeChanged();
             }
         }
         return true;
@@ -543,72 +646,721 @@ public class CommandInterpreter {
         if (_input.length != 2) {
             return false;
         }
-        String commitid = _input[1];
-        CommitTree commitTree = Utils.getCommitTree();
-        Commit currheadcommit = commitTree.getHeadCommit();
+        reset(_input[1]);
+        return true;
+    }
+
+    /** Checks out the commit with id COMMITID, which may be abbreviated,
+     * and moves the current branch head to it.
+     * @param commitid commit id */
+    void reset(String commitid) {
+        CommitTree commitTree = _context.getCommitTree();
+        Commit currheadcommit = _context.getHead();
         Commit tocommit = commitTree.getCommit(commitid);
         if (tocommit == null) {
+            return;
+        }
+        if (!switchTo(currheadcommit, tocommit)) {
+            return;
+        }
+        Index index = _context.getIndex();
+        index.clear();
+        _context.indexChanged();
+        commitTree.setHead(tocommit.getSHA());
+        _context.treeChanged();
+    }
+
+    /** Changes the working tree from commit FROM to commit TO, touching
+     * only the paths whose blobs differ between them, or that the index
+     * stages or removes, and that are in the sparse checkout. Returns
+     * false, having changed nothing, if one of those paths holds an
+     * untracked file that TO would overwrite.
+     * @param from commit the working tree is at
+     * @param to commit to check out */
+    boolean switchTo(Commit from, Commit to) {
+        HashMap<String, String> fromblobs = from.getBlobs();
+        HashMap<String, String> toblobs = to.getBlobs();
+        TreeSet<String> changed = new TreeSet<>();
+        for (String path : toblobs.keySet()) {
+            if (!toblobs.get(path).equals(fromblobs.get(path))) {
+                changed.add(path);
+            }
+        }
+        for (String path : fromblobs.keySet()) {
+            if (!toblobs.containsKey(path)) {
+                changed.add(path);
+            }
+        }
+        Index index = _context.getIndex();
+        for (String path : index.getStaged().keySet()) {
+            if (toblobs.containsKey(path)) {
+                changed.add(path);
+            }
+        }
+        for (String path : index.getRemoved()) {
+            if (toblobs.containsKey(path)) {
+                changed.add(path);
+            }
+        }
+        SparseCheckout sparse = SparseCheckout.load();
+        changed.removeIf(path -> !sparse.includes(path));
+        for (String path : changed) {
+            if (untrackedChange(path, from, to)) {
+                return false;
+            }
+        }
+        for (String path : changed) {
+            if (toblobs.containsKey(path)) {
+                WorkingTree.write(path, to.getBlob(path));
+            } else {
+                WorkingTree.delete(path);
+            }
+        }
+        return true;
+    }
+
+    /** Returns true, after saying so, if the working file FILENAME is
+     * untracked in CURRHEAD and would be overwritten by checking out
+     * TOCOMMIT.
+     * @param filename path of a working file
+     * @param currhead current head commit
+     * @param tocommit commit object to check out */
+    boolean untrackedChange(String filename, Commit currhead,
+                            Commit tocommit) {
+        String tosha = tocommit.getBlobs().get(filename);
+        File f = new File(filename);
+        if (!currhead.blobExists(filename) && tosha != null && f.isFile()
+                && !tosha.equals(Blob.sha(Utils.readContents(f), filename))
+                && !IgnoreRules.load().isIgnored(filename, false)) {
+            System.out.println("There is an untracked file in the way; "
+                    + "delete it or add it first.");
+            return true;
+        }
+        return false;
+    }
+
+    /** Executes a blame statement, printing each line of a file at the
+     * head (or a given commit) with the commit and date that last
+     * changed it.
+     * @return true if operands are correct. */
+    boolean blameStatement() {
+        String filename;
+        String commitSHA;
+        if (_input.length == 2) {
+            filename = _input[1];
+            commitSHA = _context.getCommitTree().getHeadSHA();
+        } else if (_input.length == 3) {
+            filename = _input[2];
+            Commit commit = _context.getCommitTree().getCommit(_input[1]);
+            if (commit == null) {
+                return true;
+            }
+            commitSHA = commit.getSHA();
+        } else {
+            return false;
+        }
+        CommitGraph graph = CommitGraph.read();
+        Blame blame = Blame.compute(graph, commitSHA, filename);
+        if (blame == null) {
+            System.out.println("File does not exist in that commit.");
+            return true;
+        }
+        Blob blob = Blob.read(blame.getBlobSHA());
+        List<String> lines = LineDiff.lines(
+                new String(blob.getContents(), StandardCharsets.UTF_8));
+        for (int i = 0; i < lines.size(); i += 1) {
+            String owner = blame.getCommit(i);
+            String line = lines.get(i);
+            System.out.printf("%s (%s %d) %s", owner.substring(0, 8),
+                    Commit.formatDate(graph.get(owner).getTime()), i + 1,
+                    line.endsWith("\n") ? line : line + "\n");
+        }
+        return true;
+    }
+
+    /** Executes an import statement, reading a fast-import stream from
+     * the named file or, if none is given, the standard input.
+     * @return true if operands are correct. */
+    boolean importStatement() {
+        if (_input.length > 2) {
+            return false;
+        }
+        CommitTree commitTree = _context.getCommitTree();
+        try (InputStream in = _input.length == 2
+                ? new FileInputStream(_input[1]) : System.in) {
+            FastImport fastimport = new FastImport(in, commitTree);
+            fastimport.run();
+            System.out.println("Imported " + fastimport.getCommitCount()
+                    + " commits and " + fastimport.getBlobCount()
+                    + " blobs.");
+        } catch (IOException excp) {
+            System.out.println("Could not read import stream.");
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Executes a count-objects statement: counts the commits and blobs
+     * reachable from every branch, from the given branch, or from the
+     * first given branch but not the second. It only reads the stored
+     * bitmaps, which repack refreshes.
+     * @return true if operands are correct. */
+    boolean countobjectsStatement() {
+        if (_input.length > 3) {
+            return false;
+        }
+        CommitTree commitTree = _context.getCommitTree();
+        String[] heads = new String[_input.length - 1];
+        for (int i = 1; i < _input.length; i += 1) {
+            heads[i - 1] = commitTree.getBranch(_input[i]);
+            if (heads[i - 1] == null) {
+                System.out.println("A branch with that name does not exist.");
+                return true;
+            }
+        }
+        CommitGraph graph = CommitGraph.read();
+        BitmapIndex bitmaps = BitmapIndex.read();
+        EwahBitmap objects;
+        if (_input.length == 1) {
+            EwahBitmap[] all = {EwahBitmap.of(new BitSet())};
+            commitTree.forEachBranch("", (name, head) ->
+                    all[0] = all[0].or(bitmaps.reachable(graph, head)));
+            objects = all[0];
+        } else {
+            objects = bitmaps.reachable(graph, heads[0]);
+            if (_input.length == 3) {
+                objects = objects.andNot(bitmaps.reachable(graph, heads[1]));
+            }
+        }
+        long commits = bitmaps.countCommits(objects);
+        System.out.println(commits + " commits, "
+                + (objects.cardinality() - commits) + " blobs");
+        return true;
+    }
+
+    /** Executes a fsmonitor statement: "fsmonitor run" watches the
+     * working tree until "fsmonitor stop", and "fsmonitor status" reports
+     * whether a monitor is running.
+     * @return true if operands are correct. */
+    boolean fsmonitorStatement() {
+        if (_input.length != 2) {
+            return false;
+        }
+        switch (_input[1]) {
+        case "run":
+            if (!FsMonitor.run()) {
+                System.out.println("A file system monitor is already "
+                        + "running.");
+            }
+            return true;
+        case "stop":
+            if (!FsMonitor.stop()) {
+                System.out.println("No file system monitor is running.");
+            }
+            return true;
+        case "status":
+            System.out.println(FsMonitor.isRunning() ? "Watching."
+                    : "Not watching.");
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** Executes a lock-stats statement, which reports how often commands
+     * have had to wait for the repository lock.
+     * @return true if operands are correct. */
+    boolean lockstatsStatement() {
+        if (_input.length != 1) {
+            return false;
+        }
+        long[] stats = RepositoryLock.readStats(new File(".gitlet"));
+        System.out.println("shared waits: "
+                + stats[RepositoryLock.SHARED_WAITS] + " ("
+                + stats[RepositoryLock.SHARED_WAIT_MILLIS] + " ms)");
+        System.out.println("exclusive waits: "
+                + stats[RepositoryLock.EXCLUSIVE_WAITS] + " ("
+                + stats[RepositoryLock.EXCLUSIVE_WAIT_MILLIS] + " ms)");
+        System.out.println("timeouts: " + stats[RepositoryLock.TIMEOUTS]);
+        return true;
+    }
+
+    /** Executes a batch statement, which runs the commands in a file, or
+     * read from the standard input, in this process.
+     * @return true if operands are correct. */
+    boolean batchStatement() {
+        if (_input.length > 2) {
+            return false;
+        }
+        if (_locked) {
+            System.out.println("Cannot run a batch within a batch.");
             return true;
         }
-        String[] workingfilelist = new File(".").list();
-        ArrayList<String> notintocommit = new ArrayList<>();
-        if (workingfilelist != null) {
-            for (String workingfile : workingfilelist) {
-                boolean untrackedchange =
-                        untrackedChange(workingfile, tocommit);
-                if (untrackedchange) {
+        try {
+            BufferedReader in;
+            if (_input.length == 2) {
+                File f = new File(_input[1]);
+                if (!f.isFile()) {
+                    System.out.println("File does not exist.");
                     return true;
                 }
-                if (currheadcommit.blobExists(workingfile)
-                        && !tocommit.blobExists(workingfile)) {
-                    notintocommit.add(workingfile);
+                in = Files.newBufferedReader(f.toPath());
+            } else {
+                in = new BufferedReader(
+                        new InputStreamReader(System.in));
+            }
+            try {
+                new Batch(in).run();
+            } finally {
+                in.close();
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not read commands: %s",
+                    excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Executes a sparse-checkout statement: "sparse-checkout set
+     * PATTERN..." limits the working tree to the paths PATTERN... match,
+     * "sparse-checkout list" prints the patterns and "sparse-checkout
+     * disable" checks out every path again.
+     * @return true if operands are correct. */
+    boolean sparsecheckoutStatement() {
+        if (_input.length < 2) {
+            return false;
+        }
+        switch (_input[1]) {
+        case "set":
+            if (_input.length < 3) {
+                return false;
+            }
+            changeSparse(Arrays.asList(
+                    Arrays.copyOfRange(_input, 2, _input.length)));
+            return true;
+        case "list":
+            if (_input.length != 2) {
+                return false;
+            }
+            List<String> patterns = SparseCheckout.load().getPatterns();
+            if (patterns == null) {
+                System.out.println("Sparse checkout is not enabled.");
+            } else {
+                for (String pattern : patterns) {
+                    System.out.println(pattern);
+                }
+            }
+            return true;
+        case "disable":
+            if (_input.length != 2) {
+                return false;
+            }
+            changeSparse(null);
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /** Makes PATTERNS (null for every path) the sparse checkout set,
+     * writing the files of the head commit that enter the set and
+     * deleting those that leave it, unless they are staged or changed.
+     * @param patterns pattern lines, or null */
+    private void changeSparse(List<String> patterns) {
+        Commit head = _context.getHead();
+        Index index = _context.getIndex();
+        SparseCheckout before = SparseCheckout.load();
+        SparseCheckout after = new SparseCheckout(patterns);
+        for (String file : head.getFilenames()) {
+            File f = new File(file);
+            if (!before.includes(file) && after.includes(file)) {
+                if (!f.exists()) {
+                    WorkingTree.write(file, head.getBlob(file));
                 }
+            } else if (before.includes(file) && !after.includes(file)
+                    && f.isFile() && !index.isStaged(file)
+                    && Blob.sha(Utils.readContents(f), file)
+                            .equals(head.getBlobs().get(file))) {
+                WorkingTree.delete(file);
+            }
+        }
+        SparseCheckout.store(patterns);
+        WorkingState.forget();
+    }
+
+    /** Executes a reflog statement: "reflog [-n COUNT] [BRANCH]" prints
+     * the newest COUNT (default 10) values of the head commit, or of
+     * BRANCH, newest first, with the commands that set them.
+     * @return true if operands are correct. */
+    boolean reflogStatement() {
+        int count = DEFAULT_REFLOG_COUNT;
+        int next = 1;
+        if (_input.length > 2 && _input[1].equals("-n")) {
+            try {
+                count = Integer.parseInt(_input[2]);
+            } catch (NumberFormatException excp) {
+                return false;
             }
+            next = 3;
         }
-        List<String> commitfiles = tocommit.getFilenames();
-        for (String file: commitfiles) {
-            Blob blob = tocommit.getBlob(file);
-            Utils.writeContents(new File(blob.getName()), blob.getContents());
+        if (_input.length > next + 1) {
+            return false;
         }
-        for (String filenotincommit: notintocommit) {
-            if (!filenotincommit.equals("Makefile")
-                    && !filenotincommit.equals("proj3.iml")) {
-                Utils.restrictedDelete(filenotincommit);
+        String ref = Reflog.HEAD;
+        if (_input.length == next + 1) {
+            ref = _input[next];
+            if (!_context.getCommitTree().hasBranch(ref)) {
+                System.out.println("A branch with that name does not exist.");
+                return true;
             }
         }
-        String[] stagedfiles = new File(Utils.STAGED).list();
-        for (String filename: stagedfiles) {
-            File todelete = new File(Utils.STAGED + filename);
-            todelete.delete();
+        List<Reflog> entries = Reflog.tail(new File(".gitlet"), ref, count);
+        for (int i = 0; i < entries.size(); i += 1) {
+            System.out.println(entries.get(i).getNew() + " " + ref + "@{"
+                    + i + "}: " + entries.get(i).getMessage());
         }
-        commitTree.setHead(tocommit.getSHA());
-        commitTree.serialize();
         return true;
     }
 
-    /** Returns true if the given file in the current working directory
-     * has been changed and is untracked in the
-     * current head and would be modified or deleted
-     * by reverting to TOCOMMIT.
-     * @param filename File name
-     * @param tocommit commit object to revert to */
-    boolean untrackedChange(String filename, Commit tocommit) {
-        CommitTree commitTree = Utils.getCommitTree();
-        Commit currheadcommit = commitTree.getHeadCommit();
-        if (!currheadcommit.blobExists(filename)
-                && tocommit.blobExists(filename)
-                && !tocommit.sameContents(filename)) {
-            if (!new File(filename).isDirectory()
-                    && !filename.equals("Makefile")
-                    && !filename.equals("proj3.iml")
-                    && !filename.equals(".DS_Store")) {
-                System.out.println(
-                       "There is an untracked file in the way; "
-                              + "delete it or add it first.");
+    /** Executes a repack statement: writes every object into one new pack,
+     * then deletes the old packs and the loose copies. Chunks of large
+     * blobs stay loose; they are big enough to gain nothing from packing.
+     * The reachability bitmaps of the branch heads are refreshed too, as
+     * this runs under the exclusive lock and count-objects does not.
+     * @return true if operands are correct. */
+    boolean repackStatement() {
+        if (_input.length != 1) {
+            return false;
+        }
+        ObjectStore objects = Utils.objects();
+        ArrayList<String> ids = new ArrayList<>();
+        for (String id : objects.ids()) {
+            ids.add(id);
+        }
+        File packdir = new File(Utils.PACKS);
+        File tmpdir = new File(Utils.TMP);
+        List<String> old = objects instanceof PackObjectStore
+                ? ((PackObjectStore) objects).getPackNames()
+                : new ArrayList<>();
+        String name = PackObjectStore.write(packdir, tmpdir, objects, ids);
+        for (String pack : old) {
+            if (!pack.equals(name)) {
+                PackObjectStore.delete(packdir, pack);
+            }
+        }
+        LooseObjectStore loose = new LooseObjectStore(
+                new File(Utils.SERIALIZED), tmpdir);
+        for (String id : ids) {
+            loose.remove(id);
+        }
+        Utils.useStores(null, null);
+        HashSet<String> heads = new HashSet<>();
+        _context.getCommitTree().forEachBranch("",
+                (branch, sha) -> heads.add(sha));
+        BitmapIndex bitmaps = BitmapIndex.read();
+        bitmaps.select(CommitGraph.read(), heads);
+        bitmaps.write();
+        System.out.println("Packed " + ids.size() + " objects.");
+        return true;
+    }
+
+    /** Executes a pack-refs statement, folding the branches changed one
+     * at a time into the sorted branch file.
+     * @return true if operands are correct. */
+    boolean packrefsStatement() {
+        if (_input.length != 1) {
+            return false;
+        }
+        int count = _context.getCommitTree().packRefs();
+        _context.treeChanged();
+        System.out.println("Packed " + count + " refs.");
+        return true;
+    }
+
+    /** Executes a config statement: config KEY prints the value of
+     * setting KEY, if it is set, and config KEY VALUE sets it. Only the
+     * checkout settings may be set this way; the others, such as
+     * core.objectFormat, would make an existing repository unreadable.
+     * @return true if operands are correct. */
+    boolean configStatement() {
+        if (_input.length == 2) {
+            String value = Config.get(_input[1], null);
+            if (value != null) {
+                System.out.println(value);
+            }
+            return true;
+        } else if (_input.length != 3) {
+            return false;
+        }
+        String key = _input[1];
+        String value = _input[2];
+        if (key.equals(LinkCheckout.MODE)) {
+            if (!Arrays.asList(LinkCheckout.COPY, LinkCheckout.HARDLINK,
+                    LinkCheckout.REFLINK).contains(value)) {
+                System.out.println("Invalid value for that setting.");
+                return true;
+            }
+        } else if (key.equals(LinkCheckout.THRESHOLD)) {
+            if (!value.matches("\\d{1,9}")) {
+                System.out.println("Invalid value for that setting.");
                 return true;
             }
+        } else {
+            System.out.println("That setting cannot be changed.");
+            return true;
         }
-        return false;
+        Config.set(key, value);
+        return true;
+    }
+
+    /** Executes an unlock statement, replacing the given working files
+     * (or all of them), where checkout linked them to stored contents,
+     * with private writable copies that may be changed in place.
+     * @return true if operands are correct. */
+    boolean unlockStatement() {
+        ArrayList<String> paths = new ArrayList<>();
+        if (_input.length == 1) {
+            paths.addAll(WorkingTree.files());
+        }
+        for (int i = 1; i < _input.length; i += 1) {
+            String path = WorkingTree.normalize(_input[i]);
+            if (!new File(_input[i]).exists()) {
+                System.out.println("File does not exist.");
+                return true;
+            }
+            paths.addAll(WorkingTree.files(path));
+        }
+        int count = 0;
+        for (String path : paths) {
+            if (LinkCheckout.unlock(new File(path))) {
+                count += 1;
+            }
+        }
+        System.out.println("Unlocked " + count + " files.");
+        return true;
+    }
+
+    /** Executes an archive statement: archive [--format=tar|zip]
+     * [--output=FILE] COMMIT writes the files of COMMIT, a commit id or
+     * branch name, as an archive to FILE or the standard output. The
+     * format is zip if FILE ends in .zip and tar otherwise, unless given.
+     * @return true if operands are correct. */
+    boolean archiveStatement() {
+        String format = null;
+        String output = null;
+        String commitname = null;
+        for (int i = 1; i < _input.length; i += 1) {
+            if (_input[i].startsWith("--format=")) {
+                format = _input[i].substring("--format=".length());
+            } else if (_input[i].startsWith("--output=")) {
+                output = _input[i].substring("--output=".length());
+            } else if (commitname == null) {
+                commitname = _input[i];
+            } else {
+                return false;
+            }
+        }
+        if (commitname == null) {
+            return false;
+        }
+        if (format == null) {
+            format = output != null && output.endsWith(".zip")
+                    ? Archive.ZIP : Archive.TAR;
+        }
+        if (!format.equals(Archive.TAR) && !format.equals(Archive.ZIP)) {
+            System.out.println("Unknown archive format.");
+            return true;
+        }
+        CommitTree commitTree = _context.getCommitTree();
+        Commit c = commitTree.hasBranch(commitname)
+                ? _context.getBranchHead(commitname)
+                : commitTree.getCommit(commitname);
+        if (c == null) {
+            return true;
+        }
+        try {
+            if (output == null) {
+                new Archive(System.out, format).write(c);
+            } else {
+                try (OutputStream out = new BufferedOutputStream(
+                        new FileOutputStream(output))) {
+                    new Archive(out, format).write(c);
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not write archive: %s",
+                    excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Executes an add-remote statement.
+     * @return true if operands are correct. */
+    boolean addremoteStatement() {
+        if (_input.length != 3) {
+            return false;
+        }
+        CommitTree commitTree = _context.getCommitTree();
+        if (commitTree.getRemote(_input[1]) != null) {
+            System.out.println("A remote with that name already exists.");
+            return true;
+        }
+        commitTree.addRemote(_input[1],
+                _input[2].replace("/", File.separator));
+        _context.treeChanged();
+        return true;
+    }
+
+    /** Executes a rm-remote statement.
+     * @return true if operands are correct. */
+    boolean rmremoteStatement() {
+        if (_input.length != 2) {
+            return false;
+        }
+        CommitTree commitTree = _context.getCommitTree();
+        if (commitTree.getRemote(_input[1]) == null) {
+            System.out.println("A remote with that name does not exist.");
+            return true;
+        }
+        commitTree.rmRemote(_input[1]);
+        _context.treeChanged();
+        return true;
+    }
+
+    /** Executes a fetch statement.
+     * @return true if operands are correct. */
+    boolean fetchStatement() {
+        if (_input.length != 3) {
+            return false;
+        }
+        fetch(_context.getCommitTree(), _input[1], _input[2]);
+        return true;
+    }
+
+    /** Copies branch BRANCH of remote REMOTENAME, with the objects this
+     * repository lacks, into the branch REMOTENAME/BRANCH of COMMITTREE,
+     * which is serialized. Returns false, after printing why, if it
+     * cannot.
+     * @param commitTree commit tree of this repository
+     * @param remotename name of the remote
+     * @param branch name of the remote branch */
+    boolean fetch(CommitTree commitTree, String remotename, String branch) {
+        if (!RefStore.isValidName(branch)) {
+            System.out.println("Invalid branch name.");
+            return false;
+        }
+        File remote = remoteDirectory(commitTree, remotename);
+        if (remote == null) {
+            return false;
+        }
+        RepositoryLock lock = RepositoryLock.acquire(remote, false);
+        if (lock == null) {
+            System.out.println(LOCKED);
+            return false;
+        }
+        String sha;
+        try {
+            sha = CommitTree.read(remote).getBranch(branch);
+            if (sha == null) {
+                System.out.println("That remote does not have that branch.");
+                return false;
+            }
+            new Bundle(remote, new File(".gitlet"), sha).transfer();
+        } finally {
+            lock.release();
+        }
+        commitTree.setBranch(remotename + "/" + branch, sha);
+        _context.treeChanged();
+        return true;
+    }
+
+    /** Executes a push statement.
+     * @return true if operands are correct. */
+    boolean pushStatement() {
+        if (_input.length != 3) {
+            return false;
+        }
+        if (!RefStore.isValidName(_input[2])) {
+            System.out.println("Invalid branch name.");
+            return true;
+        }
+        CommitTree commitTree = _context.getCommitTree();
+        File remote = remoteDirectory(commitTree, _input[1]);
+        if (remote == null) {
+            return true;
+        }
+        RepositoryLock lock = RepositoryLock.acquire(remote, true);
+        if (lock == null) {
+            System.out.println(LOCKED);
+            return true;
+        }
+        try {
+            push(commitTree.getHeadSHA(), remote, _input[2]);
+        } finally {
+            lock.release();
+        }
+        return true;
+    }
+
+    /** Sets branch BRANCH of the remote repository in REMOTE, which the
+     * caller has locked, to commit HEAD, copying the objects it lacks,
+     * unless that would lose remote commits.
+     * @param head SHA-1 value of the commit pushed
+     * @param remote .gitlet directory of the remote
+     * @param branch name of the remote branch */
+    private void push(String head, File remote, String branch) {
+        CommitTree remoteTree = CommitTree.read(remote);
+        remoteTree.setReflogMessage("push");
+        String remotehead = remoteTree.getBranch(branch);
+        if (remotehead != null
+                && !CommitGraph.read().isAncestor(remotehead, head)) {
+            System.out.println("Please pull down remote changes before "
+                    + "pushing.");
+            return;
+        }
+        new Bundle(new File(".gitlet"), remote, head).transfer();
+        remoteTree.setBranch(branch, head);
+        remoteTree.serialize(remote);
+    }
+
+    /** Executes a pull statement: a fetch followed by a merge of the
+     * fetched branch.
+     * @return true if operands are correct. */
+    boolean pullStatement() {
+        if (_input.length != 3) {
+            return false;
+        }
+        if (fetch(_context.getCommitTree(), _input[1], _input[2])) {
+            _input = new String[] {"merge", _input[1] + "/" + _input[2]};
+            mergeStatement();
+        }
+        return true;
+    }
+
+    /** Returns the .gitlet directory of remote REMOTENAME of COMMITTREE,
+     * or null, after printing why, if it is unknown, missing or uses a
+     * different object format.
+     * @param commitTree commit tree of this repository
+     * @param remotename name of the remote */
+    private File remoteDirectory(CommitTree commitTree, String remotename) {
+        String path = commitTree.getRemote(remotename);
+        if (path == null) {
+            System.out.println("A remote with that name does not exist.");
+            return null;
+        }
+        File remote = new File(path);
+        if (!Utils.join(remote, "serialized", "CT").isFile()) {
+            System.out.println("Remote directory not found.");
+            return null;
+        }
+        String format = Config.get(remote, Hashing.OBJECT_FORMAT,
+                Hashing.SHA1.getName());
+        if (!format.equals(Hashing.objects().getName())) {
+            System.out.println("Remote uses a different object format.");
+            return null;
+        }
+        return remote;
     }
 
     /** Executes a merge statement.
@@ -618,15 +1370,14 @@ public class CommandInterpreter {
             return false;
         }
         String givenbranch = _input[1];
-        CommitTree commitTree = Utils.getCommitTree();
+        CommitTree commitTree = _context.getCommitTree();
         String currbranch = commitTree.getHeadBranchName();
-        String[] stagedfiles = new File(Utils.STAGED).list();
-        if ((stagedfiles != null && stagedfiles.length != 0)
-                || !commitTree.getRmMarked().isEmpty()) {
+        Index index = _context.getIndex();
+        if (!index.isEmpty()) {
             System.out.println("You have uncommitted changes.");
             return true;
         }
-        if (!commitTree.getBranches().contains(givenbranch)) {
+        if (!commitTree.hasBranch(givenbranch)) {
             System.out.println("A branch with that name does not exist.");
             return true;
         }
@@ -638,200 +1389,221 @@ public class CommandInterpreter {
         if (splitpoint == null) {
             return true;
         }
-        Commit currhead = commitTree.getHeadCommit();
-        Commit givenhead = commitTree.getHeadCommit(givenbranch);
-        List<String> givenfiles = givenhead.getFilenames();
-        for (String givenfile: givenfiles) {
-            boolean givenincurrdir = new File(givenfile).exists();
-            if (givenincurrdir && untrackedChange(givenfile, givenhead)) {
-                return true;
-            }
-            Blob givenblob = givenhead.getBlob(givenfile);
-            boolean givenexistsinsplit = splitpoint.blobExists(givenfile);
-            if (givenexistsinsplit) {
-                boolean conflict = givenexistsinsplit(
-                        givenfile, splitpoint, currhead, givenhead);
-                if (conflict) {
-                    System.out.println("Encountered a merge conflict.");
-                    Utils.writeContents(new File(Utils.STAGED + givenfile),
-                            Utils.readContents(new File(givenfile)));
-                }
-            } else {
-                mergehelper2(givenfile, givenblob);
-            }
+        Commit currhead = _context.getHead();
+        Commit givenhead = _context.getBranchHead(givenbranch);
+        if (untrackedInWay(currhead, givenhead)) {
+            return true;
+        }
+        if (mergeFiles(splitpoint, currhead, givenhead, index)) {
+            System.out.println("Encountered a merge conflict.");
         }
-        currheadconflict(splitpoint, currhead, givenhead);
-        mergehelper1(splitpoint, currhead, givenhead);
         String cm = "Merged " + givenbranch + " into " + currbranch + ".";
-        List<String> files = Arrays.asList(new File(Utils.STAGED).list());
-        Commit c = new Commit(cm, files);
+        Commit c = new Commit(cm, _context.getHead(), index);
         c.setParent2(givenhead.getSHA());
-        commitTree.setHead(c.getSHA());
-        c.initiate(c.getFilenames());
-        commitTree.addCommit(c.getSHA());
-        commitTree.serialize();
-        clearStaged();
+        publishCommit(c, commitTree, index);
         return true;
     }
 
-    /** Merge helper 3. Detects merge conflicts in currhead.
-     * @param splitpoint commit obj at split point
-     * @param currhead commit obj at head of current branch
-     * @param givenhead commit obj at head of given branch
-     * @return true if conflict detected. */
-    boolean currheadconflict(
-            Commit splitpoint, Commit currhead, Commit givenhead) {
-        List<String> currheadfiles = currhead.getFilenames();
-        for (String currheadfile: currheadfiles) {
-            if (!givenhead.blobExists(currheadfile)) {
-                if (splitpoint.blobExists(currheadfile)) {
-                    Blob currblob = currhead.getBlob(currheadfile);
-                    Blob splitblob = splitpoint.getBlob(currheadfile);
-                    boolean currmodifiedsincesplit =
-                            !Arrays.equals(currblob.getContents(),
-                                    splitblob.getContents());
-                    if (!currmodifiedsincesplit
-                            && new File(currheadfile).exists()) {
-                        Utils.restrictedDelete(new File(currheadfile));
-                        new File(Utils.STAGED + currheadfile).delete();
-                        return false;
-                    }
-                    System.out.println("Encountered a merge conflict.");
-                    Utils.writeContents(new File(Utils.STAGED + currheadfile),
-                            Utils.readContents(new File(currheadfile)));
-                    writeConflictFile(currblob, currheadfile);
-                    Utils.writeContents(new File(Utils.STAGED + currheadfile),
-                            Utils.readContents(new File(currheadfile)));
-                    return true;
-                }
+    /** Returns true, after saying so, if merging GIVENHEAD into CURRHEAD
+     * would overwrite an untracked working file. Only the files of
+     * GIVENHEAD that CURRHEAD lacks are looked at.
+     * @param currhead head of the current branch
+     * @param givenhead head of the given branch */
+    private boolean untrackedInWay(Commit currhead, Commit givenhead) {
+        SparseCheckout sparse = SparseCheckout.load();
+        MergeJoin join = new MergeJoin(currhead.getSortedFilenames(),
+                givenhead.getSortedFilenames());
+        while (join.next()) {
+            String name = join.name();
+            if (!join.in(0) && sparse.includes(name)
+                    && untrackedChange(name, currhead, givenhead)) {
+                return true;
             }
         }
         return false;
     }
 
-    /** Clears staging area. */
-    void clearStaged() {
-        for (String filename: new File(Utils.STAGED).list()) {
-            File todelete = new File(Utils.STAGED + filename);
-            todelete.delete();
-        }
-    }
-
-    /** Helper method for merge in else case.
-     * @param givenfile given file
-     * @param givenblob blob of given file */
-    void mergehelper2(String givenfile, Blob givenblob) {
-        Utils.writeContents(
-                new File(givenfile), givenblob.getContents());
-        File tostage = new File(Utils.STAGED + givenfile);
-        Utils.writeContents(tostage, givenblob.getContents());
-    }
-
-    /** Helper method for if a file at the head of
-     * the given branch is present at the split point.
-     * Returns true if a merge conflict was detected.
-     * @param givenfile File that is at the head of the given branch
-     * @param splitpoint Commit object at splitpoint
-     * @param currhead Commit object at current branch head
-     * @param givenhead Commit object at given branch head */
-    boolean givenexistsinsplit(String givenfile, Commit splitpoint,
-                                Commit currhead, Commit givenhead) {
-        boolean conflictdetected = false;
-        boolean givenexistsincurr = currhead.blobExists(givenfile);
-        Blob givenblob = givenhead.getBlob(givenfile);
-        Blob splitblob = splitpoint.getBlob(givenfile);
-        boolean givenmodifiedsincesplit =
-                !Arrays.equals(givenblob.getContents(),
-                        splitblob.getContents());
-        if (givenexistsincurr) {
-            Blob currblob = currhead.getBlob(givenfile);
-            boolean currmodifiedsincesplit =
-                    !Arrays.equals(currblob.getContents(),
-                            splitblob.getContents());
-            if (givenmodifiedsincesplit && !currmodifiedsincesplit) {
-                Utils.writeContents(
-                        new File(givenfile), givenblob.getContents());
-                File tostage = new File(Utils.STAGED + givenfile);
-                Utils.writeContents(tostage, givenblob.getContents());
-            } else if (givenmodifiedsincesplit && currmodifiedsincesplit) {
-                boolean givencurrsamecontents =
-                        Arrays.equals(givenblob.getContents(),
-                                currblob.getContents());
-                if (!givencurrsamecontents) {
-                    conflictdetected = true;
-                    try {
-                        FileOutputStream output =
-                                new FileOutputStream(givenfile);
-                        byte[] sep =
-                                System.getProperty("line.separator").getBytes();
-                        output.write("<<<<<<< HEAD".getBytes());
-                        output.write(sep);
-                        output.write(currblob.getContents());
-                        output.write("=======".getBytes());
-                        output.write(sep);
-                        output.write(givenblob.getContents());
-                        output.write(">>>>>>>".getBytes());
-                        output.write(sep);
-                        output.close();
-                    } catch (IOException excp) {
-                        System.out.println("Could not write conflicted file.");
+    /** Merges the files of GIVENHEAD into the working tree and INDEX,
+     * against those of CURRHEAD, with SPLITPOINT as their common
+     * ancestor, and returns true iff some file conflicts. A merge join of
+     * the three commits' sorted files visits each file once, comparing
+     * blob ids; only the blobs written to the working tree are read.
+     * @param splitpoint commit obj at split point
+     * @param currhead commit obj at head of current branch
+     * @param givenhead commit obj at head of given branch
+     * @param index staging index */
+    private boolean mergeFiles(Commit splitpoint, Commit currhead,
+                               Commit givenhead, Index index) {
+        SparseCheckout sparse = SparseCheckout.load();
+        boolean conflict = false;
+        MergeJoin join = new MergeJoin(splitpoint.getSortedFilenames(),
+                currhead.getSortedFilenames(),
+                givenhead.getSortedFilenames());
+        while (join.next()) {
+            String name = join.name();
+            String split = splitpoint.getBlobs().get(name);
+            String curr = currhead.getBlobs().get(name);
+            String given = givenhead.getBlobs().get(name);
+            boolean inside = sparse.includes(name);
+            if (given != null && split == null) {
+                if (inside) {
+                    WorkingTree.write(name, Blob.read(given));
+                }
+                index.stage(name, given);
+            } else if (given != null && curr != null
+                       && !given.equals(split)) {
+                if (curr.equals(split)) {
+                    if (inside) {
+                        WorkingTree.write(name, Blob.read(given));
+                    }
+                    index.stage(name, given);
+                } else if (!curr.equals(given)) {
+                    Blob blob = conflictBlob(name, curr, given);
+                    if (inside) {
+                        WorkingTree.write(name, blob);
+                    }
+                    index.stage(name, blob.getSHA());
+                    conflict = true;
+                }
+            } else if (given == null && split != null && curr != null) {
+                if (curr.equals(split)) {
+                    if (inside) {
+                        WorkingTree.delete(name);
+                    }
+                    index.markRemoved(name);
+                } else {
+                    Blob blob = conflictBlob(name, curr, null);
+                    if (inside) {
+                        WorkingTree.write(name, blob);
                     }
+                    index.stage(name, blob.getSHA());
+                    conflict = true;
                 }
             }
         }
-        return conflictdetected;
+        return conflict;
     }
 
-    /** Write an empty given conflicted file.
-     * @param currblob blob obj at curr head
-     * @param givenfile String name of given file */
-    void writeConflictFile(Blob currblob, String givenfile) {
+    /** Returns the stored blob of file NAME marking a conflict between
+     * the blobs CURR and GIVEN, where null means the file is absent. It
+     * is built in memory, so files outside the sparse checkout are
+     * merged without being written to the working tree.
+     * @param name file path
+     * @param curr blob id in the current branch, or null
+     * @param given blob id in the given branch, or null */
+    private Blob conflictBlob(String name, String curr, String given) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
         try {
-            FileOutputStream output =
-                    new FileOutputStream(givenfile);
             byte[] sep = System.getProperty("line.separator").getBytes();
             output.write("<<<<<<< HEAD".getBytes());
             output.write(sep);
-            output.write(currblob.getContents());
+            if (curr != null) {
+                Blob.read(curr).writeTo(output);
+            }
             output.write("=======".getBytes());
             output.write(sep);
+            if (given != null) {
+                Blob.read(given).writeTo(output);
+            }
             output.write(">>>>>>>".getBytes());
             output.write(sep);
-            output.close();
         } catch (IOException excp) {
-            System.out.println("Could not write conflicted file.");
-        }
-    }
-
-    /** Remove and untrack files present at split point,
-     * unmodified in current branch, and absent in the given branch.
-     * @param splitpoint Commit object at split point
-     * @param currhead Commit object at current branch head
-     * @param givenhead Commit object at given branch head */
-    void mergehelper1(Commit splitpoint, Commit currhead, Commit givenhead) {
-        CommitTree commitTree = Utils.getCommitTree();
-        List<String> splitpointfiles = splitpoint.getFilenames();
-        for (String splitfile: splitpointfiles) {
-            Blob splitblob = splitpoint.getBlob(splitfile);
-            boolean splitexistsingiven = givenhead.blobExists(splitfile);
-            boolean splitexistsincurr = currhead.blobExists(splitfile);
-            if (!splitexistsingiven) {
-                if (splitexistsincurr) {
-                    Blob currblob = currhead.getBlob(splitfile);
-                    boolean splitmodifiedincurr =
-                            !Arrays.equals(currblob.getContents(),
-                                    splitblob.getContents());
-                    if (!splitmodifiedincurr) {
-                        if (new File(splitfile).exists()) {
-                            Utils.restrictedDelete(splitfile);
-                        }
-                        commitTree.addRmMarked(splitfile);
-                        commitTree.serialize();
-                        new File(Utils.STAGED + splitfile).delete();
-                    }
-                }
+            throw Utils.error("Could not build conflicted file.");
+        }
+        Blob blob = new Blob(output.toByteArray(), name);
+        blob.serialize();
+        return blob;
+    }
+
+    /** Executes a cherry-pick statement: makes a new commit on the current
+     * branch with the changes the given commit made to its parent, and
+     * that commit's message.
+     * @return true if operands are correct. */
+    boolean cherrypickStatement() {
+        if (_input.length != 2) {
+            return false;
+        }
+        if (!_context.getIndex().isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            return true;
+        }
+        Commit picked = _context.getCommitTree().getCommit(_input[1]);
+        if (picked == null) {
+            return true;
+        }
+        Replay replay = new Replay(_context);
+        Commit c = replay.pick(picked, _context.getHead());
+        if (c == null) {
+            System.out.println("No changes added to the commit.");
+            return true;
+        }
+        finishReplay(replay, c);
+        return true;
+    }
+
+    /** Executes a rebase statement: replays the commits of the current
+     * branch since it split from the given branch onto the head of the
+     * given branch, dropping those that no longer change anything.
+     * @return true if operands are correct. */
+    boolean rebaseStatement() {
+        if (_input.length != 2) {
+            return false;
+        }
+        String givenbranch = _input[1];
+        CommitTree commitTree = _context.getCommitTree();
+        if (!_context.getIndex().isEmpty()) {
+            System.out.println("You have uncommitted changes.");
+            return true;
+        }
+        if (!commitTree.hasBranch(givenbranch)) {
+            System.out.println("A branch with that name does not exist.");
+            return true;
+        }
+        if (givenbranch.equals(commitTree.getHeadBranchName())) {
+            System.out.println("Cannot rebase a branch onto itself.");
+            return true;
+        }
+        Commit head = _context.getHead();
+        Commit givenhead = _context.getBranchHead(givenbranch);
+        CommitGraph graph = CommitGraph.read();
+        if (graph.isAncestor(givenhead.getSHA(), head.getSHA())) {
+            System.out.println("Already up-to-date.");
+            return true;
+        }
+        if (graph.isAncestor(head.getSHA(), givenhead.getSHA())) {
+            reset(givenhead.getSHA());
+            System.out.println("Current branch fast-forwarded.");
+            return true;
+        }
+        Replay replay = new Replay(_context);
+        Commit tip = givenhead;
+        for (Commit c : replay.notIn(graph, head, givenhead.getSHA())) {
+            Commit replayed = replay.pick(c, tip);
+            if (replayed != null) {
+                tip = replayed;
             }
         }
+        finishReplay(replay, tip);
+        return true;
+    }
+
+    /** Writes the commits of REPLAY, then makes NEWHEAD the head of the
+     * current branch, updating the working tree once. Nothing changes but
+     * the unreferenced new objects if an untracked file is in the way.
+     * @param replay replayed commits
+     * @param newhead new head commit */
+    private void finishReplay(Replay replay, Commit newhead) {
+        replay.write();
+        if (!switchTo(_context.getHead(), newhead)) {
+            return;
+        }
+        CommitTree commitTree = _context.getCommitTree();
+        replay.publish();
+        commitTree.setHead(newhead.getSHA());
+        _context.treeChanged();
+        if (replay.hasConflicts()) {
+            System.out.println("Encountered a merge conflict.");
+        }
     }
 
     /** Find split point between given branch name
@@ -840,41 +1612,63 @@ public class CommandInterpreter {
      * @param commitTree Commit Tree object
      * @param givenbranch name of given branch */
     Commit findSplitPoint(CommitTree commitTree, String givenbranch) {
-        Commit currcommit = commitTree.getHeadCommit();
-        Commit currhead = commitTree.getHeadCommit();
-        Commit givencommit = commitTree.getHeadCommit(givenbranch);
-        Commit givenhead = commitTree.getHeadCommit(givenbranch);
+        Commit currhead = _context.getHead();
+        Commit givenhead = _context.getBranchHead(givenbranch);
         HashSet<String> currcommitancestors = new HashSet<>();
-        while (currcommit != null) {
-            currcommitancestors.add(currcommit.getSHA());
-            currcommit = currcommit.getParentCommit();
-            if (currcommit.getParentSHA() == null) {
+        for (Commit c = currhead; c != null; c = _context.getParent(c)) {
+            currcommitancestors.add(c.getSHA());
+            if (c.getParentSHA() == null) {
                 break;
             }
         }
-        while (givencommit != null) {
-            if (currcommitancestors.contains(givencommit.getSHA())) {
-                if (givencommit.equals(currhead)) {
+        for (Commit c = givenhead; c != null; c = _context.getParent(c)) {
+            if (currcommitancestors.contains(c.getSHA())) {
+                if (c.getSHA().equals(currhead.getSHA())) {
+                    reset(givenhead.getSHA());
                     System.out.println("Current branch fast-forwarded.");
                     return null;
                 }
-                if (givencommit.equals(givenhead)) {
+                if (c.getSHA().equals(givenhead.getSHA())) {
                     System.out.println(
                             "Given branch is an ancestor "
                                     + "of the current branch.");
                     return null;
                 }
-                return givencommit;
+                return c;
             }
-            givencommit = givencommit.getParentCommit();
-            if (givencommit.getParentSHA() == null) {
+            if (c.getParentSHA() == null) {
                 break;
             }
         }
         return null;
     }
 
+    /** Number of entries reflog prints by default. */
+    private static final int DEFAULT_REFLOG_COUNT = 10;
+
+    /** Commands that only read the repository, so share its lock. */
+    private static final HashSet<String> READ_ONLY = new HashSet<>(
+            Arrays.asList("log", "global-log", "find", "status", "blame",
+                    "count-objects", "reflog", "archive"));
+
+    /** Commands run without the repository lock: init, before there is
+     * a repository; fsmonitor, whose monitor runs indefinitely and
+     * touches only its own files; lock-stats; and batch, which locks the
+     * repository once for all its commands. */
+    private static final HashSet<String> UNLOCKED = new HashSet<>(
+            Arrays.asList("init", "fsmonitor", "lock-stats", "batch"));
+
+    /** Message printed when the repository lock cannot be had in time. */
+    static final String LOCKED =
+            "Another gitlet command is using the repository; try again.";
+
     /** An input scanner from input source. */
     private String[] _input;
 
+    /** True iff the caller holds the repository lock for this command. */
+    private final boolean _locked;
+
+    /** Repository state this command reads and updates. */
+    private final CommandContext _context;
+
 }
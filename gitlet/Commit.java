@@ -1,16 +1,15 @@
 package gitlet;
 
-import java.io.File;
 import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.TimeZone;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Arrays;
 
 /** A Commit object that points to blobs.
  * @author Jeff Xiang
@@ -26,42 +25,76 @@ public class Commit implements Serializable {
         _calendar.setTimeZone(TimeZone.getDefault());
         _calendar.setTime(new Date(0));
         _filenames = new ArrayList<>();
-        _sha = Utils.sha1(_message, _calendar.toString());
+        _sha = Utils.objectId(_message, _calendar.toString());
     }
 
-    /** A new commit, not initiated.
+    /** A new commit on top of HEAD, including the changes recorded in
+     * INDEX. Builds its blobs from the index alone; staged blobs were
+     * already serialized when they were added.
      * @param message String of commit message
-     * @param filenames String arraylist of file names to commit */
-    Commit(String message, List<String> filenames) {
-        CommitTree commitTree = Utils.getCommitTree();
-        ArrayList<String> rmmarked = commitTree.getRmMarked();
-        _parent = commitTree.getHeadSHA();
+     * @param head parent commit, the current head
+     * @param index staging index */
+    Commit(String message, Commit head, Index index) {
+        _parent = head.getSHA();
         _parent2 = null;
         _message = message;
         _calendar.setTimeZone(TimeZone.getDefault());
-        List<String> toinclude =
-                commitTree.getHeadCommit().getFilenames();
-        List<String> parentfiles =
-                commitTree.getHeadCommit().getFilenames();
-        for (String parentfile: parentfiles) {
-            if (rmmarked.contains(parentfile)) {
-                toinclude.remove(parentfile);
+        List<String> toinclude = new ArrayList<>();
+        for (String parentfile: head.getFilenames()) {
+            if (!index.isRemoved(parentfile)) {
+                toinclude.add(parentfile);
             }
         }
-        for (String staged: filenames) {
-            if (!toinclude.contains(staged)) {
+        HashMap<String, String> toincludeblobs =
+                new HashMap<>(head.getBlobs());
+        for (String rmmarkedfile: index.getRemoved()) {
+            toincludeblobs.remove(rmmarkedfile);
+        }
+        for (String staged: index.getStaged().keySet()) {
+            if (!toincludeblobs.containsKey(staged)) {
                 toinclude.add(staged);
             }
         }
+        toincludeblobs.putAll(index.getStaged());
         _filenames = toinclude;
-        HashMap<String, String> toincludeblobs =
-                commitTree.getHeadCommit().getBlobs();
-        for (String rmmarkedfile: rmmarked) {
-            toincludeblobs.remove(rmmarkedfile);
-        }
         _blobs = toincludeblobs;
-        _sha = Utils.sha1(_filenames.toString(),
-                _parent, _message, this.getDate());
+        _sha = Utils.objectId(manifest(), _parent, _message,
+                this.getDate());
+    }
+
+    /** A new commit with parents PARENT and PARENT2 (which may be null),
+     * MESSAGE and date TIME, tracking FILENAMES, whose blobs are BLOBS.
+     * Used to build commits directly, without a staging index.
+     * @param parent SHA-1 value of the first parent
+     * @param parent2 SHA-1 value of the second parent, or null
+     * @param message String of commit message
+     * @param time date in milliseconds since the epoch
+     * @param filenames tracked file names, in order
+     * @param blobs tracked file names mapped to blob SHA-1 values */
+    Commit(String parent, String parent2, String message, long time,
+           List<String> filenames, HashMap<String, String> blobs) {
+        _parent = parent;
+        _parent2 = parent2;
+        _message = message;
+        _calendar.setTimeZone(TimeZone.getDefault());
+        _calendar.setTimeInMillis(time);
+        _filenames = filenames;
+        _blobs = blobs;
+        _sha = Utils.objectId(manifest(), _parent,
+                _parent2 == null ? "" : _parent2, _message,
+                Long.toString(time));
+    }
+
+    /** Returns my tracked files with their blob ids, one "NAME SHA" line
+     * each, in order, so that my id depends on my contents and not just
+     * on my file names. */
+    private String manifest() {
+        StringBuilder result = new StringBuilder();
+        for (String name : _filenames) {
+            result.append(name).append(' ').append(_blobs.get(name))
+                    .append('\n');
+        }
+        return result.toString();
     }
 
     /** Returns my SHA-1 value. */
@@ -80,11 +113,19 @@ public class Commit implements Serializable {
         return _filenames;
     }
 
+    /** Returns my filenames in increasing order, sorting them on first
+     * use. */
+    List<String> getSortedFilenames() {
+        if (_sorted == null) {
+            _sorted = new ArrayList<>(_filenames);
+            Collections.sort(_sorted);
+        }
+        return _sorted;
+    }
+
     /** Deserializes and returns the parent of this commit. */
     Commit getParentCommit() {
-        return Utils.readObject(
-                new File(Utils.SERIALIZED + _parent),
-                Commit.class);
+        return read(_parent);
     }
 
     /** Returns _blobs. */
@@ -99,9 +140,7 @@ public class Commit implements Serializable {
 
     /** Deserializes and returns the parent2 of this commit. */
     Commit getParent2Commit() {
-        return Utils.readObject(
-                new File(Utils.SERIALIZED + _parent2),
-                Commit.class);
+        return read(_parent2);
     }
 
     /** Returns the parent2 SHA-1 value. */
@@ -109,57 +148,33 @@ public class Commit implements Serializable {
         return _parent2;
     }
 
-    /** Places filenames in _blobs, mapping each filename to its blob SHA.
-     * Simulatenously serializes each blob and this current commit.
-     * @param filenames String list of file names */
-    void initiate(List<String> filenames) {
-        for (String filename: filenames) {
-            File f = new File(Utils.STAGED + filename);
-            if (f.exists()) {
-                byte[] fcontents = Utils.readContents(f);
-                Blob newblob = new Blob(fcontents, filename);
-                String newblobSHA = newblob.getSHA();
-                _blobs.put(filename, newblobSHA);
-                newblob.serialize();
-            }
-        }
-
-        this.serialize();
-    }
-
     /** Returns the list of blobs tracked by this commit. */
     Object[] getTracked() {
         return _blobs.keySet().toArray();
     }
 
+    /** Returns my date, in milliseconds since the epoch. */
+    long getTime() {
+        return _calendar.getTimeInMillis();
+    }
+
     /** Returns the string representation of my date. */
     String getDate() {
-        String formatpattern = "EEE MMM dd HH:mm:ss yyyy Z";
-        DateFormat format = new SimpleDateFormat(formatpattern);
-        return format.format(_calendar.getTime());
+        return formatDate(_calendar.getTimeInMillis());
     }
 
-    /** Returns true iff a file in the current
-     * working directory with FILENAME is
-     * has the same contents as a blob contained
-     * by this commit with the same FILENAME.
-     * Assumes blob exists and filename exists
-     * in current working directory.
-     * @param workingfilename name of file in working directory
-     */
-    boolean sameContents(String workingfilename) {
-        byte[] currdircontents = Utils.readContents(
-                new File(workingfilename));
-        Blob trackedblob = this.getBlob(workingfilename);
-        byte[] trackedblobcontents = trackedblob.getContents();
-        return Arrays.equals(currdircontents, trackedblobcontents);
+    /** Returns the string representation of commit date TIME.
+     * @param time milliseconds since the epoch */
+    static String formatDate(long time) {
+        String formatpattern = "EEE MMM dd HH:mm:ss yyyy Z";
+        DateFormat format = new SimpleDateFormat(formatpattern);
+        return format.format(new Date(time));
     }
 
-    /** Get my serialized file in .gitlet/serialized.
-     * Assumes I am already serialized.
-     * @return File object of serialized file of this commit */
-    File getSerializedFile() {
-        return new File(Utils.SERIALIZED + this._sha);
+    /** Returns the stored commit with full SHA-1 value SHA.
+     * @param sha SHA-1 value of a commit */
+    static Commit read(String sha) {
+        return Utils.deserialize(Utils.objects().get(sha), Commit.class);
     }
 
     /** Set my parent 2.
@@ -171,9 +186,7 @@ public class Commit implements Serializable {
     /** Deserializes and returns the blob object pointed to by name.
      * @param name name of blob */
     Blob getBlob(String name) {
-        String blobSHA = _blobs.get(name);
-        File file = new File(Utils.SERIALIZED + blobSHA);
-        return Utils.readObject(file, Blob.class);
+        return Blob.read(_blobs.get(name));
     }
 
     /** Returns a boolean of whether a blob with name exists in this commit.
@@ -182,10 +195,15 @@ public class Commit implements Serializable {
         return _blobs.containsKey(name);
     }
 
-    /** Serializes this commit object. */
-    void serialize() {
-        File f = new File(Utils.SERIALIZED + _sha);
-        Utils.writeObject(f, this);
+    /** Adds the serialized form of this commit object to BATCH, along
+     * with the already serialized blobs of the files in INDEX.
+     * @param batch object writes to flush before publishing this commit
+     * @param index staging index this commit was built from */
+    void serialize(ObjectStore.Batch batch, Index index) {
+        for (String blobSHA : index.getStaged().values()) {
+            batch.sync(blobSHA);
+        }
+        batch.put(_sha, Utils.serialize(this));
     }
 
     /** Checks if two commits are the same.
@@ -216,4 +234,7 @@ public class Commit implements Serializable {
 
     /** Parent two SHA-1 value. */
     private String _parent2;
+
+    /** _filenames in increasing order, once sorted. */
+    private transient List<String> _sorted;
 }
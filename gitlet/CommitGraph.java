@@ -0,0 +1,700 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/** The commit graph: one compact record per commit holding its parents,
+ * its date and a Bloom filter of the paths it changed relative to its
+ * first parent, so history can be walked, and path-limited history
+ * filtered, without deserializing Commit objects. Records are appended
+ * to .gitlet/commit-graph as commits are made, each framed by its length
+ * and followed by its CRC-32,
+ * <pre>
+ * MAGIC  id-length  (length record crc)*
+ * </pre>
+ * and synced. A record torn by a crash fails its check and ends the
+ * valid log; the next append truncates it first. .gitlet/commit-graph.idx
+ * maps the ids of the records in the first part of the log, sorted, to
+ * their positions,
+ * <pre>
+ * MAGIC  id-length  covered  count  (id offset)*
+ * </pre>
+ * and is mapped and binary searched, so finding a record reads a few
+ * index entries and the record itself. Only the records after the part
+ * covered, at most a few thousand, are scanned when the graph is read;
+ * an append that leaves more folds them into a new index.
+ * @author Jeff Xiang
+ */
+class CommitGraph {
+
+    /** The commit graph of the repository whose .gitlet directory is
+     * GITLETDIR and whose objects are in OBJECTS.
+     * @param gitletDir .gitlet directory
+     * @param objects object store */
+    private CommitGraph(File gitletDir, ObjectStore objects) {
+        _file = new File(gitletDir, GRAPH);
+        _indexFile = new File(gitletDir, GRAPH_INDEX);
+        _tmpdir = new File(gitletDir, "tmp");
+        _objects = objects;
+        _cache = new HashMap<>();
+        _tail = new HashMap<>();
+        _tailOffsets = new TreeMap<>();
+        _index = ByteBuffer.allocate(0);
+        _idlength = Hashing.objects().hexLength() / 2;
+        try {
+            load();
+        } catch (IOException excp) {
+            throw Utils.error("Could not read commit graph: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Reads and returns the commit graph of the current repository. */
+    static CommitGraph read() {
+        return read(new File(Utils.COMMIT_GRAPH).getParentFile(),
+                Utils.objects());
+    }
+
+    /** Reads and returns the commit graph of the repository whose .gitlet
+     * directory is GITLETDIR.
+     * @param gitletDir .gitlet directory */
+    static CommitGraph read(File gitletDir) {
+        return read(gitletDir, ObjectStore.open(gitletDir));
+    }
+
+    /** Reads and returns the commit graph of the repository whose .gitlet
+     * directory is GITLETDIR and whose objects are in OBJECTS.
+     * @param gitletDir .gitlet directory
+     * @param objects object store */
+    static CommitGraph read(File gitletDir, ObjectStore objects) {
+        return new CommitGraph(gitletDir, objects);
+    }
+
+    /** Appends the record of new commit C, whose objects are already
+     * written, to the commit graph.
+     * @param c new commit */
+    static void append(Commit c) {
+        Commit parent = c.getParentSHA() == null ? null
+                : c.getParentCommit();
+        append(Collections.singletonList(entryFor(c, parent)));
+    }
+
+    /** Appends ENTRIES, records of commits whose objects are already
+     * written, to the commit graph.
+     * @param entries new records, parents before children */
+    static void append(List<Entry> entries) {
+        append(new File(Utils.COMMIT_GRAPH).getParentFile(), entries);
+    }
+
+    /** Durably appends ENTRIES to the commit graph of the repository
+     * whose .gitlet directory is GITLETDIR, after cutting off any torn
+     * record, and re-indexes it if the records not indexed grow too
+     * many.
+     * @param gitletDir .gitlet directory
+     * @param entries new records, parents before children */
+    static void append(File gitletDir, List<Entry> entries) {
+        CommitGraph graph = new CommitGraph(gitletDir, null);
+        try {
+            graph.write(entries);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write commit graph: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Returns the record of the commit with SHA. Commits made before
+     * the commit graph existed are read from their objects.
+     * @param sha full SHA-1 value of a commit */
+    Entry get(String sha) {
+        Entry entry = find(sha);
+        if (entry == null) {
+            Commit c = Utils.deserialize(_objects.get(sha), Commit.class);
+            Commit parent = c.getParentSHA() == null ? null
+                    : Utils.deserialize(_objects.get(c.getParentSHA()),
+                            Commit.class);
+            entry = entryFor(c, parent);
+            _cache.put(sha, entry);
+        }
+        return entry;
+    }
+
+    /** Returns the ids of the commits recorded in the commit graph, each
+     * once, in the order they were added. This reads the whole log. */
+    List<String> commits() {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        if (_channel == null || _end == 0) {
+            return new ArrayList<>(result);
+        }
+        try {
+            ByteBuffer log = _channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, _end);
+            byte[] id = new byte[_idlength];
+            for (int pos = HEADER_LENGTH; pos < _end;) {
+                int length = log.getInt(pos);
+                log.get(pos + Integer.BYTES + 1, id);
+                result.add(Hashing.hex(id));
+                pos += length + 2 * Integer.BYTES;
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not read commit graph: %s",
+                    excp.getMessage());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns true iff the commit with SHA is in this repository. Since
+     * objects are written before the commits that refer to them, every
+     * ancestor of such a commit is also present.
+     * @param sha full SHA-1 value of a commit */
+    boolean has(String sha) {
+        return find(sha) != null || _objects.has(sha);
+    }
+
+    /** Returns the record of the commit with SHA in the commit graph, or
+     * null if it has none.
+     * @param sha full SHA-1 value of a commit */
+    private Entry find(String sha) {
+        Entry entry = _cache.get(sha);
+        if (entry == null) {
+            entry = _tail.get(sha);
+        }
+        if (entry == null) {
+            long offset = indexLookup(Hashing.unhex(sha));
+            if (offset >= 0) {
+                try {
+                    entry = readAt(offset);
+                } catch (IOException excp) {
+                    throw Utils.error("Could not read commit graph: %s",
+                            excp.getMessage());
+                }
+                _cache.put(sha, entry);
+            }
+        }
+        return entry;
+    }
+
+    /** Maps the index, if it matches the log, and scans the records of
+     * the log it does not cover. */
+    private void load() throws IOException {
+        if (!_file.isFile()) {
+            return;
+        }
+        _channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ);
+        long size = _channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        if (size < HEADER_LENGTH) {
+            return;
+        }
+        readFully(0, header);
+        int magic = header.getInt(0);
+        _idlength = header.get(Integer.BYTES) & BYTE_MASK;
+        if (magic != MAGIC) {
+            throw Utils.error("Corrupt commit graph.");
+        }
+        long covered = HEADER_LENGTH;
+        if (_indexFile.isFile()) {
+            try (FileChannel channel = FileChannel.open(
+                    _indexFile.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY,
+                        0, channel.size());
+                if (index.limit() >= INDEX_HEADER_LENGTH
+                        && index.getInt(0) == INDEX_MAGIC
+                        && (index.get(Integer.BYTES) & BYTE_MASK)
+                           == _idlength
+                        && index.getLong(INDEX_COVERED) <= size) {
+                    _index = index;
+                    _count = index.getInt(INDEX_COUNT);
+                    covered = index.getLong(INDEX_COVERED);
+                }
+            }
+        }
+        scan(covered, size);
+    }
+
+    /** Reads the records of the log from START to SIZE, as far as they
+     * are whole and pass their checks, into the tail, and sets the end
+     * of the valid log.
+     * @param start position of the first record not indexed
+     * @param size length of the log */
+    private void scan(long start, long size) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) (size - start));
+        readFully(start, bytes);
+        bytes.flip();
+        _end = start;
+        while (bytes.remaining() >= Integer.BYTES) {
+            long offset = start + bytes.position();
+            int length = bytes.getInt();
+            if (length < 0 || length > bytes.remaining() - Integer.BYTES) {
+                break;
+            }
+            byte[] record = new byte[length];
+            bytes.get(record);
+            if (bytes.getInt() != checksum(record)) {
+                break;
+            }
+            Entry entry = decode(record);
+            _tail.put(entry._sha, entry);
+            _tailOffsets.put(entry._sha, offset);
+            _end = start + bytes.position();
+        }
+    }
+
+    /** Durably appends ENTRIES to my log, as for append. */
+    private void write(List<Entry> entries) throws IOException {
+        if (_channel != null) {
+            _channel.close();
+            _channel = null;
+        }
+        try (FileChannel out = FileChannel.open(_file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (_end == 0) {
+                out.truncate(0);
+                writeFully(out, 0, ByteBuffer.wrap(header()));
+                _end = HEADER_LENGTH;
+            } else if (out.size() > _end) {
+                out.truncate(_end);
+            }
+            for (Entry entry : entries) {
+                byte[] framed = frame(entry);
+                writeFully(out, _end, ByteBuffer.wrap(framed));
+                _tail.put(entry._sha, entry);
+                _tailOffsets.put(entry._sha, _end);
+                _end += framed.length;
+            }
+            out.force(true);
+        }
+        if (_tailOffsets.size() > TAIL_LIMIT) {
+            writeIndex();
+        }
+    }
+
+    /** Durably replaces the index with one covering my whole valid log:
+     * the old index merged with the records after it, by id. */
+    private void writeIndex() throws IOException {
+        int entrylength = _idlength + Long.BYTES;
+        ByteBuffer index = ByteBuffer.allocate(INDEX_HEADER_LENGTH
+                + (_count + _tailOffsets.size()) * entrylength);
+        index.putInt(INDEX_MAGIC).put((byte) _idlength).putLong(_end)
+                .putInt(0);
+        int count = 0;
+        int k = 0;
+        byte[] id = new byte[_idlength];
+        for (Map.Entry<String, Long> tail : _tailOffsets.entrySet()) {
+            byte[] tailid = Hashing.unhex(tail.getKey());
+            while (k < _count && compare(k, tailid) < 0) {
+                index.put(_index.duplicate().position(entryPosition(k))
+                        .limit(entryPosition(k) + entrylength)
+                        .slice());
+                k += 1;
+                count += 1;
+            }
+            if (k < _count && compare(k, tailid) == 0) {
+                k += 1;
+            }
+            index.put(tailid).putLong(tail.getValue());
+            count += 1;
+        }
+        for (; k < _count; k += 1) {
+            index.put(_index.duplicate().position(entryPosition(k))
+                    .limit(entryPosition(k) + entrylength).slice());
+            count += 1;
+        }
+        index.putInt(INDEX_COUNT, count);
+        byte[] bytes = Arrays.copyOf(index.array(), index.position());
+        Utils.writeAtomically(_indexFile, bytes, true, _tmpdir);
+        _index = ByteBuffer.wrap(bytes);
+        _count = count;
+        _tailOffsets.clear();
+        _tail.clear();
+    }
+
+    /** Returns the position in my log of the record of the commit whose
+     * binary id is ID, by binary search of the index, or -1 if the index
+     * does not hold it.
+     * @param id binary commit id */
+    private long indexLookup(byte[] id) {
+        int lo = 0, hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid;
+            } else {
+                return _index.getLong(entryPosition(mid) + _idlength);
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the id of index entry K with ID, as unsigned bytes.
+     * @param k entry position
+     * @param id binary commit id */
+    private int compare(int k, byte[] id) {
+        int start = entryPosition(k);
+        for (int i = 0; i < _idlength; i += 1) {
+            int cmp = Integer.compare(_index.get(start + i) & BYTE_MASK,
+                    id[i] & BYTE_MASK);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the position in the index of entry K.
+     * @param k entry position */
+    private int entryPosition(int k) {
+        return INDEX_HEADER_LENGTH + k * (_idlength + Long.BYTES);
+    }
+
+    /** Returns the record at OFFSET in my log, checking it.
+     * @param offset position of the record's length */
+    private Entry readAt(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        readFully(offset, length);
+        ByteBuffer record = ByteBuffer.allocate(length.getInt(0)
+                + Integer.BYTES);
+        readFully(offset + Integer.BYTES, record);
+        byte[] bytes = Arrays.copyOf(record.array(), record.limit()
+                - Integer.BYTES);
+        if (record.getInt(bytes.length) != checksum(bytes)) {
+            throw Utils.error("Corrupt commit graph record.");
+        }
+        return decode(bytes);
+    }
+
+    /** Fills BUFFER from my log, starting at POSITION.
+     * @param position position in the log
+     * @param buffer destination */
+    private void readFully(long position, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (_channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("truncated commit graph");
+            }
+        }
+    }
+
+    /** Writes all of BUFFER to OUT at POSITION.
+     * @param out file being written
+     * @param position position in the file
+     * @param buffer contents */
+    private static void writeFully(FileChannel out, long position,
+                                   ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer, position + buffer.position());
+        }
+    }
+
+    /** Returns the header of a log with ids of my length. */
+    private byte[] header() {
+        return ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC)
+                .put((byte) _idlength).array();
+    }
+
+    /** Returns ENTRY framed as a record of the log: its length, its
+     * contents and their CRC-32.
+     * @param entry commit record */
+    private static byte[] frame(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        entry.write(new DataOutputStream(bytes));
+        byte[] record = bytes.toByteArray();
+        return ByteBuffer.allocate(record.length + 2 * Integer.BYTES)
+                .putInt(record.length).put(record).putInt(checksum(record))
+                .array();
+    }
+
+    /** Returns the record whose contents are BYTES.
+     * @param bytes record contents */
+    private Entry decode(byte[] bytes) throws IOException {
+        return readEntry(new DataInputStream(new ByteArrayInputStream(bytes)),
+                _idlength);
+    }
+
+    /** Returns the CRC-32 of BYTES.
+     * @param bytes record contents */
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /** Returns true iff the commit with ANCESTOR is reachable from the
+     * commit with SHA, which is in this repository, through parents.
+     * @param ancestor full SHA-1 value of the possible ancestor
+     * @param sha full SHA-1 value of the descendant */
+    boolean isAncestor(String ancestor, String sha) {
+        if (!has(ancestor)) {
+            return false;
+        }
+        HashSet<String> seen = new HashSet<>();
+        ArrayDeque<String> work = new ArrayDeque<>();
+        work.push(sha);
+        while (!work.isEmpty()) {
+            String curr = work.pop();
+            if (curr.equals(ancestor)) {
+                return true;
+            }
+            if (!seen.add(curr)) {
+                continue;
+            }
+            Entry entry = get(curr);
+            if (entry.getParentSHA() != null) {
+                work.push(entry.getParentSHA());
+            }
+            if (entry.getParent2SHA() != null) {
+                work.push(entry.getParent2SHA());
+            }
+        }
+        return false;
+    }
+
+    /** Returns the paths changed by C relative to PARENT (which may be
+     * null, for the initial commit): the files whose blobs differ, along
+     * with each of their leading directories.
+     * @param c commit
+     * @param parent first parent of C, or null */
+    static TreeSet<String> changedPaths(Commit c, Commit parent) {
+        Map<String, String> blobs = c.getBlobs();
+        Map<String, String> parentblobs =
+                parent == null ? new HashMap<>() : parent.getBlobs();
+        TreeSet<String> changed = new TreeSet<>();
+        for (Map.Entry<String, String> blob : blobs.entrySet()) {
+            if (!blob.getValue().equals(parentblobs.get(blob.getKey()))) {
+                addWithDirectories(changed, blob.getKey());
+            }
+        }
+        for (String name : parentblobs.keySet()) {
+            if (!blobs.containsKey(name)) {
+                addWithDirectories(changed, name);
+            }
+        }
+        return changed;
+    }
+
+    /** A commit graph record. */
+    static class Entry {
+
+        /** A record of commit SHA with parents PARENT and PARENT2, date
+         * TIME and changed-path filter PATHS. */
+        Entry(String sha, String parent, String parent2, long time,
+              BloomFilter paths) {
+            _sha = sha;
+            _parent = parent;
+            _parent2 = parent2;
+            _time = time;
+            _paths = paths;
+        }
+
+        /** Returns my commit's SHA-1 value. */
+        String getSHA() {
+            return _sha;
+        }
+
+        /** Returns my commit's first parent SHA-1 value, or null. */
+        String getParentSHA() {
+            return _parent;
+        }
+
+        /** Returns my commit's second parent SHA-1 value, or null. */
+        String getParent2SHA() {
+            return _parent2;
+        }
+
+        /** Returns my commit's date, in milliseconds since the epoch. */
+        long getTime() {
+            return _time;
+        }
+
+        /** Returns false if my commit certainly did not change PATH
+         * relative to its first parent, and true if it might have.
+         * @param path file or directory path */
+        boolean mightChange(String path) {
+            return _paths.mightContain(path);
+        }
+
+        /** Writes this record to OUT.
+         * @param out output stream */
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte((_parent == null ? 0 : HAS_PARENT)
+                    | (_parent2 == null ? 0 : HAS_PARENT2));
+            out.write(Hashing.unhex(_sha));
+            if (_parent != null) {
+                out.write(Hashing.unhex(_parent));
+            }
+            if (_parent2 != null) {
+                out.write(Hashing.unhex(_parent2));
+            }
+            out.writeLong(_time);
+            byte[] bits = _paths.toByteArray();
+            out.writeShort(bits.length);
+            out.write(bits);
+        }
+
+        /** My commit's SHA-1 value. */
+        private final String _sha;
+
+        /** My commit's first parent, or null. */
+        private final String _parent;
+
+        /** My commit's second parent, or null. */
+        private final String _parent2;
+
+        /** My commit's date. */
+        private final long _time;
+
+        /** Paths changed by my commit. */
+        private final BloomFilter _paths;
+    }
+
+    /** Reads one record with ids of IDLENGTH bytes from IN.
+     * @param in input stream
+     * @param idlength length of an id in bytes */
+    static Entry readEntry(DataInputStream in, int idlength)
+            throws IOException {
+        int flags = in.readUnsignedByte();
+        String sha = readId(in, idlength);
+        String parent = (flags & HAS_PARENT) == 0 ? null
+                : readId(in, idlength);
+        String parent2 = (flags & HAS_PARENT2) == 0 ? null
+                : readId(in, idlength);
+        long time = in.readLong();
+        byte[] bits = new byte[in.readUnsignedShort()];
+        in.readFully(bits);
+        return new Entry(sha, parent, parent2, time, new BloomFilter(bits));
+    }
+
+    /** Returns the record of commit C, whose first parent is PARENT
+     * (null for the initial commit).
+     * @param c commit
+     * @param parent first parent of C, or null */
+    static Entry entryFor(Commit c, Commit parent) {
+        TreeSet<String> changed = changedPaths(c, parent);
+        BloomFilter paths = changed.size() > MAX_CHANGED_PATHS
+                ? new BloomFilter(new byte[0]) : new BloomFilter(changed);
+        return new Entry(c.getSHA(), c.getParentSHA(), c.getParent2SHA(),
+                c.getTime(), paths);
+    }
+
+    /** Adds PATH and each of its leading directories to PATHS.
+     * @param paths set of paths
+     * @param path file path, with '/' separating directories */
+    private static void addWithDirectories(TreeSet<String> paths,
+                                           String path) {
+        paths.add(path);
+        for (int i = path.lastIndexOf('/'); i > 0;
+             i = path.lastIndexOf('/', i - 1)) {
+            paths.add(path.substring(0, i));
+        }
+    }
+
+    /** Reads an id of IDLENGTH bytes from IN and returns it in hex.
+     * @param in input stream
+     * @param idlength length of an id in bytes */
+    private static String readId(DataInputStream in, int idlength)
+            throws IOException {
+        byte[] id = new byte[idlength];
+        in.readFully(id);
+        return Hashing.hex(id);
+    }
+
+    /** Name of the commit graph log. */
+    static final String GRAPH = "commit-graph";
+
+    /** Name of the commit graph index. */
+    static final String GRAPH_INDEX = "commit-graph.idx";
+
+    /** Magic number at the start of the log ("GLCG"). */
+    private static final int MAGIC = 0x474c4347;
+
+    /** Magic number at the start of the index ("GLCI"). */
+    private static final int INDEX_MAGIC = 0x474c4349;
+
+    /** Length of the header of the log. */
+    private static final int HEADER_LENGTH = Integer.BYTES + 1;
+
+    /** Position of the length of log covered in the index header. */
+    private static final int INDEX_COVERED = Integer.BYTES + 1;
+
+    /** Position of the number of entries in the index header. */
+    private static final int INDEX_COUNT = INDEX_COVERED + Long.BYTES;
+
+    /** Length of the header of the index. */
+    private static final int INDEX_HEADER_LENGTH =
+        INDEX_COUNT + Integer.BYTES;
+
+    /** Most records left after the part of the log indexed before an
+     * append re-indexes. */
+    private static final int TAIL_LIMIT = 4096;
+
+    /** Mask of the bits of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Record flag: the commit has a first parent. */
+    private static final int HAS_PARENT = 1;
+
+    /** Record flag: the commit has a second parent. */
+    private static final int HAS_PARENT2 = 2;
+
+    /** Commits changing more paths than this get a filter that matches
+     * every path, as a large filter would cost more than it saves. */
+    private static final int MAX_CHANGED_PATHS = 512;
+
+    /** The log. */
+    private final File _file;
+
+    /** The index. */
+    private final File _indexFile;
+
+    /** Directory of temporary files. */
+    private final File _tmpdir;
+
+    /** Object store of my repository. */
+    private final ObjectStore _objects;
+
+    /** Records read through the index, keyed by commit SHA-1 value. */
+    private final HashMap<String, Entry> _cache;
+
+    /** Records of the log after the part indexed, keyed by commit SHA-1
+     * value. */
+    private final HashMap<String, Entry> _tail;
+
+    /** Positions in the log of the records of _tail, in order of id. */
+    private final TreeMap<String, Long> _tailOffsets;
+
+    /** The mapped index, or an empty buffer. */
+    private ByteBuffer _index;
+
+    /** Number of entries of the index. */
+    private int _count;
+
+    /** Length of an id in bytes. */
+    private int _idlength;
+
+    /** Length of the valid part of the log, or 0 if there is none. */
+    private long _end;
+
+    /** Open log, for reading records, or null. */
+    private FileChannel _channel;
+}
@@ -4,6 +4,11 @@ import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
 
 /** A Commit tree object that points to commits.
  * @author Jeff Xiang
@@ -14,59 +19,168 @@ public class CommitTree implements Serializable {
      * @param head head commit of this commit tree */
     CommitTree(Commit head) {
         String headsha = head.getSHA();
-        _branches = new ArrayList<>();
         _headBranch = "master";
-        _branchMap = new HashMap<>();
-        _branchMap.put(_headBranch, headsha);
-        _branches.add(_headBranch);
-        _rmMarked = new ArrayList<>();
-        _commits = new ArrayList<>();
-        _commits.add(headsha);
-        _removed = new ArrayList<>();
+        _pendingRefs = new TreeMap<>();
+        _pendingRefs.put(_headBranch, headsha);
+        _changed = true;
+        setReflogMessage("init");
+        logRef(_headBranch, null, headsha);
+        logRef(Reflog.HEAD, null, headsha);
     }
 
     /** Deserializes and returns the head commit
      * object of headbranch of this CommitTree. */
     Commit getHeadCommit() {
-        String headsha = _branchMap.get(_headBranch);
-        File file = new File(Utils.SERIALIZED + headsha);
-        return Utils.readObject(file, Commit.class);
+        return Commit.read(getHeadSHA());
     }
 
     /** Deserializes and returns the
      * head commit object of a BRANCH of this CT.
      * @param branchname String of branch name*/
     Commit getHeadCommit(String branchname) {
-        String headsha = _branchMap.get(branchname);
-        File file = new File(Utils.SERIALIZED + headsha);
-        return Utils.readObject(file, Commit.class);
+        return Commit.read(getBranch(branchname));
     }
 
     /** Sets the head of this commit tree a new SHA value.
      * @param sha string of SHA of commit to set head to */
     void setHead(String sha) {
-        String headsha = sha;
-        _branchMap.replace(_headBranch, headsha);
+        setBranch(_headBranch, sha);
     }
 
     /** Sets the head branch name of this commit tree.
      * @param name set the head branch name */
     void setHeadBranchName(String name) {
+        String old = getHeadSHA();
         _headBranch = name;
+        _changed = true;
+        logRef(Reflog.HEAD, old, getHeadSHA());
     }
 
     /** Adds a branch with BRANCHNAME to current head.
      * @param branchname name of added branch */
     void addBranch(String branchname) {
-        _branchMap.put(branchname, this.getHeadSHA());
-        _branches.add(branchname);
+        checkName(branchname);
+        _pendingRefs.put(branchname, getHeadSHA());
+        logRef(branchname, null, getHeadSHA());
+    }
+
+    /** Points branch BRANCHNAME, which is created if necessary, at the
+     * commit with SHA. Nothing is written if it already points there.
+     * @param branchname name of branch
+     * @param sha SHA-1 value of commit */
+    void setBranch(String branchname, String sha) {
+        checkName(branchname);
+        String old = getBranch(branchname);
+        if (sha.equals(old)) {
+            return;
+        }
+        _pendingRefs.put(branchname, sha);
+        logRef(branchname, old, sha);
+        if (branchname.equals(_headBranch)) {
+            logRef(Reflog.HEAD, old, sha);
+        }
+    }
+
+    /** Throws a GitletException unless BRANCHNAME may name a branch.
+     * Commands check names given by the user first, to say so plainly.
+     * @param branchname name of branch */
+    private static void checkName(String branchname) {
+        if (!RefStore.isValidName(branchname)) {
+            throw Utils.error("Invalid branch name.");
+        }
+    }
+
+    /** Sets the message of the reflog entries for later changes to
+     * MESSAGE, normally the command making them.
+     * @param message cause of the changes */
+    void setReflogMessage(String message) {
+        _reflogMessage = message;
+    }
+
+    /** Records, to be logged when I am serialized, that REF changed from
+     * OLD (null if it is new) to SHA. Nothing is logged if it did not
+     * change.
+     * @param ref "HEAD" or a branch name
+     * @param old previous commit SHA-1 value, or null
+     * @param sha new commit SHA-1 value */
+    private void logRef(String ref, String old, String sha) {
+        if (sha == null || sha.equals(old)) {
+            return;
+        }
+        if (_reflog == null) {
+            _reflog = new LinkedHashMap<>();
+        }
+        _reflog.computeIfAbsent(ref, k -> new ArrayList<>()).add(
+                Reflog.line(old, sha, System.currentTimeMillis(),
+                        _reflogMessage == null ? "update" : _reflogMessage));
+    }
+
+    /** Appends the changes recorded since the last call to the reflogs of
+     * the repository whose .gitlet directory is GITLETDIR, and deletes
+     * the logs of removed branches. The branches themselves are already
+     * written by then, so a log that cannot be written is reported and
+     * skipped rather than failing a command that has taken effect.
+     * @param gitletDir .gitlet directory */
+    private void writeReflog(File gitletDir) {
+        if (_reflog == null) {
+            return;
+        }
+        writeReflog(gitletDir, _reflog);
+        _reflog = null;
+    }
+
+    /** Applies CHANGES, reflog entry lines by ref, where an empty list
+     * deletes the log of a removed branch, to the reflogs of the
+     * repository whose .gitlet directory is GITLETDIR.
+     * @param gitletDir .gitlet directory
+     * @param changes entry lines by ref */
+    private static void writeReflog(File gitletDir,
+                                    Map<String, ArrayList<String>> changes) {
+        for (Map.Entry<String, ArrayList<String>> entry
+                 : changes.entrySet()) {
+            try {
+                if (entry.getValue().isEmpty()) {
+                    Reflog.delete(gitletDir, entry.getKey());
+                } else {
+                    Reflog.append(gitletDir, entry.getKey(),
+                            entry.getValue());
+                }
+            } catch (GitletException excp) {
+                System.out.println(excp.getMessage());
+            }
+        }
+    }
+
+    /** Adds a remote NAME at DIRECTORY, the path of its .gitlet directory.
+     * @param name remote name
+     * @param directory path of the remote's .gitlet directory */
+    void addRemote(String name, String directory) {
+        _remotes.put(name, directory);
+        _changed = true;
+    }
+
+    /** Removes remote NAME.
+     * @param name remote name */
+    void rmRemote(String name) {
+        _remotes.remove(name);
+        _changed = true;
+    }
+
+    /** Returns the path of the .gitlet directory of remote NAME, or null
+     * if there is no such remote.
+     * @param name remote name */
+    String getRemote(String name) {
+        return _remotes.get(name);
     }
 
     /** Removes branch with BRANCHNAME.
      * @param branchname name of removed branch */
     void rmBranch(String branchname) {
-        _branchMap.remove(branchname);
-        _branches.remove(branchname);
+        _pendingRefs.put(branchname, null);
+        if (_reflog == null) {
+            _reflog = new LinkedHashMap<>();
+        }
+        _reflog.put(branchname, new ArrayList<>());
     }
 
     /** Get name of head branch of this CT.
@@ -75,116 +189,293 @@ public class CommitTree implements Serializable {
         return _headBranch;
     }
 
-    /** Add a commit SHA to _commits.
-     * @param sha SHA-1 value of added commit */
-    void addCommit(String sha) {
-        _commits.add(sha);
+    /** Returns the SHA-1 values of all commits in this repository, in
+     * the order they were added, as recorded by its commit graph. */
+    List<String> getCommits() {
+        return CommitGraph.read(gitletDir()).commits();
     }
 
-    /** Returns the list of commits contained in this CommitTree. */
-    ArrayList<String> getCommits() {
-        return _commits;
+    /** Return the SHA-1 value of the head of this commit. */
+    String getHeadSHA() {
+        return getBranch(_headBranch);
     }
 
-    /** Returns the list of filenames that are marked to be removed. */
-    ArrayList<String> getRmMarked() {
-        return _rmMarked;
+    /** Returns the name of the head branch. */
+    String getHeadBranchName() {
+        return _headBranch;
     }
 
-    /** Adds a filename to _rmMarked.
-     * @param filename String of file name to add to rmMarked */
-    void addRmMarked(String filename) {
-        _rmMarked.add(filename);
+    /** Returns the SHA-1 value of the head of branch BRANCHNAME, or null
+     * if there is no such branch.
+     * @param branchname name of branch */
+    String getBranch(String branchname) {
+        if (_pendingRefs.containsKey(branchname)) {
+            return _pendingRefs.get(branchname);
+        }
+        return refs().get(branchname);
     }
 
-    /** Removes a filename from _rmMarked.
-     * @param filename String of file name ot rm from rmMarked */
-    void removeRmMarked(String filename) {
-        _rmMarked.remove(filename);
+    /** Returns true iff there is a branch named BRANCHNAME.
+     * @param branchname name of branch */
+    boolean hasBranch(String branchname) {
+        return getBranch(branchname) != null;
     }
 
-    /** Return the SHA-1 value of the head of this commit. */
-    String getHeadSHA() {
-        return _branchMap.get(_headBranch);
+    /** Calls ACTION on the name and head SHA-1 value of each branch whose
+     * name starts with PREFIX, in order of name, reading only those
+     * branches.
+     * @param prefix start of branch names
+     * @param action called with each branch name and SHA-1 value */
+    void forEachBranch(String prefix, BiConsumer<String, String> action) {
+        TreeMap<String, String> pending = new TreeMap<>();
+        for (Map.Entry<String, String> entry
+                 : _pendingRefs.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            pending.put(entry.getKey(), entry.getValue());
+        }
+        refs().forEach(prefix, (name, sha) -> {
+            while (!pending.isEmpty()
+                   && pending.firstKey().compareTo(name) < 0) {
+                acceptPending(pending.pollFirstEntry(), action);
+            }
+            if (pending.containsKey(name)) {
+                String value = pending.remove(name);
+                if (value != null) {
+                    action.accept(name, value);
+                }
+            } else {
+                action.accept(name, sha);
+            }
+        });
+        while (!pending.isEmpty()) {
+            acceptPending(pending.pollFirstEntry(), action);
+        }
     }
 
-    /** Returns the name of the head branch. */
-    String getHeadBranchName() {
-        return _headBranch;
+    /** Calls ACTION on the branch name and SHA-1 value of the unwritten
+     * change REF, unless it removes the branch.
+     * @param ref branch name and SHA-1 value or null
+     * @param action called with the name and SHA-1 value */
+    private static void acceptPending(Map.Entry<String, String> ref,
+                                      BiConsumer<String, String> action) {
+        if (ref.getValue() != null) {
+            action.accept(ref.getKey(), ref.getValue());
+        }
     }
 
-    /** Adds a filename to _removed.
-     * @param filename String of file name to add to _removed */
-    void addRemoved(String filename) {
-        _removed.add(filename);
+    /** Returns the branches of this commit tree as stored on disk. */
+    private RefStore refs() {
+        if (_refs == null) {
+            _refs = new RefStore(gitletDir());
+        }
+        return _refs;
     }
 
-    /** Returns rmMarked. */
-    ArrayList<String> getRemoved() {
-        return _rmMarked;
+    /** Returns the .gitlet directory of the repository I belong to. */
+    private File gitletDir() {
+        return _gitletDir != null ? _gitletDir
+                : new File(Utils.SERIALIZED).getParentFile();
     }
 
-    /** Clears _rmMarked. */
-    void clearrmMarked() {
-        _rmMarked.clear();
+    /** Folds the branches changed one at a time into the sorted branch
+     * file, after writing any unwritten changes, and returns the number
+     * of branches. */
+    int packRefs() {
+        refs().update(_pendingRefs);
+        _pendingRefs.clear();
+        return refs().pack();
     }
 
-    /** Returns _branchMap. */
-    HashMap<String, String> getBranchMap() {
-        return _branchMap;
+    /** Durably writes the changed branches and then, if anything else
+     * in it changed, this commit tree to the repository whose .gitlet
+     * directory is GITLETDIR, using TMPDIR for temporary files. Most
+     * commands only move branches, so they leave the commit tree file
+     * alone.
+     * @param gitletDir .gitlet directory
+     * @param tmpdir directory for temporary files */
+    private void write(File gitletDir, File tmpdir) {
+        new RefStore(gitletDir).update(_pendingRefs);
+        _pendingRefs.clear();
+        _refs = null;
+        if (_changed) {
+            _changed = false;
+            Utils.writeAtomically(Utils.join(gitletDir, "serialized", "CT"),
+                    Utils.serialize(this), true, tmpdir);
+        }
     }
 
-    /** Returns _branches. */
-    ArrayList<String> getBranches() {
-        return _branches;
-    }
 
-    /** Serialize this commit tree. */
+    /** Serialize this commit tree, durably replacing the previous one.
+     * Objects it refers to must already be on disk. Branch changes are
+     * written first, each to its own file. */
     void serialize() {
-        File f = new File(Utils.SERIALIZED + "CT");
-        Utils.writeObject(f, this);
+        File gitletDir = new File(Utils.SERIALIZED).getParentFile();
+        if (_deferring) {
+            _current = Utils.serialize(this);
+            _dirty = true;
+            if (_reflog != null) {
+                _pendingReflog.add(_reflog);
+                _reflog = null;
+            }
+        } else {
+            write(gitletDir, new File(Utils.TMP));
+            writeReflog(gitletDir);
+        }
+    }
+
+    /** Returns the commit tree of this repository: a fresh copy of the
+     * one held in memory while writes are deferred, else the one on
+     * disk. */
+    static CommitTree current() {
+        if (_current != null) {
+            return Utils.deserialize(_current, CommitTree.class);
+        }
+        byte[] bytes = Utils.readContents(new File(Utils.SERIALIZED + "CT"));
+        if (_deferring) {
+            _current = bytes;
+        }
+        return Utils.deserialize(bytes, CommitTree.class);
+    }
+
+    /** Starts keeping the commit tree, the index and new reflog entries
+     * in memory, so that serialize and Index.write only replace those
+     * copies until the next flush. Batches of commands use this to read
+     * and durably write them once rather than per command; the three
+     * are always written together, so none records a change the others
+     * lack. */
+    static void deferWrites() {
+        _deferring = true;
+        Index.deferWrites();
+    }
+
+    /** Durably writes the commit tree held in memory, if it has changed
+     * since it was read or last flushed, then the index held in memory,
+     * then the reflog entries recorded meanwhile. A crash in between
+     * leaves staged changes that are already committed, never committed
+     * changes that are no longer staged. */
+    static void flush() {
+        File gitletDir = new File(Utils.SERIALIZED).getParentFile();
+        if (_dirty) {
+            CommitTree tree = Utils.deserialize(_current, CommitTree.class);
+            tree.write(gitletDir, new File(Utils.TMP));
+            _current = Utils.serialize(tree);
+            _dirty = false;
+        }
+        Index.flush();
+        for (Map<String, ArrayList<String>> changes : _pendingReflog) {
+            writeReflog(gitletDir, changes);
+        }
+        _pendingReflog.clear();
+    }
+
+    /** Flushes the state held in memory and resumes writing it on every
+     * serialize. */
+    static void stopDeferring() {
+        flush();
+        _deferring = false;
+        _current = null;
+        Index.stopDeferring();
+    }
+
+    /** Serialize this commit tree as that of the repository whose .gitlet
+     * directory is GITLETDIR, durably replacing the previous one.
+     * @param gitletDir .gitlet directory of another repository */
+    void serialize(File gitletDir) {
+        write(gitletDir, new File(gitletDir, "tmp"));
+        writeReflog(gitletDir);
+    }
+
+    /** Deserializes and returns the commit tree of the repository whose
+     * .gitlet directory is GITLETDIR.
+     * @param gitletDir .gitlet directory of another repository */
+    static CommitTree read(File gitletDir) {
+        CommitTree result = Utils.readObject(
+                Utils.join(gitletDir, "serialized", "CT"), CommitTree.class);
+        result._gitletDir = gitletDir;
+        return result;
     }
 
     /** Deserializes and returns the commit
      * with SHA (can be in shortened form).
-     * If commit with this SHA doesn't exist,
-     * print "No commit with that id exists."
-     * and return null.
+     * If commit with this SHA doesn't exist, or a shortened SHA names
+     * more than one, print "No commit with that id exists."
+     * and return null. Objects other than commits are ignored.
      * @param sha SHA-1 value of commit */
     Commit getCommit(String sha) {
-        String[] serializedfiles = new File(Utils.SERIALIZED).list();
-        if (serializedfiles != null) {
-            for (String serializedfile: serializedfiles) {
-                if (!serializedfile.equals("CT")
-                        && serializedfile.contains(sha)) {
-                    return Utils.readObject(
-                            new File(Utils.SERIALIZED + serializedfile),
-                            Commit.class);
-                }
+        ObjectStore objects = Utils.objects();
+        List<String> ids;
+        if (sha.length() == Utils.UID_LENGTH) {
+            ids = objects.has(sha) ? List.of(sha) : List.of();
+        } else {
+            ids = objects.withPrefix(sha);
+        }
+        Commit result = null;
+        for (String id : ids) {
+            Commit c = asCommit(objects.get(id));
+            if (c != null && result != null) {
+                result = null;
+                break;
+            } else if (c != null) {
+                result = c;
             }
         }
-        System.out.println("No commit with that id exists.");
-        return null;
+        if (result == null) {
+            System.out.println("No commit with that id exists.");
+        }
+        return result;
     }
 
-    /** A HashMap of the contents of this commit tree. Keys are name of branch,
-     * values are SHA of the head commit of that branch.
-     */
-    private HashMap<String, String> _branchMap;
+    /** Returns the commit serialized in CONTENTS, or null if CONTENTS
+     * holds some other object.
+     * @param contents stored object */
+    private static Commit asCommit(byte[] contents) {
+        try {
+            return Utils.deserialize(contents, Commit.class);
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /** Branch changes not yet written to the branch store, by branch
+     * name; a null value marks a removed branch. */
+    private TreeMap<String, String> _pendingRefs;
+
+    /** Branch store, once opened. */
+    private transient RefStore _refs;
 
-    /** An ArrayList of all branch names. */
-    private ArrayList<String> _branches;
+    /** The .gitlet directory of another repository I was read from, or
+     * null for the current one. */
+    private transient File _gitletDir;
 
-    /** An ArrayList of all commit SHA's in this commit tree. */
-    private ArrayList<String> _commits;
+    /** Reflog entry lines not yet written, by ref; an empty list marks a
+     * removed branch whose log is deleted. */
+    private transient LinkedHashMap<String, ArrayList<String>> _reflog;
 
-    /** An ArrayList of filenames that are marked
-     * to NOT be included in the next commit. */
-    private ArrayList<String> _rmMarked;
+    /** Message of new reflog entries. */
+    private transient String _reflogMessage;
 
-    /** An ArrayList of filenames that have been removed. */
-    private ArrayList<String> _removed;
+    /** Remote names, mapped to the paths of their .gitlet directories. */
+    private HashMap<String, String> _remotes = new HashMap<>();
+
+    /** True iff I changed in a way not yet written to disk, other than
+     * my branches, which are written separately. */
+    private boolean _changed;
 
     /** Name of head branch of this CT. */
     private String _headBranch;
+
+    /** True iff serialize only replaces the copy held in memory. */
+    private static boolean _deferring;
+
+    /** Serialized commit tree held in memory while deferring, or null. */
+    private static byte[] _current;
+
+    /** True iff _current has not been written to disk. */
+    private static boolean _dirty;
+
+    /** Reflog changes of the commands run while deferring, in order. */
+    private static ArrayList<Map<String, ArrayList<String>>>
+        _pendingReflog = new ArrayList<>();
 }
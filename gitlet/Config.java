@@ -0,0 +1,85 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/** Repository settings, stored as key=value lines in .gitlet/config.
+ * @author Jeff Xiang
+ */
+class Config {
+
+    /** Returns the value of setting KEY, or DEFAULTVALUE if it is not set.
+     * @param key setting name
+     * @param defaultValue value when unset */
+    static String get(String key, String defaultValue) {
+        return load().getProperty(key, defaultValue);
+    }
+
+    /** Returns the integer value of setting KEY, or DEFAULTVALUE if it is
+     * not set or not an integer.
+     * @param key setting name
+     * @param defaultValue value when unset */
+    static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, "").trim());
+        } catch (NumberFormatException excp) {
+            return defaultValue;
+        }
+    }
+
+    /** Sets KEY to VALUE and writes .gitlet/config.
+     * @param key setting name
+     * @param value new value */
+    static void set(String key, String value) {
+        Properties props = load();
+        props.setProperty(key, value);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            props.store(bytes, null);
+            Utils.writeAtomically(new File(Utils.CONFIG), bytes.toByteArray(),
+                    false);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write config: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the value of setting KEY in the repository whose .gitlet
+     * directory is GITLETDIR, or DEFAULTVALUE if it is not set.
+     * @param gitletDir .gitlet directory of another repository
+     * @param key setting name
+     * @param defaultValue value when unset */
+    static String get(File gitletDir, String key, String defaultValue) {
+        return load(new File(gitletDir, "config"))
+                .getProperty(key, defaultValue);
+    }
+
+    /** Returns the settings in .gitlet/config, reading them once. */
+    private static Properties load() {
+        if (_props == null) {
+            _props = load(new File(Utils.CONFIG));
+        }
+        return _props;
+    }
+
+    /** Returns the settings in config file F, which need not exist.
+     * @param f config file */
+    private static Properties load(File f) {
+        Properties props = new Properties();
+        if (f.isFile()) {
+            try (InputStream in = new FileInputStream(f)) {
+                props.load(in);
+            } catch (IOException excp) {
+                throw Utils.error("Could not read config: %s",
+                        excp.getMessage());
+            }
+        }
+        return props;
+    }
+
+    /** Settings of the current repository, once read. */
+    private static Properties _props;
+}
@@ -0,0 +1,325 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.LongBinaryOperator;
+
+/** An immutable compressed bitmap in the EWAH format: a sequence of
+ * 64-bit marker words, each followed by the literal words it counts. A
+ * marker packs a running bit (bit 0), the number of "clean" words of that
+ * bit preceding its literals (bits 1-32) and the number of literals (bits
+ * 33-63). Logical operations work directly on the compressed words, so
+ * long runs of absent or present objects cost one step each.
+ * @author Jeff Xiang
+ */
+class EwahBitmap {
+
+    /** A bitmap holding the first SIZE of WORDS.
+     * @param words compressed words
+     * @param size number of words used */
+    private EwahBitmap(long[] words, int size) {
+        _words = words;
+        _size = size;
+    }
+
+    /** Returns a bitmap with the bits of BITS.
+     * @param bits uncompressed bits */
+    static EwahBitmap of(BitSet bits) {
+        Builder builder = new Builder();
+        long[] words = bits.toLongArray();
+        for (long word : words) {
+            builder.addWord(word);
+        }
+        return builder.build();
+    }
+
+    /** Returns the bitmap read from IN, as written by write.
+     * @param in input stream */
+    static EwahBitmap read(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        long[] words = new long[size];
+        for (int i = 0; i < size; i += 1) {
+            words[i] = in.readLong();
+        }
+        return new EwahBitmap(words, size);
+    }
+
+    /** Writes this bitmap to OUT.
+     * @param out output stream */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(_size);
+        for (int i = 0; i < _size; i += 1) {
+            out.writeLong(_words[i]);
+        }
+    }
+
+    /** Returns the number of set bits. */
+    long cardinality() {
+        long result = 0;
+        for (int i = 0; i < _size; i += 1) {
+            long marker = _words[i];
+            if ((marker & 1) != 0) {
+                result += WORD_BITS * runLength(marker);
+            }
+            int literals = literalCount(marker);
+            for (int j = 1; j <= literals; j += 1) {
+                result += Long.bitCount(_words[i + j]);
+            }
+            i += literals;
+        }
+        return result;
+    }
+
+    /** Returns the uncompressed bits of this bitmap. */
+    BitSet toBitSet() {
+        BitSet result = new BitSet();
+        int pos = 0;
+        for (int i = 0; i < _size; i += 1) {
+            long marker = _words[i];
+            int run = (int) runLength(marker);
+            if ((marker & 1) != 0) {
+                result.set(pos * WORD_BITS, (pos + run) * WORD_BITS);
+            }
+            pos += run;
+            int literals = literalCount(marker);
+            for (int j = 1; j <= literals; j += 1, pos += 1) {
+                long word = _words[i + j];
+                for (; word != 0; word &= word - 1) {
+                    result.set(pos * WORD_BITS
+                            + Long.numberOfTrailingZeros(word));
+                }
+            }
+            i += literals;
+        }
+        return result;
+    }
+
+    /** Returns the bitmap of the bits set in this or OTHER.
+     * @param other second operand */
+    EwahBitmap or(EwahBitmap other) {
+        return combine(other, (x, y) -> x | y);
+    }
+
+    /** Returns the bitmap of the bits set in both this and OTHER.
+     * @param other second operand */
+    EwahBitmap and(EwahBitmap other) {
+        return combine(other, (x, y) -> x & y);
+    }
+
+    /** Returns the bitmap of the bits set in this but not in OTHER.
+     * @param other second operand */
+    EwahBitmap andNot(EwahBitmap other) {
+        return combine(other, (x, y) -> x & ~y);
+    }
+
+    /** Returns the bitmap whose words are OP applied to corresponding
+     * words of this and OTHER, with missing words taken to be 0. OP must
+     * map two zero words to zero.
+     * @param other second operand
+     * @param op word operation */
+    private EwahBitmap combine(EwahBitmap other, LongBinaryOperator op) {
+        Cursor a = new Cursor(this), b = new Cursor(other);
+        Builder result = new Builder();
+        while (!a.done() || !b.done()) {
+            long word = op.applyAsLong(a.word(), b.word());
+            if (a.inRun() && b.inRun()) {
+                long n = Math.min(a.runLength(), b.runLength());
+                result.addClean(word != 0, n);
+                a.skip(n);
+                b.skip(n);
+            } else {
+                result.addWord(word);
+                a.skip(1);
+                b.skip(1);
+            }
+        }
+        return result.build();
+    }
+
+    /** Returns the number of clean words counted by MARKER.
+     * @param marker marker word */
+    private static long runLength(long marker) {
+        return (marker >>> 1) & MAX_RUN;
+    }
+
+    /** Returns the number of literal words counted by MARKER.
+     * @param marker marker word */
+    private static int literalCount(long marker) {
+        return (int) (marker >>> LITERAL_SHIFT);
+    }
+
+    /** Accumulates words, compressing runs of clean words. */
+    private static class Builder {
+
+        /** Appends the uncompressed WORD.
+         * @param word uncompressed word */
+        void addWord(long word) {
+            if (word == 0 || word == ~0L) {
+                addClean(word != 0, 1);
+            } else {
+                long marker = _words[_marker];
+                if (literalCount(marker) == MAX_LITERALS) {
+                    newMarker(false);
+                    marker = _words[_marker];
+                }
+                _words[_marker] = marker + (1L << LITERAL_SHIFT);
+                append(word);
+            }
+        }
+
+        /** Appends N clean words all of whose bits are BIT.
+         * @param bit value of the bits
+         * @param n number of words */
+        void addClean(boolean bit, long n) {
+            while (n > 0) {
+                long marker = _words[_marker];
+                boolean fresh = literalCount(marker) == 0
+                        && (runLength(marker) == 0
+                        || ((marker & 1) != 0) == bit);
+                if (!fresh || runLength(marker) == MAX_RUN) {
+                    newMarker(bit);
+                    marker = _words[_marker];
+                }
+                long add = Math.min(n, MAX_RUN - runLength(marker));
+                marker = (marker & ~(MAX_RUN << 1))
+                        | ((runLength(marker) + add) << 1);
+                _words[_marker] = bit ? marker | 1 : marker & ~1L;
+                n -= add;
+            }
+        }
+
+        /** Returns the accumulated bitmap. */
+        EwahBitmap build() {
+            return new EwahBitmap(_words, _size);
+        }
+
+        /** Starts a new marker whose running bit is BIT.
+         * @param bit running bit */
+        private void newMarker(boolean bit) {
+            _marker = _size;
+            append(bit ? 1 : 0);
+        }
+
+        /** Appends WORD to the compressed words.
+         * @param word compressed word */
+        private void append(long word) {
+            if (_size == _words.length) {
+                _words = Arrays.copyOf(_words, 2 * _size);
+            }
+            _words[_size] = word;
+            _size += 1;
+        }
+
+        /** Compressed words. */
+        private long[] _words = new long[4];
+
+        /** Number of words used; the first is always a marker. */
+        private int _size = 1;
+
+        /** Index of the current marker. */
+        private int _marker;
+    }
+
+    /** A position in the uncompressed words of a bitmap. Past the end,
+     * it reads as an endless run of zeros. */
+    private static class Cursor {
+
+        /** A cursor at the start of BITMAP.
+         * @param bitmap bitmap to read */
+        Cursor(EwahBitmap bitmap) {
+            _words = bitmap._words;
+            _size = bitmap._size;
+            load();
+        }
+
+        /** Returns true iff no words remain. */
+        boolean done() {
+            return _runLeft == 0 && _literalsLeft == 0;
+        }
+
+        /** Returns true iff the current word is clean. */
+        boolean inRun() {
+            return _runLeft > 0 || done();
+        }
+
+        /** Returns the number of clean words left in the current run. */
+        long runLength() {
+            return done() ? Long.MAX_VALUE : _runLeft;
+        }
+
+        /** Returns the current uncompressed word. */
+        long word() {
+            if (_runLeft > 0) {
+                return _runBit ? ~0L : 0L;
+            }
+            return done() ? 0L : _words[_literal];
+        }
+
+        /** Advances N words, which must not go past the current run, or
+         * past the current literal if not in a run.
+         * @param n number of words */
+        void skip(long n) {
+            if (_runLeft > 0) {
+                _runLeft -= n;
+            } else if (_literalsLeft > 0) {
+                _literal += 1;
+                _literalsLeft -= 1;
+            }
+            load();
+        }
+
+        /** Moves to the next marker while the current one is used up. */
+        private void load() {
+            while (done() && _next < _size) {
+                long marker = _words[_next];
+                _runBit = (marker & 1) != 0;
+                _runLeft = EwahBitmap.runLength(marker);
+                _literalsLeft = literalCount(marker);
+                _literal = _next + 1;
+                _next += 1 + _literalsLeft;
+            }
+        }
+
+        /** Compressed words. */
+        private final long[] _words;
+
+        /** Number of compressed words. */
+        private final int _size;
+
+        /** Index of the next marker. */
+        private int _next;
+
+        /** Running bit of the current marker. */
+        private boolean _runBit;
+
+        /** Clean words left in the current run. */
+        private long _runLeft;
+
+        /** Index of the current literal. */
+        private int _literal;
+
+        /** Literals left after the current run. */
+        private int _literalsLeft;
+    }
+
+    /** Bits per word. */
+    private static final int WORD_BITS = 64;
+
+    /** Largest run length a marker holds. */
+    private static final long MAX_RUN = 0xffffffffL;
+
+    /** Position of the literal count in a marker. */
+    private static final int LITERAL_SHIFT = 33;
+
+    /** Largest literal count a marker holds. */
+    private static final int MAX_LITERALS = (1 << 31) - 1;
+
+    /** Compressed words. */
+    private final long[] _words;
+
+    /** Number of compressed words used. */
+    private final int _size;
+}
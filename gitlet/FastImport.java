@@ -0,0 +1,444 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Builds history from a stream in a subset of the git fast-import
+ * format, writing Blob and Commit objects directly in large batches and
+ * updating the CommitTree once at the end. Supported commands:
+ * <pre>
+ * blob
+ * mark :N
+ * data COUNT
+ * BYTES
+ *
+ * commit refs/heads/BRANCH
+ * mark :N                        (optional)
+ * committer NAME EPOCHSECS TZ    (optional; sets the commit date)
+ * data COUNT
+ * MESSAGE
+ * from COMMITISH                 (optional; default is BRANCH's tip)
+ * merge COMMITISH                (optional)
+ * M MODE :N PATH | M MODE inline PATH + data
+ * D PATH
+ * deleteall
+ *
+ * reset refs/heads/BRANCH
+ * from COMMITISH
+ * </pre>
+ * A COMMITISH is a mark, a full commit id or a branch name. Commits with
+ * no parent are made children of the repository's initial commit. Blob
+ * contents are spooled to a temporary file until a commit names them.
+ * @author Jeff Xiang
+ */
+class FastImport {
+
+    /** An import reading commands from IN into COMMITTREE.
+     * @param in input stream
+     * @param commitTree commit tree to update */
+    FastImport(InputStream in, CommitTree commitTree) {
+        _in = new PushbackInputStream(new BufferedInputStream(in,
+                BUFFER_SIZE));
+        _commitTree = commitTree;
+        _batch = Utils.objects().batch();
+        _entries = new ArrayList<>();
+        _blobMarks = new HashMap<>();
+        _commitMarks = new HashMap<>();
+        _branches = new LinkedHashMap<>();
+        _written = new HashSet<>();
+        _commits = new ArrayList<>();
+        _recent = new LinkedHashMap<String, Commit>(RECENT, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Commit> e) {
+                return size() > RECENT;
+            }
+        };
+    }
+
+    /** Runs the import to the end of input or a "done" command, then
+     * updates and serializes the commit tree. Throws a GitletException
+     * on malformed input, leaving the commit tree unchanged. */
+    void run() {
+        File spool = Utils.writeTemporary(new byte[0]);
+        try (RandomAccessFile raf = new RandomAccessFile(spool, "rw")) {
+            _spool = raf;
+            for (String line = readLine(); line != null; line = readLine()) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                } else if (line.equals("done")) {
+                    break;
+                } else if (line.equals("blob")) {
+                    blobCommand();
+                } else if (line.startsWith("commit ")) {
+                    commitCommand(branchName(line.substring(7)));
+                } else if (line.startsWith("reset ")) {
+                    resetCommand(branchName(line.substring(6)));
+                } else {
+                    throw Utils.error("Unsupported import command: %s", line);
+                }
+            }
+            flush();
+        } catch (IOException excp) {
+            throw Utils.error("Could not import: %s", excp.getMessage());
+        } finally {
+            spool.delete();
+        }
+        for (Map.Entry<String, String> branch : _branches.entrySet()) {
+            _commitTree.setBranch(branch.getKey(), branch.getValue());
+        }
+        _commitTree.serialize();
+    }
+
+    /** Returns the number of commits imported. */
+    int getCommitCount() {
+        return _commits.size();
+    }
+
+    /** Returns the number of new blobs written. */
+    int getBlobCount() {
+        return _written.size();
+    }
+
+    /** Reads a blob command: an optional mark and the blob's data, which
+     * is spooled until a commit uses it. */
+    private void blobCommand() throws IOException {
+        String mark = readMark();
+        byte[] data = readData();
+        long offset = _spool.length();
+        _spool.seek(offset);
+        _spool.write(data);
+        if (mark != null) {
+            _blobMarks.put(mark, new long[] {offset, data.length});
+        }
+    }
+
+    /** Reads the rest of a commit command for BRANCH and builds the
+     * commit.
+     * @param branch branch name */
+    private void commitCommand(String branch) throws IOException {
+        String mark = readMark();
+        long time = System.currentTimeMillis();
+        String line = readLine();
+        if (line != null && line.startsWith("author ")) {
+            line = readLine();
+        }
+        if (line != null && line.startsWith("committer ")) {
+            String[] words = line.split(" ");
+            time = Long.parseLong(words[words.length - 2]) * MILLIS;
+            line = readLine();
+        }
+        unread(line);
+        String message = new String(readData(), StandardCharsets.UTF_8);
+        if (message.endsWith("\n")) {
+            message = message.substring(0, message.length() - 1);
+        }
+        String parent = _branches.get(branch);
+        if (parent == null) {
+            parent = _commitTree.getBranch(branch);
+        }
+        String parent2 = null;
+        line = readLine();
+        if (line != null && line.startsWith("from ")) {
+            parent = resolve(line.substring(5));
+            line = readLine();
+        }
+        if (line != null && line.startsWith("merge ")) {
+            parent2 = resolve(line.substring(6));
+            line = readLine();
+        }
+        if (parent == null) {
+            parent = initialCommit();
+        }
+        Commit parentcommit = commit(parent);
+        ArrayList<String> filenames =
+                new ArrayList<>(parentcommit.getFilenames());
+        HashMap<String, String> blobs =
+                new HashMap<>(parentcommit.getBlobs());
+        for (; line != null && !line.isEmpty(); line = readLine()) {
+            if (line.startsWith("M ")) {
+                fileModify(line, filenames, blobs);
+            } else if (line.startsWith("D ")) {
+                String path = unquote(line.substring(2));
+                if (blobs.remove(path) != null) {
+                    filenames.remove(path);
+                }
+            } else if (line.equals("deleteall")) {
+                blobs.clear();
+                filenames.clear();
+            } else {
+                unread(line);
+                break;
+            }
+        }
+        Commit c = new Commit(parent, parent2, message, time, filenames,
+                blobs);
+        _batch.put(c.getSHA(), Utils.serialize(c));
+        _entries.add(CommitGraph.entryFor(c, parentcommit));
+        _recent.put(c.getSHA(), c);
+        _commits.add(c.getSHA());
+        _branches.put(branch, c.getSHA());
+        if (mark != null) {
+            _commitMarks.put(mark, c.getSHA());
+        }
+        if (_batch.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /** Applies file modification command LINE to FILENAMES and BLOBS,
+     * writing the blob if it is new.
+     * @param line "M MODE DATAREF PATH"
+     * @param filenames tracked file names of the commit being built
+     * @param blobs blobs of the commit being built */
+    private void fileModify(String line, List<String> filenames,
+                            HashMap<String, String> blobs)
+            throws IOException {
+        String[] words = line.split(" ", 4);
+        if (words.length != 4) {
+            throw Utils.error("Malformed file command: %s", line);
+        }
+        String path = unquote(words[3]);
+        byte[] contents;
+        if (words[2].equals("inline")) {
+            contents = readData();
+        } else {
+            long[] location = _blobMarks.get(words[2]);
+            if (location == null) {
+                throw Utils.error("Unknown blob mark: %s", words[2]);
+            }
+            contents = new byte[(int) location[1]];
+            _spool.seek(location[0]);
+            _spool.readFully(contents);
+        }
+        Blob blob = new Blob(contents, path);
+        String sha = blob.getSHA();
+        if (!_written.contains(sha)) {
+            if (!Utils.objects().has(sha)) {
+                blob.serialize(_batch);
+                _written.add(sha);
+            }
+        }
+        if (blobs.put(path, sha) == null) {
+            filenames.add(path);
+        }
+    }
+
+    /** Reads the rest of a reset command for BRANCH.
+     * @param branch branch name */
+    private void resetCommand(String branch) throws IOException {
+        String line = readLine();
+        if (line != null && line.startsWith("from ")) {
+            _branches.put(branch, resolve(line.substring(5)));
+        } else {
+            unread(line);
+            _branches.remove(branch);
+        }
+    }
+
+    /** Returns the commit with SHA, from the recently built commits if
+     * possible, else from disk after flushing pending writes.
+     * @param sha commit SHA-1 value */
+    private Commit commit(String sha) {
+        Commit c = _recent.get(sha);
+        if (c == null) {
+            flush();
+            c = Commit.read(sha);
+            _recent.put(sha, c);
+        }
+        return c;
+    }
+
+    /** Returns the SHA-1 value of the repository's initial commit. */
+    private String initialCommit() {
+        if (_initial == null) {
+            CommitGraph graph = CommitGraph.read();
+            String sha = _commitTree.getHeadSHA();
+            while (graph.get(sha).getParentSHA() != null) {
+                sha = graph.get(sha).getParentSHA();
+            }
+            _initial = sha;
+        }
+        return _initial;
+    }
+
+    /** Returns the SHA-1 value of the commit denoted by COMMITISH: a
+     * mark, a full commit id or a branch name.
+     * @param commitish reference to a commit */
+    private String resolve(String commitish) {
+        String sha;
+        if (commitish.startsWith(":")) {
+            sha = _commitMarks.get(commitish);
+        } else if (commitish.length() == Hashing.objects().hexLength()
+                && commitish.matches("[0-9a-f]+")) {
+            sha = commitish;
+        } else {
+            String branch = branchName(commitish);
+            sha = _branches.get(branch);
+            if (sha == null) {
+                sha = _commitTree.getBranch(branch);
+            }
+        }
+        if (sha == null) {
+            throw Utils.error("Unknown commit: %s", commitish);
+        }
+        return sha;
+    }
+
+    /** Writes all pending objects, then their commit graph records. */
+    private void flush() {
+        _batch.flush();
+        CommitGraph.append(_entries);
+        _entries.clear();
+    }
+
+    /** Reads an optional "mark :N" line and returns ":N", or null. */
+    private String readMark() throws IOException {
+        String line = readLine();
+        if (line != null && line.startsWith("mark ")) {
+            return line.substring(5);
+        }
+        unread(line);
+        return null;
+    }
+
+    /** Reads a "data COUNT" line and the COUNT bytes following it, plus
+     * an optional newline, and returns the bytes. */
+    private byte[] readData() throws IOException {
+        String line = readLine();
+        if (line == null || !line.startsWith("data ")) {
+            throw Utils.error("Expected data command, got: %s", line);
+        }
+        byte[] data = new byte[Integer.parseInt(line.substring(5).trim())];
+        int n = 0;
+        while (n < data.length) {
+            int k = _in.read(data, n, data.length - n);
+            if (k < 0) {
+                throw Utils.error("Unexpected end of import data.");
+            }
+            n += k;
+        }
+        int c = _in.read();
+        if (c >= 0 && c != '\n') {
+            _in.unread(c);
+        }
+        return data;
+    }
+
+    /** Returns the next line of input, without its newline, or null at
+     * the end of input. */
+    private String readLine() throws IOException {
+        if (_unread != null) {
+            String line = _unread;
+            _unread = null;
+            return line;
+        }
+        _line.reset();
+        int c = _in.read();
+        if (c < 0) {
+            return null;
+        }
+        while (c >= 0 && c != '\n') {
+            _line.write(c);
+            c = _in.read();
+        }
+        return new String(_line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Pushes LINE back, so the next readLine returns it.
+     * @param line line to push back, or null for none */
+    private void unread(String line) {
+        _unread = line;
+    }
+
+    /** Returns the branch name denoted by REF, stripping "refs/heads/".
+     * Throws a GitletException if that is not a valid branch name.
+     * @param ref reference name */
+    private static String branchName(String ref) {
+        String name = ref.startsWith(HEADS) ? ref.substring(HEADS.length())
+                : ref;
+        if (!RefStore.isValidName(name)) {
+            throw Utils.error("Invalid branch name: %s", name);
+        }
+        return name;
+    }
+
+    /** Returns PATH with surrounding double quotes removed.
+     * @param path possibly quoted path */
+    private static String unquote(String path) {
+        if (path.length() >= 2 && path.startsWith("\"")
+                && path.endsWith("\"")) {
+            return path.substring(1, path.length() - 1);
+        }
+        return path;
+    }
+
+    /** Prefix of branch reference names. */
+    private static final String HEADS = "refs/heads/";
+
+    /** Number of objects written per batch. */
+    private static final int BATCH_SIZE = 4096;
+
+    /** Number of recently built commits kept in memory. */
+    private static final int RECENT = 64;
+
+    /** Size of the input buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Milliseconds per second. */
+    private static final long MILLIS = 1000;
+
+    /** Input stream. */
+    private final PushbackInputStream _in;
+
+    /** Commit tree updated at the end. */
+    private final CommitTree _commitTree;
+
+    /** Pending object writes. */
+    private final ObjectStore.Batch _batch;
+
+    /** Commit graph records of the commits in _batch. */
+    private final ArrayList<CommitGraph.Entry> _entries;
+
+    /** Blob marks, mapped to the offset and length of their contents in
+     * the spool. */
+    private final HashMap<String, long[]> _blobMarks;
+
+    /** Commit marks, mapped to commit SHA-1 values. */
+    private final HashMap<String, String> _commitMarks;
+
+    /** Branches set by this import, mapped to their tips. */
+    private final LinkedHashMap<String, String> _branches;
+
+    /** SHA-1 values of the blobs written by this import. */
+    private final HashSet<String> _written;
+
+    /** SHA-1 values of the imported commits, in order. */
+    private final ArrayList<String> _commits;
+
+    /** Recently built or read commits, by SHA-1 value. */
+    private final LinkedHashMap<String, Commit> _recent;
+
+    /** Buffer for the line being read. */
+    private final ByteArrayOutputStream _line = new ByteArrayOutputStream();
+
+    /** Line pushed back by unread, or null. */
+    private String _unread;
+
+    /** Spool file of blob contents. */
+    private RandomAccessFile _spool;
+
+    /** SHA-1 value of the repository's initial commit, once found. */
+    private String _initial;
+}
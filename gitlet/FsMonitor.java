@@ -0,0 +1,421 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** A file-system monitor: a long-running process that watches every
+ * directory of the working tree and appends the path of each file or
+ * directory that changes to .gitlet/fsmonitor.log. The log starts with a
+ * line naming its generation, chosen afresh whenever the monitor starts
+ * or truncates the log; a line holding only ! records lost events. A
+ * token, a generation and a log offset, thus identifies everything that
+ * changed after a point in time. Since the monitor sees events some time
+ * after they happen, a command does not take the end of the log as its
+ * token: it creates a cookie file in .gitlet/fsmonitor.cookies, which the
+ * monitor also watches, and takes the point just after the monitor logs
+ * it, by which time every earlier change has been logged too. The monitor
+ * holds a lock on
+ * .gitlet/fsmonitor.lock while it runs, so other commands can tell
+ * whether the log is being kept up to date.
+ * @author Jeff Xiang
+ */
+class FsMonitor {
+
+    /** A point in the monitor log. */
+    static class Token {
+
+        /** The token at OFFSET in the log of generation GENERATION.
+         * @param generation log generation
+         * @param offset byte offset in the log */
+        Token(String generation, long offset) {
+            _generation = generation;
+            _offset = offset;
+        }
+
+        /** Returns my log generation. */
+        String getGeneration() {
+            return _generation;
+        }
+
+        /** Returns my byte offset in the log. */
+        long getOffset() {
+            return _offset;
+        }
+
+        /** Log generation. */
+        private final String _generation;
+
+        /** Byte offset in the log. */
+        private final long _offset;
+    }
+
+    /** Returns true iff a monitor is running for this repository. */
+    static boolean isRunning() {
+        File lockfile = new File(LOCK);
+        if (!lockfile.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockfile.toPath(),
+                StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns a token after which the log holds every change made
+     * before this call, found by touching a cookie file and waiting for
+     * the monitor to log it. Returns null if no monitor is running, it
+     * has not finished starting, or it does not log the cookie in time;
+     * the caller must then examine the whole working tree.
+     * @return token, or null */
+    static Token current() {
+        if (!isRunning()) {
+            return null;
+        }
+        File cookie = new File(COOKIES, UUID.randomUUID().toString());
+        try (RandomAccessFile log = new RandomAccessFile(LOG, "r")) {
+            String header = log.readLine();
+            if (header == null || !header.startsWith(HEADER)) {
+                return null;
+            }
+            long start = lineEnd(log, log.length());
+            if (!cookie.createNewFile()) {
+                return null;
+            }
+            byte[] line = ("\n" + COOKIES + "/" + cookie.getName() + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+            long deadline = System.nanoTime() + COOKIE_WAIT * NANOS_PER_MS;
+            while (System.nanoTime() < deadline) {
+                long end = lineEnd(log, log.length());
+                byte[] bytes = new byte[(int) (end - start + 1)];
+                log.seek(start - 1);
+                log.readFully(bytes);
+                int found = indexOf(bytes, line);
+                if (found >= 0) {
+                    return new Token(header.substring(HEADER.length()),
+                            start - 1 + found + line.length);
+                }
+                Thread.sleep(COOKIE_POLL_MS);
+            }
+            return null;
+        } catch (IOException | InterruptedException excp) {
+            return null;
+        } finally {
+            cookie.delete();
+        }
+    }
+
+    /** Returns the offset just after the last complete line of LOG that
+     * ends at or before END, as the monitor may be writing a line.
+     * @param log open log
+     * @param end offset in the log */
+    private static long lineEnd(RandomAccessFile log, long end)
+            throws IOException {
+        for (long pos = end; pos > 0; pos -= 1) {
+            log.seek(pos - 1);
+            if (log.read() == '\n') {
+                return pos;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the position of the first occurrence of TARGET in BYTES,
+     * or -1 if there is none.
+     * @param bytes bytes searched
+     * @param target bytes sought */
+    private static int indexOf(byte[] bytes, byte[] target) {
+        for (int i = 0; i + target.length <= bytes.length; i += 1) {
+            if (Arrays.equals(bytes, i, i + target.length,
+                    target, 0, target.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Adds to DIRTY the paths the log records as changed after SINCE up
+     * to UNTIL, two tokens of the same generation. Returns false if the
+     * log has been restarted or lost events in that span, in which case
+     * every path must be considered changed.
+     * @param since earlier token
+     * @param until later token
+     * @param dirty set of changed paths */
+    static boolean changes(Token since, Token until, HashSet<String> dirty) {
+        if (!since._generation.equals(until._generation)
+                || since._offset > until._offset) {
+            return false;
+        }
+        try (RandomAccessFile log = new RandomAccessFile(LOG, "r")) {
+            String header = log.readLine();
+            if (header == null
+                    || !header.equals(HEADER + since._generation)) {
+                return false;
+            }
+            byte[] bytes = new byte[(int) (until._offset - since._offset)];
+            log.seek(since._offset);
+            log.readFully(bytes);
+            for (String line : new String(bytes, StandardCharsets.UTF_8)
+                    .split("\n")) {
+                if (line.equals(OVERFLOW_MARK)) {
+                    return false;
+                } else if (!line.isEmpty()
+                           && !line.startsWith(COOKIES + "/")) {
+                    dirty.add(line);
+                }
+            }
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Asks a running monitor to stop and waits briefly for it to do so.
+     * Returns false if none was running. */
+    static boolean stop() {
+        if (!isRunning()) {
+            return false;
+        }
+        Utils.writeContents(new File(STOP));
+        for (int i = 0; i < STOP_WAIT / POLL_MS && isRunning(); i += 1) {
+            try {
+                Thread.sleep(POLL_MS);
+            } catch (InterruptedException excp) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /** Runs a monitor until asked to stop. Returns false at once if one
+     * is already running. */
+    static boolean run() {
+        File lockfile = new File(LOCK);
+        try (FileChannel channel = FileChannel.open(lockfile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             WatchService watcher =
+                     FileSystems.getDefault().newWatchService()) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return false;
+            }
+            new File(STOP).delete();
+            FsMonitor monitor = new FsMonitor(watcher);
+            try {
+                monitor.watch();
+            } finally {
+                new File(LOG).delete();
+                new File(STOP).delete();
+                lock.release();
+            }
+            return true;
+        } catch (IOException | InterruptedException excp) {
+            throw Utils.error("File system monitor failed: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** A monitor using WATCHER.
+     * @param watcher watch service */
+    private FsMonitor(WatchService watcher) {
+        _watcher = watcher;
+        _dirs = new HashMap<>();
+    }
+
+    /** Registers the working tree, then logs its changes until asked to
+     * stop. */
+    private void watch() throws IOException, InterruptedException {
+        _rules = IgnoreRules.read();
+        register("", new StringBuilder());
+        File cookies = new File(COOKIES);
+        cookies.mkdir();
+        _dirs.put(cookies.toPath().register(_watcher, ENTRY_CREATE),
+                COOKIES + "/");
+        startLog();
+        while (!new File(STOP).exists()) {
+            WatchKey key = _watcher.poll(POLL_MS, TimeUnit.MILLISECONDS);
+            if (key == null) {
+                continue;
+            }
+            StringBuilder lines = new StringBuilder();
+            for (; key != null; key = _watcher.poll()) {
+                record(key, lines);
+            }
+            _log.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            if (_log.getChannel().size() > MAX_LOG) {
+                startLog();
+            }
+        }
+        _log.close();
+    }
+
+    /** Appends to LINES the paths of the events of KEY, registering new
+     * directories, and re-queues KEY.
+     * @param key signalled watch key
+     * @param lines log lines being collected */
+    private void record(WatchKey key, StringBuilder lines)
+            throws IOException {
+        String prefix = _dirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || prefix == null) {
+                lines.append(OVERFLOW_MARK).append('\n');
+                continue;
+            }
+            String path = prefix + event.context();
+            if (path.equals(".gitlet")) {
+                continue;
+            }
+            lines.append(path).append('\n');
+            if (path.equals(IgnoreRules.IGNORE_FILE)) {
+                _rules = IgnoreRules.read();
+                register("", lines);
+            } else if (event.kind() == ENTRY_CREATE
+                    && Files.isDirectory(Paths.get(path))) {
+                register(path, lines);
+            }
+        }
+        if (!key.reset()) {
+            _dirs.remove(key);
+        }
+    }
+
+    /** Registers directory PATH ("" for the top) and every directory
+     * below it that the ignore rules do not exclude, appending to LINES
+     * the paths of the files found, which may have been created before
+     * their directory was watched.
+     * @param path directory path, with / separators
+     * @param lines log lines being collected */
+    private void register(String path, StringBuilder lines)
+            throws IOException {
+        Path top = Paths.get(path.isEmpty() ? "." : path);
+        Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(
+                    Path dir, BasicFileAttributes attrs) throws IOException {
+                String name = relative(dir);
+                if (name.equals(".gitlet")
+                        || !name.isEmpty() && _rules.matches(name, true)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(_watcher, ENTRY_CREATE,
+                        ENTRY_DELETE, ENTRY_MODIFY);
+                _dirs.put(key, name.isEmpty() ? "" : name + "/");
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                                             BasicFileAttributes attrs) {
+                lines.append(relative(file)).append('\n');
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file,
+                                                   IOException excp) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Returns the path of P relative to the top of the working tree,
+     * with / separators.
+     * @param p path below the current directory */
+    private static String relative(Path p) {
+        return WorkingTree.normalize(p.toString());
+    }
+
+    /** Starts a new log generation, replacing the log. */
+    private void startLog() throws IOException {
+        if (_log != null) {
+            _log.close();
+        }
+        String header = HEADER + UUID.randomUUID() + "\n";
+        Utils.writeAtomically(new File(LOG),
+                header.getBytes(StandardCharsets.UTF_8), false);
+        _log = new FileOutputStream(LOG, true);
+    }
+
+    /** Path of the monitor log. */
+    static final String LOG = ".gitlet/fsmonitor.log";
+
+    /** Directory of the cookie files of commands waiting for the
+     * monitor. */
+    private static final String COOKIES = ".gitlet/fsmonitor.cookies";
+
+    /** Path of the lock held by a running monitor. */
+    private static final String LOCK = ".gitlet/fsmonitor.lock";
+
+    /** Path of the file that asks a running monitor to stop. */
+    private static final String STOP = ".gitlet/fsmonitor.stop";
+
+    /** Start of the first line of the log, followed by the generation. */
+    private static final String HEADER = "gitlet-fsmonitor ";
+
+    /** Log line marking lost events. */
+    private static final String OVERFLOW_MARK = "!";
+
+    /** Log size beyond which the monitor starts a new generation. */
+    private static final long MAX_LOG = 1 << 24;
+
+    /** Interval at which the monitor checks for a stop request, in
+     * milliseconds. */
+    private static final long POLL_MS = 200;
+
+    /** Longest wait for the monitor to log a cookie, in milliseconds. */
+    private static final long COOKIE_WAIT = 2000;
+
+    /** Interval at which a command checks the log for its cookie, in
+     * milliseconds. */
+    private static final long COOKIE_POLL_MS = 5;
+
+    /** Nanoseconds in a millisecond. */
+    private static final long NANOS_PER_MS = 1000000L;
+
+    /** Longest wait for a monitor to stop, in milliseconds. */
+    private static final long STOP_WAIT = 5000;
+
+    /** Watch service. */
+    private final WatchService _watcher;
+
+    /** Watched directories' paths followed by /, keyed by watch key. */
+    private final HashMap<WatchKey, String> _dirs;
+
+    /** Current ignore rules. */
+    private IgnoreRules _rules;
+
+    /** Open log, appended to. */
+    private FileOutputStream _log;
+}
@@ -0,0 +1,92 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Formatter;
+import java.util.Random;
+
+/** Compares the cost of hashing with a fresh MessageDigest and Formatter
+ * per call (the original Utils.sha1) against the reusable SHA-1 and SHA-256
+ * engines in Hashing, for many small values and for a few large ones.
+ * Usage: java gitlet.HashBenchmark [SMALLCOUNT [LARGEMB]]
+ * @author Jeff Xiang
+ */
+public class HashBenchmark {
+
+    /** Runs the benchmark with optional ARGS: the number of small values
+     * and the size in megabytes of the large value. */
+    public static void main(String... args) throws Exception {
+        int smallcount = args.length > 0 ? Integer.parseInt(args[0]) : SMALL;
+        int largemb = args.length > 1 ? Integer.parseInt(args[1]) : LARGE;
+        Random random = new Random(0);
+        byte[][] small = new byte[smallcount][];
+        for (int i = 0; i < smallcount; i += 1) {
+            small[i] = new byte[SMALL_SIZE];
+            random.nextBytes(small[i]);
+        }
+        byte[] large = new byte[largemb << 20];
+        random.nextBytes(large);
+        for (int round = 0; round < ROUNDS; round += 1) {
+            boolean report = round == ROUNDS - 1;
+            run(report, "legacy sha1, small", small, null);
+            run(report, "sha1, small", small, Hashing.SHA1);
+            run(report, "sha256, small", small, Hashing.SHA256);
+            run(report, "legacy sha1, large", new byte[][] {large}, null);
+            run(report, "sha1, large", new byte[][] {large}, Hashing.SHA1);
+            run(report, "sha256, large", new byte[][] {large},
+                    Hashing.SHA256);
+        }
+    }
+
+    /** Hashes each of VALS, together with a file name, using HASHING, or
+     * the original per-call implementation if HASHING is null. Prints the
+     * time per value and throughput, labeled NAME, if REPORT. */
+    private static void run(boolean report, String name, byte[][] vals,
+                            Hashing hashing) throws Exception {
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (byte[] val : vals) {
+            String id = hashing == null ? legacySha1(val, "file.txt")
+                    : hashing.hash(val, "file.txt");
+            bytes += val.length + id.length();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (report) {
+            System.out.printf("%-20s %10.0f ns/op %10.1f MB/s%n", name,
+                    (double) elapsed / vals.length,
+                    bytes * 1e3 / elapsed);
+        }
+    }
+
+    /** Returns the SHA-1 hash of VALS exactly as the original Utils.sha1
+     * computed it. */
+    private static String legacySha1(Object... vals)
+            throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        Formatter result = new Formatter();
+        for (byte b : md.digest()) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
+    /** Default number of small values. */
+    private static final int SMALL = 200000;
+
+    /** Size in bytes of each small value. */
+    private static final int SMALL_SIZE = 64;
+
+    /** Default size in megabytes of the large value. */
+    private static final int LARGE = 64;
+
+    /** Number of rounds; all but the last warm up the JIT. */
+    private static final int ROUNDS = 3;
+}
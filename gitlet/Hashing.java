@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** A hash function producing hexadecimal object ids. Digests are created
+ * once per thread and reused, and hex encoding is table driven, so hashing
+ * many small values costs little more than the digest itself.
+ * @author Jeff Xiang
+ */
+class Hashing {
+
+    /** SHA-1, the default object format. */
+    static final Hashing SHA1 = new Hashing("sha1", "SHA-1");
+
+    /** SHA-256, the optional object format. */
+    static final Hashing SHA256 = new Hashing("sha256", "SHA-256");
+
+    /** A hash function called NAME in .gitlet/config, computed by the
+     * MessageDigest ALGORITHM.
+     * @param name object format name
+     * @param algorithm standard MessageDigest algorithm name */
+    private Hashing(String name, String algorithm) {
+        _name = name;
+        _algorithm = algorithm;
+        _digests = ThreadLocal.withInitial(this::newDigest);
+        _hexLength = 2 * _digests.get().getDigestLength();
+    }
+
+    /** Returns the hash function called NAME, or throws a GitletException
+     * if there is none.
+     * @param name object format name, "sha1" or "sha256" */
+    static Hashing forName(String name) {
+        if (SHA1._name.equals(name)) {
+            return SHA1;
+        } else if (SHA256._name.equals(name)) {
+            return SHA256;
+        }
+        throw Utils.error("Unknown object format: %s", name);
+    }
+
+    /** Returns the hash function used for object ids in the current
+     * repository, as recorded in .gitlet/config. */
+    static Hashing objects() {
+        if (_objects == null) {
+            _objects = forName(Config.get(OBJECT_FORMAT, SHA1._name));
+        }
+        return _objects;
+    }
+
+    /** Returns the hash of the concatenation of VALS, which may be any
+     * mixture of byte arrays, Strings and ByteBuffers. ByteBuffers are
+     * consumed. */
+    String hash(Object... vals) {
+        MessageDigest md = _digests.get();
+        md.reset();
+        for (Object val : vals) {
+            update(md, val);
+        }
+        return hex(md.digest());
+    }
+
+    /** Returns a new incremental digest. */
+    Digest start() {
+        return new Digest(cloneDigest());
+    }
+
+    /** Returns my name in .gitlet/config. */
+    String getName() {
+        return _name;
+    }
+
+    /** Returns the length of my hexadecimal ids. */
+    int hexLength() {
+        return _hexLength;
+    }
+
+    /** Returns BYTES as a lower-case hexadecimal numeral.
+     * @param bytes bytes to encode */
+    static String hex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            int b = bytes[i] & 0xff;
+            result[2 * i] = HEX[b >>> 4];
+            result[2 * i + 1] = HEX[b & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Returns the bytes denoted by hexadecimal numeral HEX, which has an
+     * even number of digits.
+     * @param hex hexadecimal id */
+    static byte[] unhex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4
+                    | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** An incremental hash computation. */
+    static class Digest {
+
+        /** A digest computing with MD.
+         * @param md a freshly reset MessageDigest */
+        Digest(MessageDigest md) {
+            _md = md;
+        }
+
+        /** Adds VAL, a byte array, String or ByteBuffer, to the hashed
+         * value and returns this digest.
+         * @param val value to add */
+        Digest update(Object val) {
+            Hashing.update(_md, val);
+            return this;
+        }
+
+        /** Adds LEN bytes of BUF, starting at OFF, to the hashed value
+         * and returns this digest.
+         * @param buf byte array
+         * @param off offset into buf
+         * @param len number of bytes */
+        Digest update(byte[] buf, int off, int len) {
+            _md.update(buf, off, len);
+            return this;
+        }
+
+        /** Adds the remaining contents of IN to the hashed value and
+         * returns this digest. IN is not closed.
+         * @param in input stream */
+        Digest update(InputStream in) throws IOException {
+            byte[] buf = new byte[BUFFER_SIZE];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                _md.update(buf, 0, n);
+            }
+            return this;
+        }
+
+        /** Finishes the computation and returns the hexadecimal hash. */
+        String hex() {
+            return Hashing.hex(_md.digest());
+        }
+
+        /** The underlying MessageDigest. */
+        private final MessageDigest _md;
+    }
+
+    /** Adds VAL to MD.
+     * @param md digest
+     * @param val byte array, String or ByteBuffer */
+    private static void update(MessageDigest md, Object val) {
+        if (val instanceof byte[]) {
+            md.update((byte[]) val);
+        } else if (val instanceof String) {
+            md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+        } else if (val instanceof ByteBuffer) {
+            md.update((ByteBuffer) val);
+        } else {
+            throw new IllegalArgumentException("improper type to hash");
+        }
+    }
+
+    /** Returns a new MessageDigest for my algorithm. */
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(_algorithm);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support "
+                    + _algorithm);
+        }
+    }
+
+    /** Returns a fresh MessageDigest, copied from this thread's digest
+     * when the provider allows it, which is cheaper than a lookup. */
+    private MessageDigest cloneDigest() {
+        MessageDigest md = _digests.get();
+        md.reset();
+        try {
+            return (MessageDigest) md.clone();
+        } catch (CloneNotSupportedException excp) {
+            return newDigest();
+        }
+    }
+
+    /** Key of the object format in .gitlet/config. */
+    static final String OBJECT_FORMAT = "core.objectFormat";
+
+    /** Size of the buffer used to hash streams. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Hexadecimal digits, indexed by value. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Hash function of the current repository's objects, once known. */
+    private static Hashing _objects;
+
+    /** My name in .gitlet/config. */
+    private final String _name;
+
+    /** My MessageDigest algorithm name. */
+    private final String _algorithm;
+
+    /** Per-thread digests, reused by hash(). */
+    private final ThreadLocal<MessageDigest> _digests;
+
+    /** Length of my hexadecimal ids. */
+    private final int _hexLength;
+}
@@ -0,0 +1,271 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** A compiled set of path patterns in the .gitignore syntax: blank lines
+ * and lines starting with # are skipped; a trailing / matches only
+ * directories; a pattern containing another / is matched against the
+ * whole path from the top of the working tree, otherwise against the last
+ * component; *, ? and [...] match within a component and ** across
+ * components; a leading ! re-includes what earlier patterns excluded.
+ * Plain names are kept in hash sets and the remaining patterns are
+ * combined into a few regular expressions, so a match costs a hash lookup
+ * and at most a few regex matches however many patterns there are.
+ * @author Jeff Xiang
+ */
+class IgnoreRules {
+
+    /** Rules compiled from LINES, each a pattern or comment.
+     * @param lines lines of an ignore file */
+    IgnoreRules(List<String> lines) {
+        ArrayList<String> basenameAny = new ArrayList<>();
+        ArrayList<String> basenameDir = new ArrayList<>();
+        ArrayList<String> pathAny = new ArrayList<>();
+        ArrayList<String> pathDir = new ArrayList<>();
+        _rules = new ArrayList<>();
+        for (String line : lines) {
+            Rule rule = Rule.parse(line);
+            if (rule == null) {
+                continue;
+            }
+            _rules.add(rule);
+            _negated |= rule._negated;
+            if (rule._literal != null) {
+                (rule._dirOnly ? _namesDir : _namesAny).add(rule._literal);
+            } else if (rule._anchored) {
+                (rule._dirOnly ? pathDir : pathAny).add(rule._regex);
+            } else {
+                (rule._dirOnly ? basenameDir : basenameAny).add(rule._regex);
+            }
+        }
+        _basenameAny = combine(basenameAny);
+        _basenameDir = combine(basenameDir);
+        _pathAny = combine(pathAny);
+        _pathDir = combine(pathDir);
+    }
+
+    /** Returns the rules of the current working tree: DEFAULTS followed
+     * by the lines of .gitletignore, if any, compiled once. */
+    static IgnoreRules load() {
+        if (_current == null) {
+            _current = read();
+        }
+        return _current;
+    }
+
+    /** Forgets the rules loaded, so the next load reads .gitletignore
+     * again, which a previous command in the same process may have
+     * changed. */
+    static void forget() {
+        _current = null;
+    }
+
+    /** Returns the rules of the current working tree as they are now:
+     * DEFAULTS followed by the lines of .gitletignore, if any. */
+    static IgnoreRules read() {
+        ArrayList<String> lines = new ArrayList<>(Arrays.asList(DEFAULTS));
+        File f = new File(IGNORE_FILE);
+        if (f.isFile()) {
+            lines.addAll(Arrays.asList(new String(Utils.readContents(f),
+                    StandardCharsets.UTF_8).split("\r?\n")));
+        }
+        return new IgnoreRules(lines);
+    }
+
+    /** Returns true iff PATH, or one of its leading directories, matches
+     * these rules. DIRECTORY is true iff PATH names a directory.
+     * @param path path relative to the top of the working tree, with /
+     *             separating components
+     * @param directory true for directories */
+    boolean isIgnored(String path, boolean directory) {
+        for (int i = path.indexOf('/'); i > 0; i = path.indexOf('/', i + 1)) {
+            if (matches(path.substring(0, i), true)) {
+                return true;
+            }
+        }
+        return matches(path, directory);
+    }
+
+    /** Returns true iff PATH itself matches these rules, ignoring its
+     * leading directories, which a tree walk has already checked.
+     * DIRECTORY is true iff PATH names a directory.
+     * @param path path relative to the top of the working tree
+     * @param directory true for directories */
+    boolean matches(String path, boolean directory) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (_negated) {
+            boolean result = false;
+            for (Rule rule : _rules) {
+                if (rule.matches(path, name, directory)) {
+                    result = !rule._negated;
+                }
+            }
+            return result;
+        }
+        return _namesAny.contains(name)
+                || directory && _namesDir.contains(name)
+                || find(_basenameAny, name) || find(_pathAny, path)
+                || directory && (find(_basenameDir, name)
+                || find(_pathDir, path));
+    }
+
+    /** Returns true iff P is not null and matches all of S.
+     * @param p compiled alternation, or null if empty
+     * @param s string to match */
+    private static boolean find(Pattern p, String s) {
+        return p != null && p.matcher(s).matches();
+    }
+
+    /** Returns the alternation of REGEXES, or null if there are none.
+     * @param regexes regular expressions */
+    private static Pattern combine(List<String> regexes) {
+        if (regexes.isEmpty()) {
+            return null;
+        }
+        return Pattern.compile("(?:" + String.join(")|(?:", regexes) + ")");
+    }
+
+    /** One pattern line. */
+    private static class Rule {
+
+        /** Returns the rule of LINE, or null if LINE is blank or a comment.
+         * @param line line of an ignore file */
+        static Rule parse(String line) {
+            String pattern = line.trim();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                return null;
+            }
+            Rule rule = new Rule();
+            if (pattern.startsWith("!")) {
+                rule._negated = true;
+                pattern = pattern.substring(1);
+            }
+            if (pattern.endsWith("/")) {
+                rule._dirOnly = true;
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            rule._anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (pattern.isEmpty()) {
+                return null;
+            }
+            if (!rule._anchored && !pattern.matches(".*[*?\\[].*")) {
+                rule._literal = pattern;
+            }
+            rule._regex = globToRegex(pattern);
+            rule._compiled = Pattern.compile(rule._regex);
+            return rule;
+        }
+
+        /** Returns true iff this rule matches PATH, whose last component
+         * is NAME. DIRECTORY is true iff PATH names a directory.
+         * @param path path relative to the top of the working tree
+         * @param name last component of path
+         * @param directory true for directories */
+        boolean matches(String path, String name, boolean directory) {
+            if (_dirOnly && !directory) {
+                return false;
+            }
+            return _compiled.matcher(_anchored ? path : name).matches();
+        }
+
+        /** Returns a regular expression matching what GLOB matches.
+         * @param glob pattern without leading ! or trailing / */
+        private static String globToRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < glob.length(); i += 1) {
+                char c = glob.charAt(i);
+                if (glob.startsWith("**/", i)) {
+                    regex.append("(?:.*/)?");
+                    i += 2;
+                } else if (glob.startsWith("/**", i)
+                        && i + 3 == glob.length()) {
+                    regex.append("(?:/.*)?");
+                    i += 2;
+                } else if (glob.startsWith("**", i)) {
+                    regex.append(".*");
+                    i += 1;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+                    int end = glob.indexOf(']', i + 1);
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    regex.append('[').append(set.replace("\\", "\\\\"))
+                            .append(']');
+                    i = end;
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return regex.toString();
+        }
+
+        /** True iff this rule re-includes paths. */
+        private boolean _negated;
+
+        /** True iff this rule matches only directories. */
+        private boolean _dirOnly;
+
+        /** True iff this rule matches whole paths, not last components. */
+        private boolean _anchored;
+
+        /** The name matched, if this rule is a plain name; else null. */
+        private String _literal;
+
+        /** Regular expression equivalent to this rule's pattern. */
+        private String _regex;
+
+        /** _regex, compiled. */
+        private Pattern _compiled;
+    }
+
+    /** Name of the ignore file at the top of the working tree. */
+    static final String IGNORE_FILE = ".gitletignore";
+
+    /** Patterns always in effect: the project files that lived beside
+     * the working files, at the top of the working tree, before ignore
+     * rules existed. */
+    private static final String[] DEFAULTS = {
+        "/Makefile", "/proj3.iml", ".DS_Store",
+    };
+
+    /** Rules of the current working tree, once loaded. */
+    private static IgnoreRules _current;
+
+    /** All rules, in order. */
+    private final ArrayList<Rule> _rules;
+
+    /** True iff some rule is negated, so rules must be tried in order. */
+    private boolean _negated;
+
+    /** Plain names matching files or directories. */
+    private final HashSet<String> _namesAny = new HashSet<>();
+
+    /** Plain names matching only directories. */
+    private final HashSet<String> _namesDir = new HashSet<>();
+
+    /** Unanchored patterns matching files or directories, combined. */
+    private final Pattern _basenameAny;
+
+    /** Unanchored patterns matching only directories, combined. */
+    private final Pattern _basenameDir;
+
+    /** Anchored patterns matching files or directories, combined. */
+    private final Pattern _pathAny;
+
+    /** Anchored patterns matching only directories, combined. */
+    private final Pattern _pathDir;
+}
@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The staging area of a Gitlet repository. Maps each staged file name to
+ * the SHA-1 value of its blob, which is serialized once when the file is
+ * added, and records the file names marked for removal. Stored as a single
+ * sorted binary file, .gitlet/index. While writes are deferred, as in a
+ * batch, the index is kept in memory instead and written by flush,
+ * together with the commit tree.
+ * @author Jeff Xiang
+ */
+class Index {
+
+    /** A new, empty index. */
+    Index() {
+        _staged = new TreeMap<>();
+        _removed = new TreeSet<>();
+    }
+
+    /** Reads and returns the index in .gitlet/index, or the one held in
+     * memory while writes are deferred, or an empty index if none has
+     * been written yet. */
+    static Index read() {
+        Index index = new Index();
+        File f = new File(Utils.INDEX);
+        if (_deferred == null && !f.exists()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                _deferred != null ? new ByteArrayInputStream(_deferred)
+                : (InputStream) new BufferedInputStream(
+                        new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Corrupt index file.");
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i += 1) {
+                byte flag = in.readByte();
+                String name = in.readUTF();
+                if (flag == REMOVED) {
+                    index._removed.add(name);
+                } else {
+                    index._staged.put(name, in.readUTF());
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not read index: %s", excp.getMessage());
+        }
+        return index;
+    }
+
+    /** Writes this index to .gitlet/index, or keeps it in memory until
+     * the next flush while writes are deferred. Entries are written in
+     * file name order, staged entries and removals interleaved. */
+    void write() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_staged.size() + _removed.size());
+            TreeSet<String> names = new TreeSet<>(_staged.keySet());
+            names.addAll(_removed);
+            for (String name : names) {
+                if (_removed.contains(name)) {
+                    out.writeByte(REMOVED);
+                    out.writeUTF(name);
+                } else {
+                    out.writeByte(STAGED);
+                    out.writeUTF(name);
+                    out.writeUTF(_staged.get(name));
+                }
+            }
+            out.close();
+            if (_deferring) {
+                _deferred = bytes.toByteArray();
+            } else {
+                Utils.writeAtomically(new File(Utils.INDEX),
+                        bytes.toByteArray(), false);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not write index: %s", excp.getMessage());
+        }
+    }
+
+    /** Starts keeping the index in memory, so that write only replaces
+     * that copy until the next flush. */
+    static void deferWrites() {
+        _deferring = true;
+    }
+
+    /** Durably writes the index held in memory, if it was written since
+     * the last flush. */
+    static void flush() {
+        if (_deferred != null) {
+            Utils.writeAtomically(new File(Utils.INDEX), _deferred, true);
+            _deferred = null;
+        }
+    }
+
+    /** Flushes the index held in memory and resumes writing it on every
+     * write. */
+    static void stopDeferring() {
+        flush();
+        _deferring = false;
+    }
+
+    /** Stages file NAME with blob SHA, unmarking it for removal.
+     * @param name file name
+     * @param sha SHA-1 value of the already serialized blob */
+    void stage(String name, String sha) {
+        _removed.remove(name);
+        _staged.put(name, sha);
+    }
+
+    /** Unstages file NAME, if it is staged.
+     * @param name file name */
+    void unstage(String name) {
+        _staged.remove(name);
+    }
+
+    /** Returns true iff file NAME is staged.
+     * @param name file name */
+    boolean isStaged(String name) {
+        return _staged.containsKey(name);
+    }
+
+    /** Returns the blob SHA-1 value staged for file NAME, or null.
+     * @param name file name */
+    String getStagedSHA(String name) {
+        return _staged.get(name);
+    }
+
+    /** Returns the staged file names mapped to their blob SHA-1 values,
+     * in file name order. */
+    SortedMap<String, String> getStaged() {
+        return _staged;
+    }
+
+    /** Marks file NAME for removal, unstaging it.
+     * @param name file name */
+    void markRemoved(String name) {
+        _staged.remove(name);
+        _removed.add(name);
+    }
+
+    /** Unmarks file NAME for removal.
+     * @param name file name */
+    void unmarkRemoved(String name) {
+        _removed.remove(name);
+    }
+
+    /** Returns true iff file NAME is marked for removal.
+     * @param name file name */
+    boolean isRemoved(String name) {
+        return _removed.contains(name);
+    }
+
+    /** Returns the file names marked for removal, in order. */
+    SortedSet<String> getRemoved() {
+        return _removed;
+    }
+
+    /** Returns true iff nothing is staged or marked for removal. */
+    boolean isEmpty() {
+        return _staged.isEmpty() && _removed.isEmpty();
+    }
+
+    /** Clears this index. */
+    void clear() {
+        _staged.clear();
+        _removed.clear();
+    }
+
+    /** Magic number at the start of every index file ("GLIX"). */
+    private static final int MAGIC = 0x474c4958;
+
+    /** True iff write only replaces the copy held in memory. */
+    private static boolean _deferring;
+
+    /** Serialized index written while deferring and not yet flushed, or
+     * null. */
+    private static byte[] _deferred;
+
+    /** Version of the index file format. */
+    private static final int VERSION = 1;
+
+    /** Entry flag of a staged file. */
+    private static final byte STAGED = 0;
+
+    /** Entry flag of a file marked for removal. */
+    private static final byte REMOVED = 1;
+
+    /** Staged file names, mapped to the SHA-1 values of their blobs. */
+    private final TreeMap<String, String> _staged;
+
+    /** File names marked to NOT be included in the next commit. */
+    private final TreeSet<String> _removed;
+}
@@ -0,0 +1,169 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line-level differences between two texts, by Myers' O(ND) algorithm
+ * in its linear-space form: rather than saving the furthest points of
+ * every step to trace the script back, it searches forwards from the start
+ * and backwards from the end at once, splits the texts where the two
+ * searches meet, at the middle of a shortest edit script, and diffs each
+ * half in turn. The common prefix and suffix of each part are matched
+ * first, so small edits to large files cost time proportional to the
+ * edit, not the file.
+ * @author Jeff Xiang
+ */
+class LineDiff {
+
+    /** Returns the lines of TEXT, each including its terminating newline
+     * (the last line may have none).
+     * @param text file contents */
+    static List<String> lines(String text) {
+        ArrayList<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = text.indexOf('\n'); i >= 0;
+             i = text.indexOf('\n', start)) {
+            result.add(text.substring(start, i + 1));
+            start = i + 1;
+        }
+        if (start < text.length()) {
+            result.add(text.substring(start));
+        }
+        return result;
+    }
+
+    /** Returns an array whose Jth element is the index of the line of A
+     * matched with line J of B in a shortest edit script from A to B, or
+     * -1 if line J of B was inserted.
+     * @param a old lines
+     * @param b new lines */
+    static int[] match(List<String> a, List<String> b) {
+        int[] result = new int[b.size()];
+        Arrays.fill(result, -1);
+        diff(a, 0, a.size(), b, 0, b.size(), result);
+        return result;
+    }
+
+    /** Records in RESULT the matches of a shortest edit script from lines
+     * ALO .. AHI-1 of A to lines BLO .. BHI-1 of B.
+     * @param a old lines
+     * @param alo first old line
+     * @param ahi end of old lines
+     * @param b new lines
+     * @param blo first new line
+     * @param bhi end of new lines
+     * @param result match array being filled in */
+    private static void diff(List<String> a, int alo, int ahi,
+                             List<String> b, int blo, int bhi,
+                             int[] result) {
+        while (alo < ahi && blo < bhi && a.get(alo).equals(b.get(blo))) {
+            result[blo] = alo;
+            alo += 1;
+            blo += 1;
+        }
+        while (alo < ahi && blo < bhi
+               && a.get(ahi - 1).equals(b.get(bhi - 1))) {
+            ahi -= 1;
+            bhi -= 1;
+            result[bhi] = ahi;
+        }
+        if (alo == ahi || blo == bhi) {
+            return;
+        }
+        int[] split = middle(a, alo, ahi, b, blo, bhi);
+        if (split != null) {
+            diff(a, alo, alo + split[0], b, blo, blo + split[1], result);
+            diff(a, alo + split[0], ahi, b, blo + split[1], bhi, result);
+        }
+    }
+
+    /** Returns the point, relative to (ALO, BLO), at which a shortest edit
+     * script from lines ALO .. AHI-1 of A to lines BLO .. BHI-1 of B is
+     * split in two: where the furthest-reaching forward path of half its
+     * length meets the backward one. Returns null if the lines have
+     * nothing in common. The first and last lines must differ.
+     * @param a old lines
+     * @param alo first old line
+     * @param ahi end of old lines
+     * @param b new lines
+     * @param blo first new line
+     * @param bhi end of new lines */
+    private static int[] middle(List<String> a, int alo, int ahi,
+                                List<String> b, int blo, int bhi) {
+        int n = ahi - alo, m = bhi - blo;
+        int max = (n + m + 1) / 2;
+        int[] forward = new int[2 * max + 2];
+        int[] backward = new int[2 * max + 2];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[max + 1] = 0;
+        backward[max + 1] = 0;
+        int delta = n - m;
+        boolean odd = delta % 2 != 0;
+        int fstart = 0, fend = 0, bstart = 0, bend = 0;
+        for (int d = 0; d < max; d += 1) {
+            for (int k = -d + fstart; k <= d - fend; k += 2) {
+                int x = furthest(forward, max + k, k, d);
+                int y = x - k;
+                while (x < n && y < m
+                       && a.get(alo + x).equals(b.get(blo + y))) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[max + k] = x;
+                if (x > n) {
+                    fend += 2;
+                } else if (y > m) {
+                    fstart += 2;
+                } else if (odd) {
+                    int other = max + delta - k;
+                    if (other >= 0 && other < backward.length
+                            && backward[other] != -1
+                            && x >= n - backward[other]) {
+                        return new int[] {x, y};
+                    }
+                }
+            }
+            for (int k = -d + bstart; k <= d - bend; k += 2) {
+                int x = furthest(backward, max + k, k, d);
+                int y = x - k;
+                while (x < n && y < m && a.get(ahi - x - 1)
+                       .equals(b.get(bhi - y - 1))) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[max + k] = x;
+                if (x > n) {
+                    bend += 2;
+                } else if (y > m) {
+                    bstart += 2;
+                } else if (!odd) {
+                    int other = max + delta - k;
+                    if (other >= 0 && other < forward.length
+                            && forward[other] != -1
+                            && forward[other] >= n - x) {
+                        int fx = forward[other];
+                        return new int[] {fx, fx - delta + k};
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the x coordinate from which a path of D steps on diagonal
+     * K continues: one step down from diagonal K+1 or right from K-1,
+     * whichever reached further, where V[I] is the furthest point of
+     * diagonal K.
+     * @param v furthest points of the paths of D-1 steps
+     * @param i position of diagonal K in V
+     * @param k diagonal
+     * @param d number of steps */
+    private static int furthest(int[] v, int i, int k, int d) {
+        if (k == -d || (k != d && v[i - 1] < v[i + 1])) {
+            return v[i + 1];
+        }
+        return v[i - 1] + 1;
+    }
+}
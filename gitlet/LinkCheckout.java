@@ -0,0 +1,169 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+
+/** Checkout by linking working files to stored contents rather than
+ * copying them, turned on by setting core.checkoutMode to "hardlink" or
+ * "reflink" (the default is "copy"). The contents of each blob linked
+ * are kept once, raw and read-only, in .gitlet/raw, filed like loose
+ * objects; checking a blob out again then only reads it, writing nothing
+ * but a link. A hardlinked working file is that same read-only file, so
+ * it should not be changed in place: unlock replaces it with a private
+ * writable copy, and gitlet itself always replaces, never writes through,
+ * a linked file. Since root, or a tool that makes a file writable first,
+ * can still write through a link, a raw file is checked against its blob
+ * before each use, and stored afresh if it no longer matches. A
+ * reflink is a copy-on-write clone, writable at once, made by cp where
+ * the file system supports it. Blobs smaller than core.linkThreshold
+ * bytes (default 16384) are copied, as is everything once linking
+ * fails, e.g. across file systems. .gitlet/raw may be deleted at any
+ * time; working files already linked keep their contents.
+ * @author Jeff Xiang
+ */
+class LinkCheckout {
+
+    /** Makes the working file F hold the contents of BLOB by linking it
+     * to them, replacing whatever F was, and returns true; or returns
+     * false, changing nothing, if F should be copied instead.
+     * @param f working file
+     * @param blob blob to check out */
+    static boolean link(File f, Blob blob) {
+        String mode = Config.get(MODE, COPY);
+        if (_failed || !(mode.equals(HARDLINK) || mode.equals(REFLINK))
+                || (blob.getChunks().isEmpty()
+                    && blob.getContents().length
+                       < Config.getInt(THRESHOLD, DEFAULT_THRESHOLD))) {
+            return false;
+        }
+        File raw = raw(blob.getSHA());
+        try {
+            if (!isIntact(raw, blob)) {
+                store(raw, blob);
+            }
+            Files.deleteIfExists(f.toPath());
+            if (mode.equals(HARDLINK)) {
+                Files.createLink(f.toPath(), raw.toPath());
+                return true;
+            }
+            Process cp = new ProcessBuilder("cp", "--reflink=always",
+                    raw.getPath(), f.getPath())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            if (cp.waitFor() == 0 && f.setWritable(true)) {
+                return true;
+            }
+        } catch (IOException | UnsupportedOperationException excp) {
+            /* Fall through to copying. */
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        _failed = true;
+        f.delete();
+        return false;
+    }
+
+    /** Returns true iff the working file F shares its contents with
+     * another file, such as a hardlink into .gitlet/raw.
+     * @param f working file */
+    static boolean isLinked(File f) {
+        try {
+            Object links = Files.getAttribute(f.toPath(), "unix:nlink",
+                    LinkOption.NOFOLLOW_LINKS);
+            return links instanceof Integer && (Integer) links > 1;
+        } catch (IOException | UnsupportedOperationException
+                 | IllegalArgumentException excp) {
+            return false;
+        }
+    }
+
+    /** Replaces the working file F, if it is linked or read-only, with a
+     * private writable copy of its contents, and returns true iff it did.
+     * @param f working file */
+    static boolean unlock(File f) {
+        if (!f.isFile() || (!isLinked(f) && f.canWrite())) {
+            return false;
+        }
+        File tmp = Utils.writeTemporary(
+                f.getAbsoluteFile().getParentFile(), new byte[0]);
+        try {
+            Files.copy(f.toPath(), tmp.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw Utils.error("Could not unlock %s: %s", f.getPath(),
+                    excp.getMessage());
+        }
+        tmp.setWritable(true);
+        Utils.rename(tmp, f);
+        return true;
+    }
+
+    /** Returns true iff RAW exists and still holds the contents of BLOB:
+     * it is read-only, of the right size, and hashes to BLOB's id.
+     * @param raw file of raw contents
+     * @param blob blob checked out */
+    private static boolean isIntact(File raw, Blob blob) throws IOException {
+        if (!raw.isFile() || raw.canWrite() || raw.length() != blob.size()) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(raw)) {
+            return Hashing.objects().start().update(in)
+                    .update(blob.getName()).hex().equals(blob.getSHA());
+        }
+    }
+
+    /** Writes the contents of BLOB to RAW, durably and read-only,
+     * replacing any earlier copy.
+     * @param raw file of raw contents
+     * @param blob blob to write */
+    private static void store(File raw, Blob blob) throws IOException {
+        File tmp = Utils.writeTemporary(new byte[0]);
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(tmp))) {
+            blob.writeTo(out);
+        }
+        Utils.fsync(tmp);
+        tmp.setReadOnly();
+        raw.getParentFile().mkdirs();
+        Utils.rename(tmp, raw);
+    }
+
+    /** Returns the file of the raw contents of the blob with id SHA.
+     * @param sha blob id */
+    private static File raw(String sha) {
+        return Utils.join(RAW, sha.substring(0, 2), sha.substring(2));
+    }
+
+    /** Key of the checkout mode: copy, hardlink or reflink. */
+    static final String MODE = "core.checkoutMode";
+
+    /** Key of the size, in bytes, from which blobs are linked. */
+    static final String THRESHOLD = "core.linkThreshold";
+
+    /** Mode copying every file. */
+    static final String COPY = "copy";
+
+    /** Mode hardlinking files into .gitlet/raw. */
+    static final String HARDLINK = "hardlink";
+
+    /** Mode cloning files from .gitlet/raw. */
+    static final String REFLINK = "reflink";
+
+    /** Link threshold when none is configured. */
+    private static final int DEFAULT_THRESHOLD = 16384;
+
+    /** Directory of raw blob contents. */
+    private static final String RAW = ".gitlet/raw";
+
+    /** True once linking has failed in this process. */
+    private static boolean _failed;
+}
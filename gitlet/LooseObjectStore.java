@@ -0,0 +1,197 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/** An object store keeping each object in its own file, named by the
+ * rest of its id, in a subdirectory named by the id's first two digits,
+ * so that no directory grows past a few thousand entries. Objects written
+ * before the subdirectories existed sit directly in the store's directory
+ * and are still found there.
+ * @author Jeff Xiang
+ */
+class LooseObjectStore implements ObjectStore {
+
+    /** A store of the object files in DIR, whose temporary files go in
+     * TMPDIR, which must be on the same file system.
+     * @param dir object directory
+     * @param tmpdir directory for temporary files */
+    LooseObjectStore(File dir, File tmpdir) {
+        _dir = dir;
+        _tmpdir = tmpdir;
+    }
+
+    @Override
+    public boolean has(String id) {
+        return fanout(id).isFile() || new File(_dir, id).isFile();
+    }
+
+    @Override
+    public byte[] get(String id) {
+        File f = find(id);
+        if (f == null) {
+            throw Utils.error("Missing object %s.", id);
+        }
+        return Utils.readContents(f);
+    }
+
+    @Override
+    public void put(String id, byte[] contents) {
+        if (!has(id)) {
+            File f = fanout(id);
+            f.getParentFile().mkdirs();
+            Utils.writeAtomically(f, contents, false, _tmpdir);
+        }
+    }
+
+    @Override
+    public ObjectStore.Batch batch() {
+        WriteBatch writes = new WriteBatch(_tmpdir);
+        return new ObjectStore.Batch() {
+            @Override
+            public void put(String id, byte[] contents) {
+                if (!has(id)) {
+                    File f = fanout(id);
+                    f.getParentFile().mkdirs();
+                    writes.add(f, contents);
+                }
+            }
+
+            @Override
+            public void sync(String id) {
+                File f = find(id);
+                if (f != null) {
+                    writes.addExisting(f);
+                }
+            }
+
+            @Override
+            public int size() {
+                return writes.size();
+            }
+
+            @Override
+            public void flush() {
+                writes.flush();
+            }
+        };
+    }
+
+    @Override
+    public Iterable<String> ids() {
+        ArrayList<String> result = new ArrayList<>();
+        String[] names = _dir.list();
+        if (names == null) {
+            return result;
+        }
+        for (String name : names) {
+            if (!isHex(name)) {
+                continue;
+            }
+            if (name.length() != FANOUT) {
+                result.add(name);
+                continue;
+            }
+            String[] rest = new File(_dir, name).list();
+            if (rest != null) {
+                for (String tail : rest) {
+                    if (isHex(tail)) {
+                        result.add(name + tail);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids of the stored objects that start with PREFIX,
+     * listing only the fanout directory they would be in, and the
+     * objects written before there were any, when PREFIX names one.
+     * @param prefix start of an id */
+    @Override
+    public List<String> withPrefix(String prefix) {
+        if (prefix.length() < FANOUT) {
+            return ObjectStore.super.withPrefix(prefix);
+        }
+        ArrayList<String> result = new ArrayList<>();
+        if (!isHex(prefix)) {
+            return result;
+        }
+        String dir = prefix.substring(0, FANOUT);
+        String[] rest = new File(_dir, dir).list();
+        if (rest != null) {
+            for (String tail : rest) {
+                if (isHex(tail) && (dir + tail).startsWith(prefix)) {
+                    result.add(dir + tail);
+                }
+            }
+        }
+        String[] names = _dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() != FANOUT && isHex(name)
+                        && name.startsWith(prefix)) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Removes object ID, if it is stored loose, and its fanout directory
+     * if that is left empty.
+     * @param id object id */
+    void remove(String id) {
+        File f = fanout(id);
+        f.delete();
+        f.getParentFile().delete();
+        new File(_dir, id).delete();
+    }
+
+    /** Returns the file of object ID, or null if it is not stored.
+     * @param id object id */
+    File find(String id) {
+        File f = fanout(id);
+        if (f.isFile()) {
+            return f;
+        }
+        f = new File(_dir, id);
+        return f.isFile() ? f : null;
+    }
+
+    /** Returns the file in which object ID is written.
+     * @param id object id */
+    private File fanout(String id) {
+        return Utils.join(_dir, id.substring(0, FANOUT),
+                id.substring(FANOUT));
+    }
+
+    /** Returns true iff NAME is a nonempty string of lower-case
+     * hexadecimal digits, and so may name an object or fanout directory.
+     * @param name file name */
+    private static boolean isHex(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            if (Character.digit(name.charAt(i), HEX) < 0
+                    || Character.isUpperCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Number of id digits naming a fanout directory. */
+    private static final int FANOUT = 2;
+
+    /** Radix of ids. */
+    private static final int HEX = 16;
+
+    /** Directory of object files. */
+    private final File _dir;
+
+    /** Directory of temporary files. */
+    private final File _tmpdir;
+}
@@ -0,0 +1,69 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/** An object store held entirely in memory, for tests and benchmarks
+ * that should not touch the disk. Nothing in it survives the process.
+ * @author Jeff Xiang
+ */
+class MemoryObjectStore implements ObjectStore {
+
+    @Override
+    public boolean has(String id) {
+        return _objects.containsKey(id);
+    }
+
+    @Override
+    public byte[] get(String id) {
+        byte[] result = _objects.get(id);
+        if (result == null) {
+            throw Utils.error("Missing object %s.", id);
+        }
+        return result;
+    }
+
+    @Override
+    public void put(String id, byte[] contents) {
+        _objects.putIfAbsent(id, contents);
+    }
+
+    @Override
+    public ObjectStore.Batch batch() {
+        HashMap<String, byte[]> pending = new HashMap<>();
+        return new ObjectStore.Batch() {
+            @Override
+            public void put(String id, byte[] contents) {
+                pending.putIfAbsent(id, contents);
+            }
+
+            @Override
+            public void sync(String id) {
+            }
+
+            @Override
+            public int size() {
+                return pending.size();
+            }
+
+            @Override
+            public void flush() {
+                pending.forEach(_objects::putIfAbsent);
+                pending.clear();
+            }
+        };
+    }
+
+    @Override
+    public Iterable<String> ids() {
+        return new ArrayList<>(_objects.keySet());
+    }
+
+    /** Returns the number of objects stored. */
+    int size() {
+        return _objects.size();
+    }
+
+    /** Stored objects, keyed by id. */
+    private final HashMap<String, byte[]> _objects = new HashMap<>();
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/** A merge join of sorted sequences of names, such as the working tree's
+ * files, the staged files and a commit's files: it steps through every
+ * name in any of the sequences once, in order, noting which sequences
+ * hold it. Each step compares only the next name of each sequence, so a
+ * join takes time linear in the sequences' total length and keeps one
+ * name per sequence, where looking each name up in every other sequence
+ * would need them all as sets.
+ * @author Jeff Xiang
+ */
+class MergeJoin {
+
+    /** A join of SOURCES, each sorted in increasing order without
+     * duplicates.
+     * @param sources sorted names */
+    @SafeVarargs
+    MergeJoin(Iterable<String>... sources) {
+        _sources = new ArrayList<>();
+        _heads = new String[sources.length];
+        _in = new boolean[sources.length];
+        for (int k = 0; k < sources.length; k += 1) {
+            _sources.add(sources[k].iterator());
+            advance(k);
+        }
+    }
+
+    /** Moves to the next name, returning false if there is none. */
+    boolean next() {
+        _name = null;
+        for (String head : _heads) {
+            if (head != null && (_name == null || head.compareTo(_name) < 0)) {
+                _name = head;
+            }
+        }
+        for (int k = 0; k < _heads.length; k += 1) {
+            _in[k] = _name != null && _name.equals(_heads[k]);
+            if (_in[k]) {
+                advance(k);
+            }
+        }
+        return _name != null;
+    }
+
+    /** Returns the current name. */
+    String name() {
+        return _name;
+    }
+
+    /** Returns true iff sequence K holds the current name.
+     * @param k position of the sequence among those joined */
+    boolean in(int k) {
+        return _in[k];
+    }
+
+    /** Takes the next name of sequence K, or null at its end.
+     * @param k position of the sequence */
+    private void advance(int k) {
+        Iterator<String> source = _sources.get(k);
+        String prev = _heads[k];
+        _heads[k] = source.hasNext() ? source.next() : null;
+        if (prev != null && _heads[k] != null
+                && _heads[k].compareTo(prev) <= 0) {
+            throw Utils.error("Unsorted names at %s.", _heads[k]);
+        }
+    }
+
+    /** The sequences joined. */
+    private final ArrayList<Iterator<String>> _sources;
+
+    /** Next name of each sequence, or null at its end. */
+    private final String[] _heads;
+
+    /** Whether each sequence holds the current name. */
+    private final boolean[] _in;
+
+    /** Current name, or null. */
+    private String _name;
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Storage of the objects of a repository (serialized commits and blobs,
+ * and the chunks of large blobs) as byte arrays keyed by their ids.
+ * Everything that reads or writes objects goes through this interface,
+ * so how they are kept is up to the implementation: loose files, packs,
+ * or memory.
+ * @author Jeff Xiang
+ */
+interface ObjectStore {
+
+    /** A group of writes made durable together. */
+    interface Batch {
+
+        /** Adds the write of object ID with CONTENTS, unless it is
+         * already stored. It need not be visible before flush.
+         * @param id object id
+         * @param contents stored bytes */
+        void put(String id, byte[] contents);
+
+        /** Adds the already stored object ID, so that flush makes it
+         * durable along with the new ones.
+         * @param id object id */
+        void sync(String id);
+
+        /** Returns the number of objects added since the last flush. */
+        int size();
+
+        /** Stores and makes durable everything added. */
+        void flush();
+    }
+
+    /** Returns true iff object ID is stored.
+     * @param id object id */
+    boolean has(String id);
+
+    /** Returns the contents of object ID, or throws a GitletException if
+     * it is not stored.
+     * @param id object id */
+    byte[] get(String id);
+
+    /** Stores object ID with CONTENTS, unless it is already stored. The
+     * write need not be durable.
+     * @param id object id
+     * @param contents stored bytes */
+    void put(String id, byte[] contents);
+
+    /** Returns a new, empty batch of writes to this store. */
+    Batch batch();
+
+    /** Returns the ids of all stored objects, in no particular order. */
+    Iterable<String> ids();
+
+    /** Returns the ids of the stored objects that start with PREFIX.
+     * @param prefix start of an id */
+    default List<String> withPrefix(String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        for (String id : ids()) {
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the store of the repository whose .gitlet directory is
+     * GITLETDIR: its packs, if any, over its loose objects.
+     * @param gitletDir .gitlet directory */
+    static ObjectStore open(File gitletDir) {
+        ObjectStore loose = new LooseObjectStore(
+                new File(gitletDir, "serialized"), new File(gitletDir, "tmp"));
+        File packs = new File(gitletDir, "packs");
+        if (!packs.isDirectory()) {
+            return loose;
+        }
+        return new PackObjectStore(packs, loose);
+    }
+}
@@ -0,0 +1,378 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/** An object store that reads objects from packs, each a single file of
+ * many objects with an index sorted by id, and keeps new objects in a
+ * loose store beneath it. Looking an object up in a pack is a binary
+ * search of its mapped index and one read, with no file opened per
+ * object. A pack counts only once its index exists; the index is written
+ * last. Pack format:
+ * <pre>
+ * NAME.pack  MAGIC  contents...
+ * NAME.idx   MAGIC  id-length  count  (id offset length)*  sorted by id
+ * </pre>
+ * @author Jeff Xiang
+ */
+class PackObjectStore implements ObjectStore {
+
+    /** A store of the packs in PACKDIR over the loose objects of LOOSE.
+     * @param packDir pack directory
+     * @param loose store of objects not in packs */
+    PackObjectStore(File packDir, ObjectStore loose) {
+        _loose = loose;
+        _packs = new ArrayList<>();
+        String[] names = packDir.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                if (name.endsWith(INDEX)) {
+                    _packs.add(new Pack(packDir, name.substring(0,
+                            name.length() - INDEX.length())));
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean has(String id) {
+        for (Pack pack : _packs) {
+            if (pack.find(id) >= 0) {
+                return true;
+            }
+        }
+        return _loose.has(id);
+    }
+
+    @Override
+    public byte[] get(String id) {
+        for (Pack pack : _packs) {
+            int k = pack.find(id);
+            if (k >= 0) {
+                return pack.read(k);
+            }
+        }
+        return _loose.get(id);
+    }
+
+    @Override
+    public void put(String id, byte[] contents) {
+        if (!has(id)) {
+            _loose.put(id, contents);
+        }
+    }
+
+    @Override
+    public ObjectStore.Batch batch() {
+        ObjectStore.Batch loose = _loose.batch();
+        return new ObjectStore.Batch() {
+            @Override
+            public void put(String id, byte[] contents) {
+                if (!has(id)) {
+                    loose.put(id, contents);
+                }
+            }
+
+            @Override
+            public void sync(String id) {
+                loose.sync(id);
+            }
+
+            @Override
+            public int size() {
+                return loose.size();
+            }
+
+            @Override
+            public void flush() {
+                loose.flush();
+            }
+        };
+    }
+
+    @Override
+    public Iterable<String> ids() {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (Pack pack : _packs) {
+            for (int k = 0; k < pack._count; k += 1) {
+                result.add(pack.id(k));
+            }
+        }
+        for (String id : _loose.ids()) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    /** Returns the ids of the stored objects that start with PREFIX,
+     * found by binary search of each pack index and then among the loose
+     * objects.
+     * @param prefix start of an id */
+    @Override
+    public List<String> withPrefix(String prefix) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (Pack pack : _packs) {
+            for (int k = pack.first(prefix); k < pack._count; k += 1) {
+                String id = pack.id(k);
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                result.add(id);
+            }
+        }
+        result.addAll(_loose.withPrefix(prefix));
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the names of the packs read. */
+    List<String> getPackNames() {
+        ArrayList<String> result = new ArrayList<>();
+        for (Pack pack : _packs) {
+            result.add(pack._name);
+        }
+        return result;
+    }
+
+    /** Durably writes objects IDS of SOURCE as a new pack in PACKDIR,
+     * using TMPDIR for temporary files, and returns its name.
+     * @param packDir pack directory
+     * @param tmpdir directory for temporary files
+     * @param source store holding the objects
+     * @param ids ids of the objects to pack */
+    static String write(File packDir, File tmpdir, ObjectStore source,
+                        Collection<String> ids) {
+        String[] sorted = ids.toArray(new String[0]);
+        Arrays.sort(sorted);
+        String name = "pack-" + Utils.objectId(String.join("", sorted));
+        int idlength = Hashing.objects().hexLength() / 2;
+        packDir.mkdirs();
+        tmpdir.mkdirs();
+        try {
+            File pack = File.createTempFile("tmp_", null, tmpdir);
+            long[] offsets = new long[sorted.length];
+            int[] lengths = new int[sorted.length];
+            long offset = Integer.BYTES;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(pack),
+                            BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                for (int k = 0; k < sorted.length; k += 1) {
+                    byte[] contents = source.get(sorted[k]);
+                    offsets[k] = offset;
+                    lengths[k] = contents.length;
+                    out.write(contents);
+                    offset += contents.length;
+                }
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(bytes);
+            index.writeInt(MAGIC);
+            index.writeByte(idlength);
+            index.writeInt(sorted.length);
+            for (int k = 0; k < sorted.length; k += 1) {
+                index.write(Hashing.unhex(sorted[k]));
+                index.writeLong(offsets[k]);
+                index.writeInt(lengths[k]);
+            }
+            Utils.fsync(pack);
+            Utils.rename(pack, new File(packDir, name + PACK));
+            Utils.writeAtomically(new File(packDir, name + INDEX),
+                    bytes.toByteArray(), true, tmpdir);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write pack: %s", excp.getMessage());
+        }
+        return name;
+    }
+
+    /** Deletes pack NAME from PACKDIR, its index first.
+     * @param packDir pack directory
+     * @param name pack name */
+    static void delete(File packDir, String name) {
+        new File(packDir, name + INDEX).delete();
+        new File(packDir, name + PACK).delete();
+    }
+
+    /** One pack and its mapped index. */
+    private static class Pack {
+
+        /** The pack NAME in DIR.
+         * @param dir pack directory
+         * @param name pack name, without extension */
+        Pack(File dir, String name) {
+            _name = name;
+            _file = new File(dir, name + PACK);
+            try (FileChannel channel = FileChannel.open(
+                    new File(dir, name + INDEX).toPath(),
+                    StandardOpenOption.READ)) {
+                _index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (IOException excp) {
+                throw Utils.error("Could not read pack index: %s",
+                        excp.getMessage());
+            }
+            if (_index.getInt(0) != MAGIC) {
+                throw Utils.error("Corrupt pack index.");
+            }
+            _idlength = _index.get(Integer.BYTES) & BYTE_MASK;
+            _count = _index.getInt(Integer.BYTES + 1);
+            _entrySize = _idlength + Long.BYTES + Integer.BYTES;
+        }
+
+        /** Returns the position of object ID in my index, or -1 if I do
+         * not hold it.
+         * @param id object id */
+        int find(String id) {
+            if (id.length() != 2 * _idlength) {
+                return -1;
+            }
+            byte[] key = Hashing.unhex(id);
+            if (!Hashing.hex(key).equals(id)) {
+                return -1;
+            }
+            int lo = 0, hi = _count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compare(mid, key);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        /** Returns the position of the first entry of my index whose id
+         * is not less than PREFIX, or my count if there is none. Ids are
+         * sorted by their bytes, which is also the order of their
+         * hexadecimal numerals.
+         * @param prefix start of an id */
+        int first(String prefix) {
+            int lo = 0, hi = _count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (id(mid).compareTo(prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /** Compares the id of entry K with KEY, as unsigned bytes.
+         * @param k entry position
+         * @param key binary id */
+        private int compare(int k, byte[] key) {
+            int start = entry(k);
+            for (int i = 0; i < _idlength; i += 1) {
+                int cmp = Integer.compare(_index.get(start + i) & BYTE_MASK,
+                        key[i] & BYTE_MASK);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        /** Returns the id of entry K.
+         * @param k entry position */
+        String id(int k) {
+            byte[] id = new byte[_idlength];
+            _index.get(entry(k), id);
+            return Hashing.hex(id);
+        }
+
+        /** Returns the contents of entry K.
+         * @param k entry position */
+        byte[] read(int k) {
+            int start = entry(k) + _idlength;
+            long offset = _index.getLong(start);
+            ByteBuffer result = ByteBuffer.allocate(
+                    _index.getInt(start + Long.BYTES));
+            try {
+                if (_channel == null) {
+                    _channel = FileChannel.open(_file.toPath(),
+                            StandardOpenOption.READ);
+                }
+                while (result.hasRemaining()) {
+                    if (_channel.read(result, offset + result.position())
+                            < 0) {
+                        throw Utils.error("Truncated pack %s.", _name);
+                    }
+                }
+            } catch (IOException excp) {
+                throw Utils.error("Could not read pack: %s",
+                        excp.getMessage());
+            }
+            return result.array();
+        }
+
+        /** Returns the position in my index of entry K.
+         * @param k entry position */
+        private int entry(int k) {
+            return HEADER_SIZE + k * _entrySize;
+        }
+
+        /** Name of this pack. */
+        private final String _name;
+
+        /** Pack file. */
+        private final File _file;
+
+        /** Mapped index. */
+        private final MappedByteBuffer _index;
+
+        /** Length of a binary id. */
+        private final int _idlength;
+
+        /** Number of objects. */
+        private final int _count;
+
+        /** Size of an index entry. */
+        private final int _entrySize;
+
+        /** Pack file, once opened. */
+        private FileChannel _channel;
+    }
+
+    /** Extension of pack files. */
+    static final String PACK = ".pack";
+
+    /** Extension of pack index files. */
+    static final String INDEX = ".idx";
+
+    /** Magic number of packs and their indices ("GLPK"). */
+    private static final int MAGIC = 0x474c504b;
+
+    /** Size of an index header: magic, id length, count. */
+    private static final int HEADER_SIZE = Integer.BYTES + 1 + Integer.BYTES;
+
+    /** Mask of the low eight bits of an int. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Size of the pack output buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Store of objects not in packs. */
+    private final ObjectStore _loose;
+
+    /** Packs read, in name order. */
+    private final ArrayList<Pack> _packs;
+}
@@ -0,0 +1,380 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/** The branches of a repository, mapped to the SHA-1 values of their head
+ * commits. Most live in .gitlet/packed-refs, one line per branch sorted by
+ * name,
+ * <pre>
+ * SHA NAME
+ * </pre>
+ * which is mapped and binary searched, so finding one branch, or the
+ * branches starting with a prefix, reads a few lines however many there
+ * are. Changing a branch writes only its own file in .gitlet/refs, named
+ * by the encoded branch name and holding its SHA-1 value, or "-" if a
+ * packed branch was removed; these loose refs override packed-refs until
+ * pack() folds them in, which update() does once they grow many.
+ * @author Jeff Xiang
+ */
+class RefStore {
+
+    /** The branches of the repository whose .gitlet directory is
+     * GITLETDIR.
+     * @param gitletDir .gitlet directory */
+    RefStore(File gitletDir) {
+        _packedFile = new File(gitletDir, PACKED);
+        _looseDir = new File(gitletDir, LOOSE);
+        _tmpdir = new File(gitletDir, "tmp");
+    }
+
+    /** Returns the SHA-1 value of the head of branch NAME, or null if
+     * there is no such branch.
+     * @param name branch name */
+    String get(String name) {
+        File f = loose(name);
+        if (f.isFile()) {
+            String sha = Utils.readContentsAsString(f).trim();
+            return sha.equals(DELETED) ? null : sha;
+        }
+        long k = lowerBound(name);
+        if (k < packed().limit() && name.equals(nameAt(k))) {
+            return shaAt(k);
+        }
+        return null;
+    }
+
+    /** Durably applies CHANGES, branch names mapped to their new SHA-1
+     * values or to null for branches to remove, writing one loose ref
+     * per change. Once there are more than AUTO_PACK loose refs, they
+     * are packed, so listing them stays cheap.
+     * @param changes branch names mapped to SHA-1 values or null */
+    void update(Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        _looseDir.mkdirs();
+        WriteBatch writes = new WriteBatch(_tmpdir);
+        ArrayList<File> removed = new ArrayList<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String name = change.getKey();
+            String sha = change.getValue();
+            if (sha == null && !isPacked(name)) {
+                removed.add(loose(name));
+            } else {
+                writes.add(loose(name), (sha == null ? DELETED : sha)
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        writes.flush();
+        for (File f : removed) {
+            f.delete();
+        }
+        String[] loose = _looseDir.list();
+        if (loose != null && loose.length > AUTO_PACK) {
+            pack();
+        }
+    }
+
+    /** Calls ACTION on each branch whose name starts with PREFIX and its
+     * SHA-1 value, in order of name. Only the packed branches with that
+     * prefix are read.
+     * @param prefix start of the branch names
+     * @param action called with each name and SHA-1 value */
+    void forEach(String prefix, BiConsumer<String, String> action) {
+        TreeMap<String, String> loose = looseRefs(prefix);
+        ByteBuffer packed = packed();
+        for (long k = lowerBound(prefix); k < packed.limit();
+             k = nextLine(k)) {
+            String name = nameAt(k);
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+            while (!loose.isEmpty() && loose.firstKey().compareTo(name) < 0) {
+                accept(loose.pollFirstEntry(), action);
+            }
+            String sha = loose.containsKey(name) ? loose.remove(name)
+                    : shaAt(k);
+            if (!sha.equals(DELETED)) {
+                action.accept(name, sha);
+            }
+        }
+        while (!loose.isEmpty()) {
+            accept(loose.pollFirstEntry(), action);
+        }
+    }
+
+    /** Calls ACTION on the name and SHA-1 value of the loose ref REF,
+     * unless it marks a removal.
+     * @param ref loose branch name and value
+     * @param action called with the name and SHA-1 value */
+    private static void accept(Map.Entry<String, String> ref,
+                               BiConsumer<String, String> action) {
+        if (!ref.getValue().equals(DELETED)) {
+            action.accept(ref.getKey(), ref.getValue());
+        }
+    }
+
+    /** Folds the loose refs into packed-refs, durably, and removes them.
+     * Returns the number of branches packed. */
+    int pack() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] count = new int[1];
+        forEach("", (name, sha) -> {
+            byte[] line = (sha + " " + name + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+            out.write(line, 0, line.length);
+            count[0] += 1;
+        });
+        Utils.writeAtomically(_packedFile, out.toByteArray(), true, _tmpdir);
+        _packed = null;
+        String[] names = _looseDir.list();
+        if (names != null) {
+            for (String name : names) {
+                new File(_looseDir, name).delete();
+            }
+        }
+        return count[0];
+    }
+
+    /** Returns true iff branch NAME is in packed-refs, whether or not a
+     * loose ref overrides it.
+     * @param name branch name */
+    private boolean isPacked(String name) {
+        long k = lowerBound(name);
+        return k < packed().limit() && name.equals(nameAt(k));
+    }
+
+    /** Returns the loose refs whose names start with PREFIX, mapped to
+     * their contents, in order of name.
+     * @param prefix start of the branch names */
+    private TreeMap<String, String> looseRefs(String prefix) {
+        TreeMap<String, String> result = new TreeMap<>();
+        String[] files = _looseDir.list();
+        if (files != null) {
+            for (String file : files) {
+                String name = decode(file);
+                if (name != null && name.startsWith(prefix)) {
+                    result.put(name, Utils.readContentsAsString(
+                            new File(_looseDir, file)).trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the position of the first line of packed-refs whose name
+     * is not less than KEY, or its length if there is none. Each probe
+     * backs up from the middle of the range to the start of its line.
+     * @param key branch name */
+    private long lowerBound(String key) {
+        ByteBuffer packed = packed();
+        long lo = 0, hi = packed.limit();
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            long start = mid;
+            while (start > lo && packed.get((int) start - 1) != '\n') {
+                start -= 1;
+            }
+            if (nameAt(start).compareTo(key) < 0) {
+                lo = nextLine(start);
+            } else {
+                hi = start;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the position of the line after the one starting at K.
+     * @param k start of a line of packed-refs */
+    private long nextLine(long k) {
+        ByteBuffer packed = packed();
+        while (k < packed.limit() && packed.get((int) k) != '\n') {
+            k += 1;
+        }
+        return k + 1;
+    }
+
+    /** Returns the SHA-1 value on the line of packed-refs starting at K.
+     * @param k start of a line */
+    private String shaAt(long k) {
+        return text(k, space(k));
+    }
+
+    /** Returns the branch name on the line of packed-refs starting at K.
+     * @param k start of a line */
+    private String nameAt(long k) {
+        return text(space(k) + 1, nextLine(k) - 1);
+    }
+
+    /** Returns the position of the space ending the SHA-1 value on the
+     * line of packed-refs starting at K.
+     * @param k start of a line */
+    private long space(long k) {
+        ByteBuffer packed = packed();
+        while (packed.get((int) k) != ' ') {
+            k += 1;
+        }
+        return k;
+    }
+
+    /** Returns the text of packed-refs from START to END.
+     * @param start first position
+     * @param end position after the last */
+    private String text(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        ByteBuffer packed = packed();
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = packed.get((int) start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns packed-refs, mapped on first use; it is empty if there is
+     * no such file. */
+    private ByteBuffer packed() {
+        if (_packed == null) {
+            if (!_packedFile.isFile()) {
+                _packed = ByteBuffer.allocate(0);
+                return _packed;
+            }
+            try (FileChannel channel = FileChannel.open(
+                    _packedFile.toPath(), StandardOpenOption.READ)) {
+                _packed = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (IOException excp) {
+                throw Utils.error("Could not read packed refs: %s",
+                        excp.getMessage());
+            }
+        }
+        return _packed;
+    }
+
+    /** Returns the loose ref file of branch NAME.
+     * @param name branch name */
+    private File loose(String name) {
+        return new File(_looseDir, encode(name));
+    }
+
+    /** Returns branch NAME encoded as a single file name: URL-encoded,
+     * so that it has no separators, and with a leading '.' escaped too,
+     * so that it is never "." or "..".
+     * @param name branch name */
+    static String encode(String name) {
+        try {
+            String result = URLEncoder.encode(name, "UTF-8");
+            return result.startsWith(".") ? "%2E" + result.substring(1)
+                    : result;
+        } catch (IOException excp) {
+            throw Utils.error(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff NAME may name a branch: it is not empty, "." or
+     * "..", and has no control characters, which would break the lines
+     * of packed-refs and of the reflogs.
+     * @param name proposed branch name */
+    static boolean isValidName(String name) {
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            if (Character.isISOControl(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the branch name whose loose ref file is FILE, or null if
+     * FILE is not a loose ref.
+     * @param file loose ref file name */
+    private static String decode(String file) {
+        try {
+            return URLDecoder.decode(file, "UTF-8");
+        } catch (IOException | IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the literal start of the glob PATTERN: the text before its
+     * first '*', '?' or '['.
+     * @param pattern glob pattern */
+    static String globPrefix(String pattern) {
+        int end = pattern.length();
+        for (char c : GLOB_CHARS.toCharArray()) {
+            int k = pattern.indexOf(c);
+            if (k >= 0) {
+                end = Math.min(end, k);
+            }
+        }
+        return pattern.substring(0, end);
+    }
+
+    /** Returns a regular expression matching exactly the names matched by
+     * the glob PATTERN, in which '*' matches any text, '?' any one
+     * character and [...] a character class.
+     * @param pattern glob pattern */
+    static Pattern globPattern(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i += 1) {
+            char c = pattern.charAt(i);
+            int close = pattern.indexOf(']', i + 1);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (c == '[' && close > i + 1) {
+                String set = pattern.substring(i + 1, close);
+                if (set.startsWith("!")) {
+                    set = "^" + set.substring(1);
+                }
+                regex.append('[').append(set.replace("\\", "\\\\")
+                        .replace("[", "\\[")).append(']');
+                i = close;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /** Name of the packed branch file. */
+    static final String PACKED = "packed-refs";
+
+    /** Name of the directory of loose refs. */
+    static final String LOOSE = "refs";
+
+    /** Number of loose refs beyond which an update packs them. */
+    static final int AUTO_PACK = 64;
+
+    /** Contents of a loose ref that removes a packed branch. */
+    private static final String DELETED = "-";
+
+    /** Characters with special meaning in a glob pattern. */
+    private static final String GLOB_CHARS = "*?[";
+
+    /** Packed branch file. */
+    private final File _packedFile;
+
+    /** Directory of loose refs. */
+    private final File _looseDir;
+
+    /** Directory of temporary files. */
+    private final File _tmpdir;
+
+    /** Mapped packed-refs, once read. */
+    private ByteBuffer _packed;
+}
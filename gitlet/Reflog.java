@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Append-only logs of the values a ref has had: .gitlet/logs/HEAD for
+ * the head commit and .gitlet/logs/refs/BRANCH for each branch, where
+ * BRANCH is encoded as in the loose refs of RefStore. Each change adds
+ * one line to the end of the ref's log,
+ * <pre>
+ * OLD NEW TIME MESSAGE
+ * </pre>
+ * where OLD is all zeros for a new ref, TIME is in milliseconds since the
+ * epoch and MESSAGE is the command that made the change. Writing is a
+ * single append; reading starts from the end, so the newest entries cost
+ * the same however long the log grows.
+ * @author Jeff Xiang
+ */
+class Reflog {
+
+    /** An entry of a log.
+     * @param line entry line, without its newline */
+    Reflog(String line) {
+        String[] fields = line.split(" ", FIELDS);
+        _old = fields[0];
+        _new = fields[1];
+        _time = Long.parseLong(fields[2]);
+        _message = fields.length == FIELDS ? fields[FIELDS - 1] : "";
+    }
+
+    /** Returns the line of an entry recording that a ref changed from OLD
+     * (null if it is new) to NEW at TIME because of MESSAGE.
+     * @param old previous commit SHA-1 value, or null
+     * @param sha new commit SHA-1 value
+     * @param time milliseconds since the epoch
+     * @param message cause of the change */
+    static String line(String old, String sha, long time, String message) {
+        if (old == null) {
+            old = sha.replaceAll(".", "0");
+        }
+        return old + " " + sha + " " + time + " "
+                + message.replaceAll("[\r\n]+", " ");
+    }
+
+    /** Appends the entry lines LINES to the log of REF in the repository
+     * whose .gitlet directory is GITLETDIR.
+     * @param gitletDir .gitlet directory
+     * @param ref "HEAD" or a branch name
+     * @param lines entry lines */
+    static void append(File gitletDir, String ref, List<String> lines) {
+        File f = file(gitletDir, ref);
+        f.getParentFile().mkdirs();
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        try (FileOutputStream out = new FileOutputStream(f, true)) {
+            out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw Utils.error("Could not write reflog: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Deletes the log of REF in the repository whose .gitlet directory
+     * is GITLETDIR.
+     * @param gitletDir .gitlet directory
+     * @param ref branch name */
+    static void delete(File gitletDir, String ref) {
+        file(gitletDir, ref).delete();
+    }
+
+    /** Returns up to COUNT of the newest entries of the log of REF in
+     * the repository whose .gitlet directory is GITLETDIR, newest first,
+     * reading only as much of the end of the log as they occupy.
+     * @param gitletDir .gitlet directory
+     * @param ref "HEAD" or a branch name
+     * @param count largest number of entries */
+    static List<Reflog> tail(File gitletDir, String ref, int count) {
+        ArrayList<Reflog> result = new ArrayList<>();
+        File f = file(gitletDir, ref);
+        if (!f.isFile() || count <= 0) {
+            return result;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(f, "r")) {
+            long end = in.length();
+            byte[] partial = new byte[0];
+            while (end > 0 && result.size() < count) {
+                int size = (int) Math.min(BLOCK_SIZE, end);
+                byte[] block = new byte[size + partial.length];
+                in.seek(end - size);
+                in.readFully(block, 0, size);
+                System.arraycopy(partial, 0, block, size, partial.length);
+                end -= size;
+                int stop = block.length;
+                for (int i = block.length - 1; i >= 0
+                         && result.size() < count; i -= 1) {
+                    if (block[i] == '\n') {
+                        addLine(result, block, i + 1, stop);
+                        stop = i;
+                    }
+                }
+                partial = new byte[stop];
+                System.arraycopy(block, 0, partial, 0, stop);
+            }
+            if (end == 0 && result.size() < count) {
+                addLine(result, partial, 0, partial.length);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Could not read reflog: %s", excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Adds to RESULT the entry in BYTES from START to END, if there is
+     * one.
+     * @param result entries so far
+     * @param bytes log contents
+     * @param start start of the line
+     * @param end end of the line */
+    private static void addLine(List<Reflog> result, byte[] bytes,
+                                int start, int end) {
+        if (end > start) {
+            result.add(new Reflog(new String(bytes, start, end - start,
+                    StandardCharsets.UTF_8)));
+        }
+    }
+
+    /** Returns the log of REF in the repository whose .gitlet directory
+     * is GITLETDIR.
+     * @param gitletDir .gitlet directory
+     * @param ref "HEAD" or a branch name */
+    static File file(File gitletDir, String ref) {
+        if (ref.equals(HEAD)) {
+            return Utils.join(gitletDir, "logs", HEAD);
+        }
+        return Utils.join(gitletDir, "logs", "refs", RefStore.encode(ref));
+    }
+
+    /** Returns the SHA-1 value the ref had before this change, all zeros
+     * if it was new. */
+    String getOld() {
+        return _old;
+    }
+
+    /** Returns the SHA-1 value the ref had after this change. */
+    String getNew() {
+        return _new;
+    }
+
+    /** Returns the time of this change, in milliseconds since the
+     * epoch. */
+    long getTime() {
+        return _time;
+    }
+
+    /** Returns the command that made this change. */
+    String getMessage() {
+        return _message;
+    }
+
+    /** Name of the log of the head commit. */
+    static final String HEAD = "HEAD";
+
+    /** Number of fields of an entry line. */
+    private static final int FIELDS = 4;
+
+    /** Size of the blocks read from the end of a log. */
+    private static final int BLOCK_SIZE = 4096;
+
+    /** Previous value. */
+    private final String _old;
+
+    /** New value. */
+    private final String _new;
+
+    /** Time of the change. */
+    private final long _time;
+
+    /** Cause of the change. */
+    private final String _message;
+}
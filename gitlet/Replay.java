@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/** Replays commits onto new parents without touching the working tree or
+ * the index. Each replayed commit's files are the three-way merge, by
+ * blob id, of the new parent's files and the commit's own, against those
+ * of the commit's old parent; only files changed on both sides are read,
+ * to build a conflict blob. The new commits, and any conflict blobs, are
+ * written in one batch; the caller then moves the branch and updates the
+ * working tree once.
+ * @author Jeff Xiang
+ */
+class Replay {
+
+    /** A replay reading commits through CONTEXT.
+     * @param context state of the current command */
+    Replay(CommandContext context) {
+        _context = context;
+        _batch = Utils.objects().batch();
+        _entries = new ArrayList<>();
+    }
+
+    /** Returns a new commit whose parent is ONTO and which makes the
+     * changes C made to its first parent, with C's message, or null if
+     * that would change nothing.
+     * @param c commit to replay
+     * @param onto new parent */
+    Commit pick(Commit c, Commit onto) {
+        Commit parent = _context.getParent(c);
+        Map<String, String> base = parent == null
+                ? new HashMap<>() : parent.getBlobs();
+        HashMap<String, String> blobs = new HashMap<>();
+        ArrayList<String> filenames = new ArrayList<>();
+        for (String path : onto.getFilenames()) {
+            String sha = merge(path, base.get(path),
+                    onto.getBlobs().get(path), c.getBlobs().get(path));
+            if (sha != null) {
+                blobs.put(path, sha);
+                filenames.add(path);
+            }
+        }
+        for (String path : c.getFilenames()) {
+            if (!onto.blobExists(path)) {
+                String sha = merge(path, base.get(path), null,
+                        c.getBlobs().get(path));
+                if (sha != null) {
+                    blobs.put(path, sha);
+                    filenames.add(path);
+                }
+            }
+        }
+        if (blobs.equals(onto.getBlobs())) {
+            return null;
+        }
+        Commit result = new Commit(onto.getSHA(), null, c.getMessage(),
+                System.currentTimeMillis(), filenames, blobs);
+        _batch.put(result.getSHA(), Utils.serialize(result));
+        _entries.add(CommitGraph.entryFor(result, onto));
+        return result;
+    }
+
+    /** Returns the blob id of PATH after merging OURS and THEIRS, its blob
+     * ids on the two sides, against BASE, where null means absent. If both
+     * sides changed it differently, the result is a new conflict blob.
+     * @param path file path
+     * @param base blob id at the common base, or null
+     * @param ours blob id on the side replayed onto, or null
+     * @param theirs blob id in the replayed commit, or null */
+    private String merge(String path, String base, String ours,
+                         String theirs) {
+        if (Objects.equals(ours, theirs) || Objects.equals(base, theirs)) {
+            return ours;
+        }
+        if (Objects.equals(base, ours)) {
+            return theirs;
+        }
+        _conflicts = true;
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        try {
+            byte[] sep = System.getProperty("line.separator").getBytes();
+            contents.write("<<<<<<< HEAD".getBytes());
+            contents.write(sep);
+            if (ours != null) {
+                Blob.read(ours).writeTo(contents);
+            }
+            contents.write("=======".getBytes());
+            contents.write(sep);
+            if (theirs != null) {
+                Blob.read(theirs).writeTo(contents);
+            }
+            contents.write(">>>>>>>".getBytes());
+            contents.write(sep);
+        } catch (IOException excp) {
+            throw Utils.error("Could not build conflicted file.");
+        }
+        Blob blob = new Blob(contents.toByteArray(), path);
+        blob.serialize(_batch);
+        return blob.getSHA();
+    }
+
+    /** Durably writes the commits replayed so far and their blobs. */
+    void write() {
+        _batch.flush();
+    }
+
+    /** Adds the commits replayed so far to the commit graph, after
+     * write. */
+    void publish() {
+        CommitGraph.append(_entries);
+    }
+
+    /** Returns true iff some replayed commit has a conflict. */
+    boolean hasConflicts() {
+        return _conflicts;
+    }
+
+    /** Returns the commits of the first-parent history of HEAD that are
+     * not ancestors of the commit with SHA UPSTREAM, oldest first.
+     * @param graph commit graph
+     * @param head commit whose history to list
+     * @param upstream SHA-1 value of the other commit */
+    List<Commit> notIn(CommitGraph graph, Commit head, String upstream) {
+        HashSet<String> ancestors = new HashSet<>();
+        ArrayDeque<String> work = new ArrayDeque<>();
+        work.push(upstream);
+        while (!work.isEmpty()) {
+            String sha = work.pop();
+            if (ancestors.add(sha)) {
+                CommitGraph.Entry entry = graph.get(sha);
+                if (entry.getParentSHA() != null) {
+                    work.push(entry.getParentSHA());
+                }
+                if (entry.getParent2SHA() != null) {
+                    work.push(entry.getParent2SHA());
+                }
+            }
+        }
+        ArrayList<Commit> result = new ArrayList<>();
+        for (Commit c = head; c != null && !ancestors.contains(c.getSHA());
+             c = _context.getParent(c)) {
+            result.add(c);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /** State of the current command. */
+    private final CommandContext _context;
+
+    /** Pending writes of new commits and conflict blobs. */
+    private final ObjectStore.Batch _batch;
+
+    /** Commit graph records of the new commits, oldest first. */
+    private final ArrayList<CommitGraph.Entry> _entries;
+
+    /** True iff some replayed commit has a conflict. */
+    private boolean _conflicts;
+}
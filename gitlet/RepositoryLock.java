@@ -0,0 +1,231 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+
+/** A lock on a whole repository, held for the duration of a command so
+ * that commands in different processes do not interleave their updates
+ * of CT, the index and the working tree. Read-only commands share the
+ * lock, so they never wait for one another; commands that modify the
+ * repository hold it exclusively. Waiting is bounded by the setting
+ * core.lockTimeout (milliseconds), and every wait is counted in
+ * .gitlet/lock-stats.
+ * @author Jeff Xiang
+ */
+class RepositoryLock {
+
+    /** A held lock LOCK on CHANNEL.
+     * @param channel open channel of the lock file
+     * @param lock the file lock */
+    private RepositoryLock(FileChannel channel, FileLock lock) {
+        _channel = channel;
+        _lock = lock;
+    }
+
+    /** Locks the repository whose .gitlet directory is GITLETDIR,
+     * exclusively iff EXCLUSIVE, and returns the lock, or returns null if
+     * it could not be locked within the configured timeout.
+     * @param gitletDir .gitlet directory
+     * @param exclusive true for writers, false for readers */
+    static RepositoryLock acquire(File gitletDir, boolean exclusive) {
+        long timeout = Config.getInt(TIMEOUT, DEFAULT_TIMEOUT);
+        long start = System.nanoTime();
+        long deadline = start + timeout * NANOS_PER_MILLI;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(new File(gitletDir, "lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long backoff = MIN_BACKOFF;
+            boolean waited = false;
+            while (true) {
+                FileLock lock = tryLock(channel, exclusive);
+                if (lock != null) {
+                    if (waited) {
+                        recordWait(gitletDir, exclusive,
+                                (System.nanoTime() - start)
+                                        / NANOS_PER_MILLI);
+                    }
+                    return new RepositoryLock(channel, lock);
+                }
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    channel.close();
+                    recordTimeout(gitletDir);
+                    return null;
+                }
+                waited = true;
+                Thread.sleep(Math.min(backoff,
+                        Math.max(1, (deadline - now) / NANOS_PER_MILLI)));
+                backoff = Math.min(MAX_BACKOFF, 2 * backoff);
+            }
+        } catch (IOException | InterruptedException excp) {
+            closeQuietly(channel);
+            throw Utils.error("Could not lock repository: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Releases this lock. */
+    void release() {
+        try {
+            _lock.release();
+        } catch (IOException excp) {
+            /* Closing the channel below releases it in any case. */
+        }
+        closeQuietly(_channel);
+    }
+
+    /** Returns a lock on CHANNEL, exclusive iff EXCLUSIVE, or null if
+     * another process holds a conflicting lock.
+     * @param channel open channel of the lock file
+     * @param exclusive true for an exclusive lock */
+    private static FileLock tryLock(FileChannel channel, boolean exclusive)
+            throws IOException {
+        try {
+            return channel.tryLock(0, Long.MAX_VALUE, !exclusive);
+        } catch (OverlappingFileLockException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the contention counters of the repository whose .gitlet
+     * directory is GITLETDIR, in the order described at STATS_FIELDS.
+     * @param gitletDir .gitlet directory */
+    static long[] readStats(File gitletDir) {
+        long[] result = new long[STATS_FIELDS];
+        File f = new File(gitletDir, STATS);
+        if (!f.isFile()) {
+            return result;
+        }
+        try (FileChannel channel = FileChannel.open(f.toPath(),
+                StandardOpenOption.READ)) {
+            readStats(channel, result);
+        } catch (IOException excp) {
+            throw Utils.error("Could not read lock statistics: %s",
+                    excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Counts a wait of MILLIS milliseconds for a lock, exclusive iff
+     * EXCLUSIVE, on the repository in GITLETDIR.
+     * @param gitletDir .gitlet directory
+     * @param exclusive true for an exclusive lock
+     * @param millis time waited */
+    private static void recordWait(File gitletDir, boolean exclusive,
+                                   long millis) {
+        int base = exclusive ? EXCLUSIVE_WAITS : SHARED_WAITS;
+        updateStats(gitletDir, base, base + 1, millis);
+    }
+
+    /** Counts a timeout on the repository in GITLETDIR.
+     * @param gitletDir .gitlet directory */
+    private static void recordTimeout(File gitletDir) {
+        updateStats(gitletDir, TIMEOUTS, -1, 0);
+    }
+
+    /** Increments counter COUNT and adds MILLIS to counter TOTAL (unless
+     * it is negative) in the statistics of GITLETDIR, under a lock of the
+     * statistics file so that concurrent updates are not lost.
+     * @param gitletDir .gitlet directory
+     * @param count index of the counter to increment
+     * @param total index of the time counter, or -1
+     * @param millis time to add */
+    private static void updateStats(File gitletDir, int count, int total,
+                                    long millis) {
+        File f = new File(gitletDir, STATS);
+        try (FileChannel channel = FileChannel.open(f.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            long[] stats = new long[STATS_FIELDS];
+            readStats(channel, stats);
+            stats[count] += 1;
+            if (total >= 0) {
+                stats[total] += millis;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(STATS_FIELDS * Long.BYTES);
+            buf.asLongBuffer().put(stats);
+            channel.write(buf, 0);
+        } catch (IOException excp) {
+            /* Statistics are advisory; never fail a command over them. */
+        }
+    }
+
+    /** Reads counters from CHANNEL into STATS, leaving zeros past the
+     * end of the file.
+     * @param channel open statistics file
+     * @param stats counters to fill */
+    private static void readStats(FileChannel channel, long[] stats)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(STATS_FIELDS * Long.BYTES);
+        while (buf.hasRemaining() && channel.read(buf, buf.position()) > 0) {
+            continue;
+        }
+        buf.flip();
+        for (int i = 0; i < STATS_FIELDS && buf.remaining() >= Long.BYTES;
+             i += 1) {
+            stats[i] = buf.getLong();
+        }
+    }
+
+    /** Closes CHANNEL, if not null, ignoring errors.
+     * @param channel channel or null */
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException excp) {
+                /* Nothing more to do. */
+            }
+        }
+    }
+
+    /** Key of the lock timeout, in milliseconds, in .gitlet/config. */
+    static final String TIMEOUT = "core.lockTimeout";
+
+    /** Lock timeout when none is configured, in milliseconds. */
+    private static final int DEFAULT_TIMEOUT = 10000;
+
+    /** Name of the statistics file in .gitlet. */
+    private static final String STATS = "lock-stats";
+
+    /** Counter: waits for shared locks. */
+    static final int SHARED_WAITS = 0;
+
+    /** Counter: milliseconds spent waiting for shared locks. */
+    static final int SHARED_WAIT_MILLIS = 1;
+
+    /** Counter: waits for exclusive locks. */
+    static final int EXCLUSIVE_WAITS = 2;
+
+    /** Counter: milliseconds spent waiting for exclusive locks. */
+    static final int EXCLUSIVE_WAIT_MILLIS = 3;
+
+    /** Counter: lock attempts that timed out. */
+    static final int TIMEOUTS = 4;
+
+    /** Number of counters. */
+    private static final int STATS_FIELDS = 5;
+
+    /** First delay between lock attempts, in milliseconds. */
+    private static final long MIN_BACKOFF = 2;
+
+    /** Longest delay between lock attempts, in milliseconds. */
+    private static final long MAX_BACKOFF = 100;
+
+    /** Nanoseconds per millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    /** Open channel of the lock file. */
+    private final FileChannel _channel;
+
+    /** The file lock held. */
+    private final FileLock _lock;
+}
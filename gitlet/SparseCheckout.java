@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** The set of paths materialized in the working tree, given by patterns
+ * in .gitlet/sparse-checkout in the syntax of .gitletignore: a path is in
+ * the set iff it, or one of its directories, matches. With no such file
+ * every path is in the set. Checkout, reset and merge write and delete
+ * only paths in the set, and listing the working tree skips both files
+ * outside it and directories that cannot contain any path in it, so work
+ * scales with the set rather than the whole commit.
+ * @author Jeff Xiang
+ */
+class SparseCheckout {
+
+    /** The set given by pattern lines LINES, or every path if LINES is
+     * null.
+     * @param lines pattern lines, or null */
+    SparseCheckout(List<String> lines) {
+        _lines = lines;
+        if (lines != null) {
+            _rules = new IgnoreRules(lines);
+            _prefixes = new ArrayList<>();
+            for (String line : lines) {
+                String prefix = directoryPrefix(line);
+                if (prefix != null) {
+                    _prefixes.add(prefix);
+                }
+            }
+        }
+    }
+
+    /** Returns the set of this repository, reading it once. */
+    static SparseCheckout load() {
+        if (_current == null) {
+            File f = new File(FILE);
+            List<String> lines = null;
+            if (f.isFile()) {
+                lines = Arrays.asList(new String(Utils.readContents(f),
+                        StandardCharsets.UTF_8).split("\r?\n"));
+            }
+            _current = new SparseCheckout(lines);
+        }
+        return _current;
+    }
+
+    /** Makes PATTERNS the set of this repository, or makes every path
+     * part of it if PATTERNS is null.
+     * @param patterns pattern lines, or null */
+    static void store(List<String> patterns) {
+        File f = new File(FILE);
+        if (patterns == null) {
+            f.delete();
+        } else {
+            Utils.writeAtomically(f, (String.join("\n", patterns) + "\n")
+                    .getBytes(StandardCharsets.UTF_8), false);
+        }
+        _current = new SparseCheckout(patterns);
+    }
+
+    /** Returns true iff the set is limited by patterns. */
+    boolean isEnabled() {
+        return _lines != null;
+    }
+
+    /** Returns the pattern lines, or null if every path is in the set. */
+    List<String> getPatterns() {
+        return _lines;
+    }
+
+    /** Returns true iff file PATH is in the set.
+     * @param path file path, with / separators */
+    boolean includes(String path) {
+        return _lines == null || _rules.isIgnored(path, false);
+    }
+
+    /** Returns true iff directory DIR is in the set, or some pattern may
+     * match a path below it, so that it must be listed.
+     * @param dir directory path, with / separators */
+    boolean mayContain(String dir) {
+        if (_lines == null) {
+            return true;
+        }
+        for (String prefix : _prefixes) {
+            if (prefix.isEmpty() || prefix.equals(dir)
+                    || prefix.startsWith(dir + "/")
+                    || dir.startsWith(prefix + "/")) {
+                return true;
+            }
+        }
+        return _rules.isIgnored(dir, true);
+    }
+
+    /** Returns the longest directory that contains every path pattern
+     * LINE can match, "" if it may match anywhere, or null if LINE
+     * matches nothing by itself (blank, a comment or negated).
+     * @param line pattern line */
+    private static String directoryPrefix(String line) {
+        String pattern = line.trim();
+        if (pattern.isEmpty() || pattern.startsWith("#")
+                || pattern.startsWith("!")) {
+            return null;
+        }
+        if (pattern.endsWith("/")) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        if (!pattern.contains("/")) {
+            return "";
+        }
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        int glob = pattern.length();
+        for (char c : GLOB_CHARS.toCharArray()) {
+            int i = pattern.indexOf(c);
+            if (i >= 0 && i < glob) {
+                glob = i;
+            }
+        }
+        if (glob == pattern.length()) {
+            return pattern;
+        }
+        return pattern.substring(0, Math.max(0,
+                pattern.lastIndexOf('/', glob)));
+    }
+
+    /** Path of the pattern file. */
+    static final String FILE = ".gitlet/sparse-checkout";
+
+    /** Characters that start a wildcard in a pattern. */
+    private static final String GLOB_CHARS = "*?[";
+
+    /** Set of this repository, once loaded. */
+    private static SparseCheckout _current;
+
+    /** Pattern lines, or null if every path is in the set. */
+    private final List<String> _lines;
+
+    /** _lines, compiled. */
+    private IgnoreRules _rules;
+
+    /** Directories that contain everything some pattern can match. */
+    private ArrayList<String> _prefixes;
+}
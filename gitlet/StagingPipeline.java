@@ -0,0 +1,309 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/** Turns many working files into stored blobs as a pipeline of four
+ * stages, each with its own threads: read the file, hash it into a blob,
+ * encode the blob, and write it to the object store. Stages are joined by
+ * queues of core.pipelineDepth items (default 16), so a fast stage waits
+ * for a slow one rather than holding every file in memory, and reading,
+ * hashing and writing overlap. The read, hash and encode stages run
+ * core.pipelineThreads threads each (default the number of processors);
+ * one thread writes, so the object store is never used concurrently. A
+ * file large enough to be chunked is not read whole: the hash stage
+ * streams it, cutting it into chunks and writing those to the chunk store
+ * (whose writes are independent temporary files) as it goes. Files whose
+ * blobs are already in the head commit stop after hashing. The blob ids
+ * are the same as staging each file in turn would give.
+ * @author Jeff Xiang
+ */
+class StagingPipeline {
+
+    /** A pipeline for files of a commit whose blobs are HEADBLOBS.
+     * @param headBlobs tracked file names of the head commit mapped to
+     *                  their blob ids */
+    StagingPipeline(Map<String, String> headBlobs) {
+        _headBlobs = headBlobs;
+        _threads = Math.max(1, Config.getInt(THREADS,
+                Runtime.getRuntime().availableProcessors()));
+        _depth = Math.max(1, Config.getInt(DEPTH, DEFAULT_DEPTH));
+        _stages = new ArrayList<>();
+    }
+
+    /** Stores the blobs of the working files PATHS and returns each path
+     * mapped to its blob id. Rethrows the first failure of any stage.
+     * @param paths working file paths */
+    Map<String, String> run(List<String> paths) {
+        Hashing.objects();
+        Utils.objects();
+        Utils.chunks();
+        ConcurrentHashMap<String, String> result = new ConcurrentHashMap<>();
+        int threads = Math.min(_threads, Math.max(1, paths.size()));
+        BlockingQueue<Item> input = new LinkedBlockingQueue<>();
+        for (String path : paths) {
+            input.add(new Item(path));
+        }
+        BlockingQueue<Item> read = new ArrayBlockingQueue<>(_depth);
+        BlockingQueue<Item> hashed = new ArrayBlockingQueue<>(_depth);
+        BlockingQueue<Item> encoded = new ArrayBlockingQueue<>(_depth);
+        _stages.clear();
+        _stages.add(new Stage("read", threads, input, read, item -> {
+            File file = new File(item._path);
+            if (!Blob.isLarge(file.length())) {
+                item._contents = Utils.readContents(file);
+            }
+            return true;
+        }));
+        _stages.add(new Stage("hash", threads, read, hashed, item -> {
+            item._blob = item._contents == null
+                    ? Blob.fromFile(new File(item._path), item._path)
+                    : new Blob(item._contents, item._path);
+            String sha = item._blob.getSHA();
+            result.put(item._path, sha);
+            return !sha.equals(_headBlobs.get(item._path));
+        }));
+        _stages.add(new Stage("encode", threads, hashed, encoded, item -> {
+            item._chunks = new LinkedHashMap<>();
+            item._encoded = item._blob.encode(item._chunks);
+            return true;
+        }));
+        _stages.add(new Stage("write", 1, encoded, null, item -> {
+            Blob.store(item._blob.getSHA(), item._encoded, item._chunks);
+            return true;
+        }));
+        for (int i = 0; i < threads; i += 1) {
+            input.add(DONE);
+        }
+        for (Stage stage : _stages) {
+            stage.start();
+        }
+        for (Stage stage : _stages) {
+            stage.join();
+        }
+        if (_failure instanceof Error) {
+            throw (Error) _failure;
+        } else if (_failure instanceof RuntimeException) {
+            throw (RuntimeException) _failure;
+        } else if (_failure != null) {
+            throw Utils.error("%s", _failure);
+        }
+        return result;
+    }
+
+    /** Prints, for each stage of the last run, the number of files it
+     * handled and the time its threads spent on them. */
+    void printTimings() {
+        for (Stage stage : _stages) {
+            System.out.println(stage._name + ": " + stage._count.get()
+                    + " files, " + stage._nanos.get() / NANOS_PER_MILLI
+                    + " ms");
+        }
+    }
+
+    /** A file on its way through the pipeline. */
+    private static class Item {
+
+        /** A file at PATH, not yet read.
+         * @param path working file path */
+        Item(String path) {
+            _path = path;
+        }
+
+        /** Working file path. */
+        private final String _path;
+
+        /** Contents, once read, or null if the file is streamed. */
+        private byte[] _contents;
+
+        /** Blob, once hashed. */
+        private Blob _blob;
+
+        /** Stored form of _blob, once encoded. */
+        private byte[] _encoded;
+
+        /** Chunks of a large _blob, once encoded. */
+        private Map<String, byte[]> _chunks;
+    }
+
+    /** One stage: threads that take items from an input queue, work on
+     * them, and pass on those the work accepts. Each thread stops at a
+     * DONE item; the last to stop sends one DONE per thread of the next
+     * stage, even if the thread itself failed. After a failure anywhere,
+     * items are passed over unworked so that every thread still reaches
+     * its DONE. */
+    private final class Stage {
+
+        /** Stage NAME of THREADS threads taking items from IN, applying
+         * WORK and putting those it accepts on OUT (null for the last
+         * stage).
+         * @param name stage name
+         * @param threads number of threads
+         * @param in input queue
+         * @param out output queue, or null
+         * @param work work on an item; false drops it */
+        Stage(String name, int threads, BlockingQueue<Item> in,
+              BlockingQueue<Item> out, Predicate<Item> work) {
+            _name = name;
+            _in = in;
+            _out = out;
+            _work = work;
+            _running = new AtomicInteger(threads);
+            _workers = new ArrayList<>();
+            for (int i = 0; i < threads; i += 1) {
+                Thread worker = new Thread(this::loop, "gitlet-" + name);
+                worker.setDaemon(true);
+                _workers.add(worker);
+            }
+        }
+
+        /** Starts my threads. */
+        void start() {
+            for (Thread worker : _workers) {
+                worker.start();
+            }
+        }
+
+        /** Waits for my threads to stop. */
+        void join() {
+            for (Thread worker : _workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw Utils.error("Interrupted.");
+                }
+            }
+        }
+
+        /** Body of each of my threads. Whatever ends it, it hands off to
+         * the next stage, so that no thread waits forever. */
+        private void loop() {
+            try {
+                for (Item item = _in.take(); item != DONE;
+                     item = _in.take()) {
+                    if (_failure == null && process(item) && _out != null) {
+                        _out.put(item);
+                    }
+                }
+            } catch (InterruptedException excp) {
+                fail(Utils.error("Interrupted."));
+            } catch (Throwable excp) {
+                fail(excp);
+            } finally {
+                finish();
+            }
+        }
+
+        /** Notes that one of my threads has stopped. The last to stop
+         * sends one DONE per thread of the next stage. */
+        private void finish() {
+            if (_running.decrementAndGet() > 0 || _out == null) {
+                return;
+            }
+            int next = _stages.get(_stages.indexOf(this) + 1)
+                    ._workers.size();
+            for (int i = 0; i < next; i += 1) {
+                while (true) {
+                    try {
+                        _out.put(DONE);
+                        break;
+                    } catch (InterruptedException excp) {
+                        fail(Utils.error("Interrupted."));
+                    }
+                }
+            }
+        }
+
+        /** Applies my work to ITEM, timing it, and returns whether to pass
+         * it on. Records a failure, even an Error, and returns false if
+         * the work throws.
+         * @param item file to work on */
+        private boolean process(Item item) {
+            long start = System.nanoTime();
+            try {
+                boolean result = _work.test(item);
+                _count.incrementAndGet();
+                return result;
+            } catch (Throwable excp) {
+                fail(excp);
+                return false;
+            } finally {
+                _nanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        /** Name of this stage. */
+        private final String _name;
+
+        /** Input queue. */
+        private final BlockingQueue<Item> _in;
+
+        /** Output queue, or null for the last stage. */
+        private final BlockingQueue<Item> _out;
+
+        /** Work applied to each item. */
+        private final Predicate<Item> _work;
+
+        /** Number of my threads still running. */
+        private final AtomicInteger _running;
+
+        /** My threads. */
+        private final ArrayList<Thread> _workers;
+
+        /** Number of items worked on. */
+        private final AtomicInteger _count = new AtomicInteger();
+
+        /** Time spent working, in nanoseconds, summed over my threads. */
+        private final AtomicLong _nanos = new AtomicLong();
+    }
+
+    /** Records EXCP as the failure of this run, unless there already is
+     * one.
+     * @param excp exception or error thrown by a stage */
+    private synchronized void fail(Throwable excp) {
+        if (_failure == null) {
+            _failure = excp;
+        }
+    }
+
+    /** Key of the number of threads of each parallel stage. */
+    static final String THREADS = "core.pipelineThreads";
+
+    /** Key of the capacity of the queues between stages. */
+    static final String DEPTH = "core.pipelineDepth";
+
+    /** Queue capacity when none is configured. */
+    private static final int DEFAULT_DEPTH = 16;
+
+    /** Nanoseconds in a millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** Marks the end of a stage's input. */
+    private static final Item DONE = new Item(null);
+
+    /** Blob ids of the head commit's files. */
+    private final Map<String, String> _headBlobs;
+
+    /** Threads per parallel stage. */
+    private final int _threads;
+
+    /** Queue capacity. */
+    private final int _depth;
+
+    /** Stages of the last run, in order. */
+    private final ArrayList<Stage> _stages;
+
+    /** First failure of the current run, or null. */
+    private volatile Throwable _failure;
+}
@@ -1,7 +1,32 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
 import ucb.junit.textui;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /** The suite of all JUnit tests for the gitlet package.
  *  @author Jeff Xiang
@@ -14,12 +39,536 @@ public class UnitTest {
         textui.runClasses(UnitTest.class);
     }
 
+    /** Returns a new, empty temporary directory. */
+    private static File tempDir() throws IOException {
+        return Files.createTempDirectory("gitlet").toFile();
+    }
+
+    /** Deletes FILE and, if it is a directory, everything in it.
+     * @param file file or directory */
+    private static void deleteTree(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteTree(f);
+            }
+        }
+        file.delete();
+    }
+
     @Test
     public void testCalendar() {
         Commit c = new Commit();
         String s = c.getDate();
     }
-}
 
+    @Test
+    public void testCommitIds() {
+        String parent = Utils.sha1("parent");
+        List<String> names = Arrays.asList("a.txt");
+        HashMap<String, String> blobs = new HashMap<>();
+        blobs.put("a.txt", Utils.sha1("one"));
+        Commit one = new Commit(parent, null, "m", 1000, names, blobs);
+        assertEquals(one.getSHA(), new Commit(parent, null, "m", 1000, names,
+                new HashMap<>(blobs)).getSHA());
+        blobs.put("a.txt", Utils.sha1("two"));
+        Commit two = new Commit(parent, null, "m", 1000, names, blobs);
+        assertFalse(one.getSHA().equals(two.getSHA()));
+        Commit merge = new Commit(parent, Utils.sha1("other"), "m", 1000,
+                names, blobs);
+        assertFalse(two.getSHA().equals(merge.getSHA()));
+    }
 
+    @Test
+    public void testHashing() {
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d",
+                Hashing.SHA1.hash("abc"));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223"
+                + "b00361a396177a9cb410ff61f20015ad",
+                Hashing.SHA256.hash("a", "bc".getBytes()));
+        assertEquals(Hashing.SHA1.hash("abc"),
+                Hashing.SHA1.start().update("ab").update("c").hex());
+        assertEquals(64, Hashing.SHA256.hexLength());
+    }
 
+    @Test
+    public void testBloomFilter() {
+        ArrayList<String> paths = new ArrayList<>();
+        for (int i = 0; i < 100; i += 1) {
+            paths.add("dir/file" + i + ".txt");
+        }
+        BloomFilter filter = new BloomFilter(paths);
+        for (String path : paths) {
+            assertTrue(filter.mightContain(path));
+        }
+        int falsepositives = 0;
+        for (int i = 0; i < 10000; i += 1) {
+            if (filter.mightContain("other/file" + i + ".txt")) {
+                falsepositives += 1;
+            }
+        }
+        assertTrue(falsepositives < 300);
+        BloomFilter copy = new BloomFilter(filter.toByteArray());
+        assertTrue(copy.mightContain("dir/file7.txt"));
+    }
+
+    @Test
+    public void testLineDiff() {
+        List<String> a = LineDiff.lines("one\ntwo\nthree\n");
+        List<String> b = LineDiff.lines("zero\none\nTWO\nthree");
+        assertEquals(3, a.size());
+        assertEquals("three", b.get(3));
+        int[] matches = LineDiff.match(a, b);
+        assertEquals(-1, matches[0]);
+        assertEquals(0, matches[1]);
+        assertEquals(-1, matches[2]);
+        assertEquals(-1, matches[3]);
+        matches = LineDiff.match(a, LineDiff.lines("one\nthree\n"));
+        assertEquals(0, matches[0]);
+        assertEquals(2, matches[1]);
+        Random rand = new Random(30);
+        for (int t = 0; t < 200; t += 1) {
+            a = new ArrayList<>();
+            b = new ArrayList<>();
+            for (int i = rand.nextInt(40); i > 0; i -= 1) {
+                a.add("" + rand.nextInt(4));
+            }
+            for (int i = rand.nextInt(40); i > 0; i -= 1) {
+                b.add("" + rand.nextInt(4));
+            }
+            int[][] lcs = new int[a.size() + 1][b.size() + 1];
+            for (int i = a.size() - 1; i >= 0; i -= 1) {
+                for (int j = b.size() - 1; j >= 0; j -= 1) {
+                    lcs[i][j] = a.get(i).equals(b.get(j))
+                            ? lcs[i + 1][j + 1] + 1
+                            : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+                }
+            }
+            matches = LineDiff.match(a, b);
+            int matched = 0, last = -1;
+            for (int j = 0; j < b.size(); j += 1) {
+                if (matches[j] >= 0) {
+                    assertTrue(matches[j] > last);
+                    assertEquals(a.get(matches[j]), b.get(j));
+                    last = matches[j];
+                    matched += 1;
+                }
+            }
+            assertEquals(lcs[0][0], matched);
+        }
+    }
+
+    @Test
+    public void testEwahBitmap() {
+        Random rand = new Random(33);
+        for (int trial = 0; trial < 50; trial += 1) {
+            BitSet x = randomBits(rand), y = randomBits(rand);
+            EwahBitmap a = EwahBitmap.of(x), b = EwahBitmap.of(y);
+            assertEquals(x, a.toBitSet());
+            assertEquals(x.cardinality(), a.cardinality());
+            BitSet expected = (BitSet) x.clone();
+            expected.or(y);
+            assertEquals(expected, a.or(b).toBitSet());
+            expected = (BitSet) x.clone();
+            expected.and(y);
+            assertEquals(expected, a.and(b).toBitSet());
+            expected = (BitSet) x.clone();
+            expected.andNot(y);
+            assertEquals(expected, a.andNot(b).toBitSet());
+            assertEquals(expected.cardinality(), a.andNot(b).cardinality());
+        }
+    }
+
+    /** Returns a random bit set with long runs of clear and set bits,
+     * drawn from RAND. */
+    private static BitSet randomBits(Random rand) {
+        BitSet result = new BitSet();
+        int pos = 0;
+        for (int i = rand.nextInt(20); i > 0; i -= 1) {
+            int len = rand.nextInt(4) == 0 ? rand.nextInt(2000)
+                    : rand.nextInt(100);
+            switch (rand.nextInt(3)) {
+            case 0:
+                result.set(pos, pos + len);
+                break;
+            case 1:
+                for (int j = 0; j < len; j += 1) {
+                    result.set(pos + j, rand.nextBoolean());
+                }
+                break;
+            default:
+                break;
+            }
+            pos += len;
+        }
+        return result;
+    }
+
+    @Test
+    public void testIgnoreRules() {
+        IgnoreRules rules = new IgnoreRules(Arrays.asList(
+                "# comment", "build/", "*.log", "/top.txt", "docs/**/*.tmp",
+                "!keep.log"));
+        assertTrue(rules.isIgnored("build", true));
+        assertFalse(rules.isIgnored("build", false));
+        assertTrue(rules.isIgnored("src/build/x.java", false));
+        assertTrue(rules.isIgnored("a/b.log", false));
+        assertFalse(rules.isIgnored("keep.log", false));
+        assertTrue(rules.isIgnored("top.txt", false));
+        assertFalse(rules.isIgnored("src/top.txt", false));
+        assertTrue(rules.isIgnored("docs/a/b/c.tmp", false));
+        assertTrue(rules.isIgnored("docs/c.tmp", false));
+        assertFalse(rules.isIgnored("c.tmp", false));
+        IgnoreRules plain = new IgnoreRules(Arrays.asList(
+                "node_modules/", "*.o", "Makefile"));
+        assertTrue(plain.matches("x/node_modules", true));
+        assertTrue(plain.matches("x/y.o", false));
+        assertTrue(plain.matches("Makefile", false));
+        assertFalse(plain.matches("Makefile.am", false));
+    }
+
+    @Test
+    public void testBatchSplit() {
+        assertEquals(Arrays.asList("commit", "Add wug"),
+                Arrays.asList(Batch.split("  commit \"Add wug\" ")));
+        assertEquals(Arrays.asList("commit", "", "x"),
+                Arrays.asList(Batch.split("commit \"\" x")));
+        assertEquals(Arrays.asList("add", "a b.txt"),
+                Arrays.asList(Batch.split("add a\" \"b.txt")));
+        assertEquals(0, Batch.split(" \t").length);
+    }
+
+    @Test
+    public void testSparseCheckout() {
+        SparseCheckout sparse = new SparseCheckout(Arrays.asList(
+                "src/", "/docs/api/*.md", "README"));
+        assertTrue(sparse.includes("src/a/b.java"));
+        assertTrue(sparse.includes("docs/api/x.md"));
+        assertFalse(sparse.includes("docs/guide/x.md"));
+        assertTrue(sparse.includes("lib/README"));
+        assertTrue(sparse.mayContain("docs"));
+        assertTrue(sparse.mayContain("docs/api"));
+        assertTrue(sparse.mayContain("lib"));
+        SparseCheckout cone = new SparseCheckout(Arrays.asList(
+                "/src/main/", "/docs/*.md"));
+        assertTrue(cone.mayContain("src"));
+        assertTrue(cone.mayContain("src/main/java"));
+        assertFalse(cone.mayContain("src/test"));
+        assertFalse(cone.mayContain("lib"));
+        assertTrue(cone.mayContain("docs"));
+        assertTrue(new SparseCheckout(null).includes("anything"));
+    }
+
+    @Test
+    public void testChunker() {
+        byte[] data = new byte[3 << 20];
+        new Random(7).nextBytes(data);
+        List<Integer> cuts = Chunker.cuts(data);
+        assertEquals(data.length, (long) cuts.get(cuts.size() - 1));
+        int start = 0;
+        for (int end : cuts) {
+            assertTrue(end - start <= Chunker.MAX_SIZE);
+            assertTrue(end == data.length || end - start >= Chunker.MIN_SIZE);
+            start = end;
+        }
+        byte[] edited = new byte[data.length + 5];
+        int at = data.length / 2;
+        System.arraycopy(data, 0, edited, 0, at);
+        System.arraycopy(data, at, edited, at + 5, data.length - at);
+        HashSet<Integer> shifted = new HashSet<>();
+        for (int end : Chunker.cuts(edited)) {
+            shifted.add(end <= at ? end : end - 5);
+        }
+        int kept = 0;
+        for (int end : cuts) {
+            if (shifted.contains(end)) {
+                kept += 1;
+            }
+        }
+        assertTrue(kept >= cuts.size() - 2);
+        assertEquals(1, Chunker.cuts(new byte[0]).size());
+    }
+
+    @Test
+    public void testObjectStores() throws IOException {
+        MemoryObjectStore objects = new MemoryObjectStore();
+        MemoryObjectStore chunks = new MemoryObjectStore();
+        Utils.useStores(objects, chunks);
+        File dir = tempDir();
+        try {
+            byte[] data = new byte[3 << 20];
+            new Random(11).nextBytes(data);
+            Blob big = new Blob(data, "big.bin");
+            big.serialize();
+            Blob small = new Blob("hello".getBytes(), "a.txt");
+            small.serialize();
+            assertEquals(2, objects.size());
+            assertTrue(chunks.size() > 1);
+            assertArrayEquals(data, Blob.read(big.getSHA()).getContents());
+            File file = new File(dir, "big.bin");
+            Utils.writeContents(file, data);
+            Blob streamed = Blob.fromFile(file, "big.bin");
+            file.delete();
+            assertEquals(big.getSHA(), streamed.getSHA());
+            assertEquals(Blob.read(big.getSHA()).getChunks(),
+                    streamed.getChunks());
+            assertEquals(data.length, Blob.read(big.getSHA()).size());
+            assertEquals(Arrays.asList(small.getSHA()),
+                    objects.withPrefix(small.getSHA().substring(0, 8)));
+            String id = Utils.objectId("pending");
+            ObjectStore.Batch batch = objects.batch();
+            batch.put(id, "pending".getBytes());
+            assertFalse(objects.has(id));
+            batch.flush();
+            assertTrue(objects.has(id));
+            ArrayList<String> ids = new ArrayList<>();
+            objects.ids().forEach(ids::add);
+            File packs = new File(dir, "packs");
+            PackObjectStore.write(packs, new File(dir, "tmp"),
+                    objects, ids);
+            MemoryObjectStore loose = new MemoryObjectStore();
+            PackObjectStore packed = new PackObjectStore(packs, loose);
+            for (String sha : ids) {
+                assertArrayEquals(objects.get(sha), packed.get(sha));
+            }
+            assertFalse(packed.has(Utils.objectId("absent")));
+            packed.put(Utils.objectId("new"), new byte[1]);
+            assertEquals(1, loose.size());
+            ids.clear();
+            packed.ids().forEach(ids::add);
+            assertEquals(4, ids.size());
+            for (String sha : ids) {
+                assertEquals(Arrays.asList(sha),
+                        packed.withPrefix(sha.substring(0, 8)));
+            }
+            assertEquals(4, packed.withPrefix("").size());
+        } finally {
+            Utils.useStores(null, null);
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    public void testReflog() throws IOException {
+        File dir = tempDir();
+        try {
+            ArrayList<String> lines = new ArrayList<>();
+            String sha = Utils.sha1("0");
+            for (int i = 1; i <= 500; i += 1) {
+                String next = Utils.sha1("" + i);
+                lines.add(Reflog.line(i == 1 ? null : sha, next, i,
+                        "commit \u00e9\n" + i));
+                sha = next;
+            }
+            Reflog.append(dir, "topic/x", lines.subList(0, 300));
+            Reflog.append(dir, "topic/x", lines.subList(300, 500));
+            List<Reflog> tail = Reflog.tail(dir, "topic/x", 3);
+            assertEquals(3, tail.size());
+            assertEquals(Utils.sha1("500"), tail.get(0).getNew());
+            assertEquals(Utils.sha1("499"), tail.get(0).getOld());
+            assertEquals("commit \u00e9 498", tail.get(2).getMessage());
+            tail = Reflog.tail(dir, "topic/x", 1000);
+            assertEquals(500, tail.size());
+            assertEquals(1, tail.get(499).getTime());
+            assertTrue(tail.get(499).getOld().matches("0+"));
+            assertEquals(0, Reflog.tail(dir, Reflog.HEAD, 5).size());
+            Reflog.delete(dir, "topic/x");
+            assertFalse(Reflog.file(dir, "topic/x").exists());
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    public void testRefStore() throws IOException {
+        File dir = tempDir();
+        try {
+            RefStore refs = new RefStore(dir);
+            TreeMap<String, String> changes = new TreeMap<>();
+            for (int i = 0; i < 1000; i += 1) {
+                changes.put(String.format("topic/%04d", i), Utils.sha1("" + i));
+            }
+            changes.put("master", Utils.sha1("m"));
+            refs.update(changes);
+            assertEquals(0, new File(dir, RefStore.LOOSE).list().length);
+            assertEquals(1001, refs.pack());
+            refs = new RefStore(dir);
+            assertEquals(Utils.sha1("417"), refs.get("topic/0417"));
+            assertNull(refs.get("topic/1000"));
+            assertNull(refs.get("topic"));
+            changes.clear();
+            changes.put("topic/0417", Utils.sha1("x"));
+            changes.put("topic/0418", null);
+            changes.put("topic/04185", Utils.sha1("y"));
+            changes.put("new", null);
+            refs.update(changes);
+            assertEquals(Utils.sha1("x"), refs.get("topic/0417"));
+            assertNull(refs.get("topic/0418"));
+            ArrayList<String> names = new ArrayList<>();
+            refs.forEach("topic/041", (name, sha) -> names.add(name));
+            assertEquals("[topic/0410, topic/0411, topic/0412, topic/0413, "
+                    + "topic/0414, topic/0415, topic/0416, topic/0417, "
+                    + "topic/04185, topic/0419]", names.toString());
+            assertEquals(1001, refs.pack());
+            assertEquals(Utils.sha1("y"),
+                    new RefStore(dir).get("topic/04185"));
+            assertFalse(RefStore.isValidName(".."));
+            assertFalse(RefStore.isValidName("a\nb"));
+            assertTrue(RefStore.isValidName("origin/.x"));
+            assertEquals("topic/0", RefStore.globPrefix("topic/0*1"));
+            assertTrue(RefStore.globPattern("topic/0*1").matcher(
+                    "topic/0411").matches());
+            assertFalse(RefStore.globPattern("t?pic/[!0]*").matcher(
+                    "topic/0411").matches());
+            assertEquals(0, new File(dir, RefStore.LOOSE).list().length);
+            assertEquals(0, new File(dir, "tmp").list().length);
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    public void testMergeJoin() {
+        MergeJoin join = new MergeJoin(Arrays.asList("a", "c", "d"),
+                new TreeSet<>(Arrays.asList("b", "c")),
+                new ArrayList<String>());
+        StringBuilder visited = new StringBuilder();
+        while (join.next()) {
+            visited.append(join.name());
+            for (int k = 0; k < 3; k += 1) {
+                visited.append(join.in(k) ? "1" : "0");
+            }
+            visited.append(' ');
+        }
+        assertEquals("a100 b010 c110 d100 ", visited.toString());
+        assertFalse(join.next());
+        MergeJoin unsorted = new MergeJoin(Arrays.asList("b", "a"));
+        try {
+            unsorted.next();
+            unsorted.next();
+            fail("unsorted names were accepted");
+        } catch (GitletException excp) {
+            assertTrue(excp.getMessage().contains("Unsorted"));
+        }
+    }
+
+    @Test
+    public void testLinkCheckoutUnlock() throws IOException {
+        File dir = tempDir();
+        File raw = new File(dir, "raw");
+        File work = new File(dir, "work");
+        try {
+            Utils.writeContents(raw, "contents");
+            raw.setReadOnly();
+            Files.createLink(work.toPath(), raw.toPath());
+            assertTrue(LinkCheckout.isLinked(work));
+            assertTrue(LinkCheckout.unlock(work));
+            assertFalse(LinkCheckout.isLinked(work));
+            assertTrue(work.canWrite());
+            assertFalse(LinkCheckout.unlock(work));
+            Utils.writeContents(work, "changed");
+            assertEquals("contents", Utils.readContentsAsString(raw));
+            assertEquals(2, dir.list().length);
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    public void testArchive() throws IOException {
+        Utils.useStores(new MemoryObjectStore(), new MemoryObjectStore());
+        try {
+            byte[] data = new byte[3 << 20];
+            new Random(7).nextBytes(data);
+            String deep = "d".repeat(160) + "/e.txt";
+            HashMap<String, byte[]> files = new HashMap<>();
+            files.put("big.bin", data);
+            files.put("a.txt", "hello".getBytes());
+            files.put(deep, "deep".getBytes());
+            HashMap<String, String> blobs = new HashMap<>();
+            for (String name : files.keySet()) {
+                Blob blob = new Blob(files.get(name), name);
+                blob.serialize();
+                blobs.put(name, blob.getSHA());
+            }
+            Commit c = new Commit(Utils.sha1("p"), null, "files", 0,
+                    new ArrayList<>(files.keySet()), blobs);
+            ByteArrayOutputStream zip = new ByteArrayOutputStream();
+            new Archive(zip, Archive.ZIP).write(c);
+            ZipInputStream in = new ZipInputStream(
+                    new ByteArrayInputStream(zip.toByteArray()));
+            ArrayList<String> names = new ArrayList<>();
+            for (ZipEntry e = in.getNextEntry(); e != null;
+                 e = in.getNextEntry()) {
+                names.add(e.getName());
+                assertArrayEquals(files.get(e.getName()), in.readAllBytes());
+            }
+            assertEquals(Arrays.asList("a.txt", "big.bin", deep),
+                    names);
+            ByteArrayOutputStream tar = new ByteArrayOutputStream();
+            new Archive(tar, Archive.TAR).write(c);
+            byte[] bytes = tar.toByteArray();
+            assertEquals(0, bytes.length % 512);
+            assertEquals("a.txt", new String(bytes, 0, 5));
+            assertEquals("00000000005", new String(bytes, 124, 11));
+            assertEquals("ustar", new String(bytes, 257, 5));
+            assertTrue(new String(bytes, StandardCharsets.ISO_8859_1)
+                    .contains(" path=" + deep + "\n"));
+        } finally {
+            Utils.useStores(null, null);
+        }
+    }
+
+    @Test
+    public void testCommitGraph() throws IOException {
+        File dir = tempDir();
+        File log = new File(dir, CommitGraph.GRAPH);
+        File index = new File(dir, CommitGraph.GRAPH_INDEX);
+        new File(dir, "tmp").mkdir();
+        try {
+            ArrayList<CommitGraph.Entry> entries = new ArrayList<>();
+            String parent = null;
+            for (int i = 0; i < 5000; i += 1) {
+                String sha = Utils.sha1("c" + i);
+                entries.add(new CommitGraph.Entry(sha, parent, null, i,
+                        new BloomFilter(new byte[0])));
+                parent = sha;
+            }
+            CommitGraph.append(dir, entries.subList(0, 4999));
+            assertTrue(index.isFile());
+            Utils.writeContents(log, Utils.readContents(log), "torn");
+            CommitGraph.append(dir, entries.subList(4999, 5000));
+            CommitGraph graph = CommitGraph.read(dir, new MemoryObjectStore());
+            for (CommitGraph.Entry entry : entries) {
+                CommitGraph.Entry read = graph.get(entry.getSHA());
+                assertEquals(entry.getParentSHA(), read.getParentSHA());
+                assertEquals(entry.getTime(), read.getTime());
+            }
+            List<String> commits = graph.commits();
+            assertEquals(entries.size(), commits.size());
+            assertEquals(Utils.sha1("c0"), commits.get(0));
+            assertEquals(parent, commits.get(commits.size() - 1));
+            assertTrue(graph.isAncestor(Utils.sha1("c0"), parent));
+            assertFalse(graph.has(Utils.sha1("c5000")));
+        } finally {
+            deleteTree(dir);
+        }
+    }
+
+    @Test
+    public void testStagingPipelineFailure() {
+        Utils.useStores(new MemoryObjectStore(), new MemoryObjectStore());
+        try {
+            ArrayList<String> paths = new ArrayList<>();
+            for (int i = 0; i < 100; i += 1) {
+                paths.add("no-such-file-" + i);
+            }
+            new StagingPipeline(new HashMap<>()).run(paths);
+            fail("missing files were staged");
+        } catch (RuntimeException excp) {
+            assertNotNull(excp.getMessage());
+        } finally {
+            Utils.useStores(null, null);
+        }
+    }
+}
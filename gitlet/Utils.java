@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,13 +10,13 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -32,31 +33,49 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
-        }
+        return Hashing.SHA1.hash(vals);
+    }
+
+    /** Returns the id of an object whose contents are the concatenation
+     *  of VALS, which may be any mixture of byte arrays and Strings,
+     *  using the repository's object format (SHA-1 unless configured
+     *  otherwise). */
+    static String objectId(Object... vals) {
+        return Hashing.objects().hash(vals);
     }
 
     /** Returns the CommitTree object in .gitlet/serialized. */
     static CommitTree getCommitTree() {
-        File f = new File(Utils.SERIALIZED + "CT");
-        return readObject(f, CommitTree.class);
+        return CommitTree.current();
+    }
+
+    /** Returns the object store of the current repository, opening it on
+     *  first use. */
+    static ObjectStore objects() {
+        if (_objects == null) {
+            _objects = ObjectStore.open(new File(".gitlet"));
+        }
+        return _objects;
+    }
+
+    /** Returns the store of the chunks of large blobs in the current
+     *  repository, opening it on first use.  Chunks are kept apart from
+     *  other objects since their ids are those of raw bytes. */
+    static ObjectStore chunks() {
+        if (_chunks == null) {
+            _chunks = new LooseObjectStore(new File(CHUNKS), new File(TMP));
+        }
+        return _chunks;
+    }
+
+    /** Makes OBJECTS and CHUNKS the stores of the current repository, or
+     *  has them reopened from disk on next use if null (e.g. after the
+     *  packs change).
+     *  @param objects object store, or null
+     *  @param chunks chunk store, or null */
+    static void useStores(ObjectStore objects, ObjectStore chunks) {
+        _objects = objects;
+        _chunks = chunks;
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -154,9 +173,81 @@ class Utils {
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Write OBJ to FILE, atomically replacing any previous contents. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        writeAtomically(file, serialize(obj), false);
+    }
+
+    /** Write CONTENTS to FILE by writing a temporary file in .gitlet/tmp
+     *  and renaming it over FILE, so that readers and crashes see either
+     *  the old or the new contents, never a mix.  If SYNC, the temporary
+     *  file is forced to disk before the rename and FILE's directory
+     *  after it.  Throws IllegalArgumentException in case of problems. */
+    static void writeAtomically(File file, byte[] contents, boolean sync) {
+        writeAtomically(file, contents, sync, new File(TMP));
+    }
+
+    /** As for writeAtomically(FILE, CONTENTS, SYNC), but writing the
+     *  temporary file in TMPDIR, which must be on the same file system as
+     *  FILE (e.g. the tmp directory of another repository). */
+    static void writeAtomically(File file, byte[] contents, boolean sync,
+                                File tmpdir) {
+        File tmp = writeTemporary(tmpdir, contents);
+        if (sync) {
+            fsync(tmp);
+        }
+        rename(tmp, file);
+        if (sync) {
+            fsync(file.getAbsoluteFile().getParentFile());
+        }
+    }
+
+    /** Write CONTENTS to a new temporary file in .gitlet/tmp and return
+     *  it.  Throws IllegalArgumentException in case of problems. */
+    static File writeTemporary(byte[] contents) {
+        return writeTemporary(new File(TMP), contents);
+    }
+
+    /** Write CONTENTS to a new temporary file in directory DIR, which is
+     *  created if necessary, and return it.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static File writeTemporary(File dir, byte[] contents) {
+        try {
+            dir.mkdir();
+            File tmp = Files.createTempFile(dir.toPath(), "tmp_", null)
+                    .toFile();
+            writeContents(tmp, contents);
+            return tmp;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Atomically rename FROM to TO, replacing TO if it exists.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void rename(File from, File to) {
+        try {
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Force the contents of FILE, which may be a directory, to disk.
+     *  Directories that cannot be opened for syncing on this platform
+     *  are ignored.  Throws IllegalArgumentException in case of
+     *  problems with plain files. */
+    static void fsync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
     }
 
     /* DIRECTORIES */
@@ -209,6 +300,23 @@ class Utils {
 
     /* SERIALIZATION UTILITIES */
 
+    /** Returns an object of type T read from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Returns a byte array containing the serialized contents of OBJ. */
     static byte[] serialize(Serializable obj) {
         try {
@@ -253,6 +361,33 @@ class Utils {
     /** Path string of serialized directory within .gitlet. */
     static final String SERIALIZED = ".gitlet/serialized/";
 
-    /** Paths string of staged directory within .gitlet. */
-    static final String STAGED = ".gitlet/staged/";
+    /** Path string of the temporary directory within .gitlet. */
+    static final String TMP = ".gitlet/tmp/";
+
+    /** Path string of the blame cache directory within .gitlet. */
+    static final String BLAME = ".gitlet/blame/";
+
+    /** Path string of the commit graph within .gitlet. */
+    static final String COMMIT_GRAPH = ".gitlet/commit-graph";
+
+    /** Path string of the reachability bitmap index within .gitlet. */
+    static final String BITMAPS = ".gitlet/bitmaps";
+
+    /** Path string of the chunk directory within .gitlet. */
+    static final String CHUNKS = ".gitlet/chunks/";
+
+    /** Path string of the pack directory within .gitlet. */
+    static final String PACKS = ".gitlet/packs/";
+
+    /** Path string of the repository settings within .gitlet. */
+    static final String CONFIG = ".gitlet/config";
+
+    /** Path string of the staging index within .gitlet. */
+    static final String INDEX = ".gitlet/index";
+
+    /** Object store of the current repository, once opened. */
+    private static ObjectStore _objects;
+
+    /** Chunk store of the current repository, once opened. */
+    private static ObjectStore _chunks;
 }
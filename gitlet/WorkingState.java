@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** The files of the working tree with their blob SHA-1 values, which are
+ * computed only when asked for. When a file-system monitor is running,
+ * the state is kept in .gitlet/fsmonitor.cache along with the monitor
+ * token it reflects, and a later read re-examines only the paths the
+ * monitor reports changed since then. Otherwise, or if the monitor lost
+ * events or restarted, the whole working tree is listed.
+ * @author Jeff Xiang
+ */
+class WorkingState {
+
+    /** A state of files PATHS (mapped to null, or a known SHA-1 value)
+     * as of TOKEN, which is null if no monitor is running.
+     * @param paths file paths mapped to blob SHA-1 values or null
+     * @param token monitor token, or null */
+    private WorkingState(TreeMap<String, String> paths,
+                         FsMonitor.Token token) {
+        _paths = paths;
+        _token = token;
+    }
+
+    /** Returns the current state of the working tree, including the
+     * files of TRACKED, the tracked and staged files, that exist, even
+     * if the ignore rules exclude them.
+     * @param tracked paths of tracked or staged files */
+    @SafeVarargs
+    static WorkingState read(Collection<String>... tracked) {
+        FsMonitor.Token now = FsMonitor.current();
+        WorkingState result = null;
+        if (now != null) {
+            WorkingState cached = readCache();
+            HashSet<String> dirty = new HashSet<>();
+            if (cached != null
+                    && FsMonitor.changes(cached._token, now, dirty)
+                    && !dirty.contains(IgnoreRules.IGNORE_FILE)) {
+                for (String path : dirty) {
+                    cached.refresh(path);
+                }
+                cached._token = now;
+                result = cached;
+            }
+        }
+        if (result == null) {
+            TreeMap<String, String> paths = new TreeMap<>();
+            for (String path : WorkingTree.files()) {
+                paths.put(path, null);
+            }
+            result = new WorkingState(paths, now);
+        }
+        for (Collection<String> paths : tracked) {
+            for (String path : paths) {
+                if (!result._paths.containsKey(path)
+                        && Files.isRegularFile(Paths.get(path))) {
+                    result._paths.put(path, null);
+                }
+            }
+        }
+        result._changed = true;
+        return result;
+    }
+
+    /** Returns the sorted paths of the files in the working tree. */
+    Set<String> paths() {
+        return _paths.keySet();
+    }
+
+    /** Returns true iff PATH is a file in the working tree.
+     * @param path file path */
+    boolean exists(String path) {
+        return _paths.containsKey(path);
+    }
+
+    /** Returns the blob SHA-1 value of the working file PATH, or null if
+     * there is no such file.
+     * @param path file path */
+    String getSHA(String path) {
+        if (!_paths.containsKey(path)) {
+            return null;
+        }
+        String sha = _paths.get(path);
+        if (sha == null) {
+            sha = Blob.sha(Utils.readContents(new File(path)), path);
+            _paths.put(path, sha);
+            _changed = true;
+        }
+        return sha;
+    }
+
+    /** Saves this state for the next command, if a monitor is running
+     * and it has changed. Files this command then modifies are reported
+     * by the monitor after the saved token, so are re-examined. Since
+     * status holds only the shared repository lock, the write is guarded
+     * by a lock of its own on .gitlet/fsmonitor.cache.lock, taken without
+     * waiting: a command that finds another writing leaves the cache to
+     * it, as either state is correct as of its own token. */
+    void write() {
+        if (_token == null || !_changed) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(CACHE_LOCK),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(_token.getGeneration());
+            out.writeLong(_token.getOffset());
+            out.writeInt(_paths.size());
+            for (Map.Entry<String, String> e : _paths.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue() == null ? "" : e.getValue());
+            }
+            out.close();
+            Utils.writeAtomically(new File(CACHE), bytes.toByteArray(),
+                    false);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write %s: %s", CACHE,
+                    excp.getMessage());
+        }
+        _changed = false;
+    }
+
+    /** Re-examines PATH, which the monitor reports changed: forgets it
+     * and everything below it, then lists whatever is there now.
+     * @param path file or directory path */
+    private void refresh(String path) {
+        _paths.remove(path);
+        _paths.subMap(path + "/", path + "0").clear();
+        if (Files.isDirectory(Paths.get(path))) {
+            for (String file : WorkingTree.files(path)) {
+                _paths.put(file, null);
+            }
+        } else if (Files.isRegularFile(Paths.get(path))
+                && !IgnoreRules.load().isIgnored(path, false)
+                && SparseCheckout.load().includes(path)) {
+            _paths.put(path, null);
+        }
+    }
+
+    /** Discards the cached state, so that the next read lists the whole
+     * working tree, as when the set of paths it covers changes. */
+    static void forget() {
+        new File(CACHE).delete();
+    }
+
+    /** Returns the cached state, or null if there is none. */
+    private static WorkingState readCache() {
+        File f = new File(CACHE);
+        if (!f.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            FsMonitor.Token token =
+                    new FsMonitor.Token(in.readUTF(), in.readLong());
+            TreeMap<String, String> paths = new TreeMap<>();
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String path = in.readUTF();
+                String sha = in.readUTF();
+                paths.put(path, sha.isEmpty() ? null : sha);
+            }
+            return new WorkingState(paths, token);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Path of the cached state. */
+    private static final String CACHE = ".gitlet/fsmonitor.cache";
+
+    /** Path of the lock held while writing the cached state. */
+    private static final String CACHE_LOCK = ".gitlet/fsmonitor.cache.lock";
+
+    /** File paths, mapped to their blob SHA-1 values or null if not yet
+     * computed. */
+    private final TreeMap<String, String> _paths;
+
+    /** Monitor token as of which _paths is correct, or null. */
+    private FsMonitor.Token _token;
+
+    /** True iff this state differs from the cached one. */
+    private boolean _changed;
+}
@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** The files of the working tree: every plain file below the current
+ * directory, named by its path with / separating directories, except for
+ * .gitlet, whatever the ignore rules exclude and whatever lies outside a
+ * sparse checkout. Directories are listed in parallel by work-stealing
+ * tasks, and ignored directories, and those outside a sparse checkout,
+ * are pruned before they are opened.
+ * @author Jeff Xiang
+ */
+class WorkingTree {
+
+    /** Returns the sorted paths of all files in the working tree. */
+    static List<String> files() {
+        return files("");
+    }
+
+    /** Returns the sorted paths of the files in the working tree at or
+     * below PATH, which is "" for the whole tree. A PATH naming a file is
+     * returned even if ignored, as the user asked for it by name.
+     * @param path file or directory path, with / separators */
+    static List<String> files(String path) {
+        IgnoreRules rules = IgnoreRules.load();
+        SparseCheckout sparse = SparseCheckout.load();
+        Path start = Paths.get(path.isEmpty() ? "." : path);
+        List<String> result;
+        if (!path.isEmpty() && Files.isDirectory(start)
+                && (rules.isIgnored(path, true) || !sparse.mayContain(path))) {
+            result = new ArrayList<>();
+        } else if (Files.isDirectory(start, LinkOption.NOFOLLOW_LINKS)) {
+            result = ForkJoinPool.commonPool().invoke(
+                    new Walk(start, path.isEmpty() ? "" : path + "/", rules,
+                            sparse));
+        } else {
+            result = new ArrayList<>();
+            if (Files.isRegularFile(start)) {
+                result.add(path);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns files(PATH) together with the paths of TRACKED, the
+     * tracked and staged files, that are at or below PATH and are files
+     * in the working tree, whatever the ignore rules say: a file once
+     * tracked stays in view until it is removed.
+     * @param path file or directory path, with / separators, or ""
+     * @param tracked paths of tracked or staged files */
+    @SafeVarargs
+    static List<String> files(String path, Collection<String>... tracked) {
+        List<String> result = files(path);
+        int walked = result.size();
+        HashSet<String> listed = new HashSet<>(result);
+        for (Collection<String> paths : tracked) {
+            for (String file : paths) {
+                if ((path.isEmpty() || file.equals(path)
+                     || file.startsWith(path + "/"))
+                        && !listed.contains(file)
+                        && Files.isRegularFile(Paths.get(file))) {
+                    listed.add(file);
+                    result.add(file);
+                }
+            }
+        }
+        if (result.size() > walked) {
+            Collections.sort(result);
+        }
+        return result;
+    }
+
+    /** Returns PATH in the form used to name tracked files: relative, with
+     * / separators and without "." components or trailing /.
+     * @param path path as typed by the user */
+    static String normalize(String path) {
+        String result = Paths.get(path).normalize().toString()
+                .replace(File.separatorChar, '/');
+        return result.equals(".") ? "" : result;
+    }
+
+    /** Writes CONTENTS to the working file PATH, creating its directories
+     * as needed.
+     * @param path file path, with / separators
+     * @param contents file contents */
+    static void write(String path, byte[] contents) {
+        Utils.writeContents(prepare(path), contents);
+    }
+
+    /** Writes the contents of BLOB to the working file PATH, creating its
+     * directories as needed, without holding the contents of a chunked
+     * blob in memory at once. If checkout links files, PATH is linked to
+     * the contents instead.
+     * @param path file path, with / separators
+     * @param blob blob to write */
+    static void write(String path, Blob blob) {
+        File f = prepare(path);
+        if (LinkCheckout.link(f, blob)) {
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(f))) {
+            blob.writeTo(out);
+        } catch (IOException excp) {
+            throw Utils.error("Could not write %s: %s", path,
+                    excp.getMessage());
+        }
+    }
+
+    /** Returns the working file PATH, ready to be written: its directories
+     * exist, and if it was linked to stored contents or read-only, it is
+     * gone, so that writing it never changes another file.
+     * @param path file path, with / separators */
+    private static File prepare(String path) {
+        File f = new File(path);
+        File dir = f.getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        if (f.isFile() && (!f.canWrite() || LinkCheckout.isLinked(f))) {
+            f.delete();
+        }
+        return f;
+    }
+
+    /** Deletes the working file PATH, if it exists and is not a directory,
+     * along with any of its directories left empty. Returns true iff the
+     * file was deleted. Refuses, throwing IllegalArgumentException, unless
+     * the current directory contains .gitlet.
+     * @param path file path, with / separators */
+    static boolean delete(String path) {
+        if (!new File(".gitlet").isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File f = new File(path);
+        if (f.isDirectory() || !f.delete()) {
+            return false;
+        }
+        for (File dir = f.getParentFile(); dir != null;
+             dir = dir.getParentFile()) {
+            String[] rest = dir.list();
+            if (rest == null || rest.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /** A task listing the files below one directory. */
+    private static class Walk extends RecursiveTask<List<String>> {
+
+        /** A walk of directory DIR, whose files are named PREFIX followed
+         * by their paths relative to DIR, skipping paths that RULES
+         * ignore or that are outside SPARSE.
+         * @param dir directory to list
+         * @param prefix name of dir followed by /, or "" for the top
+         * @param rules ignore rules
+         * @param sparse paths checked out */
+        Walk(Path dir, String prefix, IgnoreRules rules,
+             SparseCheckout sparse) {
+            _dir = dir;
+            _prefix = prefix;
+            _rules = rules;
+            _sparse = sparse;
+        }
+
+        @Override
+        protected List<String> compute() {
+            ArrayList<String> result = new ArrayList<>();
+            ArrayList<Walk> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> entries =
+                         Files.newDirectoryStream(_dir)) {
+                for (Path entry : entries) {
+                    String path = _prefix + entry.getFileName();
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        if (!path.equals(".gitlet")
+                                && !_rules.matches(path, true)
+                                && _sparse.mayContain(path)) {
+                            Walk sub = new Walk(entry, path + "/", _rules,
+                                    _sparse);
+                            sub.fork();
+                            subdirs.add(sub);
+                        }
+                    } else if (Files.isRegularFile(entry)
+                            && !_rules.matches(path, false)
+                            && _sparse.includes(path)) {
+                        result.add(path);
+                    }
+                }
+            } catch (IOException excp) {
+                throw Utils.error("Could not list %s: %s", _dir,
+                        excp.getMessage());
+            }
+            for (Walk sub : subdirs) {
+                result.addAll(sub.join());
+            }
+            return result;
+        }
+
+        /** Directory to list. */
+        private final Path _dir;
+
+        /** Name of _dir followed by /, or "" for the top. */
+        private final String _prefix;
+
+        /** Ignore rules. */
+        private final IgnoreRules _rules;
+
+        /** Paths checked out. */
+        private final SparseCheckout _sparse;
+    }
+}
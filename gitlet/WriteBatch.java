@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/** A group of object writes made durable together. Each object is first
+ * written to its own temporary file; flush() then forces all of them to
+ * disk concurrently, renames them into place and syncs each destination
+ * directory once. Only after flush() returns may a ref (such as CT) that
+ * points at the objects be published.
+ * @author Jeff Xiang
+ */
+class WriteBatch {
+
+    /** A new, empty batch for the current repository. */
+    WriteBatch() {
+        this(new File(Utils.TMP));
+    }
+
+    /** A new, empty batch whose temporary files go in TMPDIR, which must
+     * be on the same file system as the files written.
+     * @param tmpdir directory for temporary files */
+    WriteBatch(File tmpdir) {
+        _tmpdir = tmpdir;
+        _pending = new ArrayList<>();
+        _targets = new ArrayList<>();
+        _existing = new ArrayList<>();
+    }
+
+    /** Adds a write of CONTENTS to FILE to this batch. FILE is not
+     * touched until flush().
+     * @param file destination file
+     * @param contents bytes to write */
+    void add(File file, byte[] contents) {
+        _pending.add(Utils.writeTemporary(_tmpdir, contents));
+        _targets.add(file);
+    }
+
+    /** Adds the already written FILE to this batch, so that flush()
+     * also makes it durable. Files that do not exist are ignored.
+     * @param file file written earlier, e.g. a blob written by add */
+    void addExisting(File file) {
+        if (file.isFile()) {
+            _existing.add(file);
+        }
+    }
+
+    /** Returns the number of files in this batch. */
+    int size() {
+        return _pending.size() + _existing.size();
+    }
+
+    /** Forces every file in this batch to disk, renames the new ones into
+     * place and syncs their directories, then empties this batch. */
+    void flush() {
+        ArrayList<File> tosync = new ArrayList<>(_pending);
+        tosync.addAll(_existing);
+        tosync.parallelStream().forEach(Utils::fsync);
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (int i = 0; i < _pending.size(); i += 1) {
+            File target = _targets.get(i);
+            Utils.rename(_pending.get(i), target);
+            dirs.add(target.getAbsoluteFile().getParentFile());
+        }
+        for (File existing : _existing) {
+            dirs.add(existing.getAbsoluteFile().getParentFile());
+        }
+        for (File dir : dirs) {
+            Utils.fsync(dir);
+        }
+        _pending.clear();
+        _targets.clear();
+        _existing.clear();
+    }
+
+    /** Directory of temporary files. */
+    private final File _tmpdir;
+
+    /** Temporary files holding the contents of pending writes. */
+    private final ArrayList<File> _pending;
+
+    /** Destinations of the pending writes, parallel to _pending. */
+    private final ArrayList<File> _targets;
+
+    /** Previously written files to make durable. */
+    private final ArrayList<File> _existing;
+}
@@ -0,0 +1,333 @@
+import sys, re, json, random
+from subprocess import run, PIPE, STDOUT, DEVNULL, TimeoutExpired
+from os.path import abspath, dirname, join
+from getopt import getopt, GetoptError
+from os import environ, getcwd, makedirs
+from shutil import rmtree
+from tempfile import mkdtemp
+from time import perf_counter
+from math import ceil, log
+
+SHORT_USAGE = """\
+Usage: python3 scale.py OPTIONS
+
+   OPTIONS may include
+       --scales=N,...      File counts of the generated repositories
+                           (default 1000,10000,100000).
+       --depth=D           Directory depth of the files (default 3).
+       --size=BYTES        Average file size (default 256).
+       --history=N         Commits on each branch after the first (default
+                           10).
+       --branches=N        Number of branches besides master, at least 1
+                           (default 4).
+       --seed=N            Seed of the generated contents (default 61).
+       --thresholds=FILE   Thresholds to check (default
+                           scale-thresholds.json beside this script).
+       --output=FILE       Write the JSON results to FILE rather than the
+                           standard output.
+       --progdir=DIR       Directory or JAR files containing gitlet
+                           application (default ..).
+       --timeout=SEC       Seconds allowed to each execution of gitlet
+                           (default 1800).
+       --keep              Keep the generated repositories.
+"""
+
+USAGE = SHORT_USAGE + """\
+
+For each scale N, generate a repository of N files as a fast-import stream:
+an initial commit of all N files, spread over directories DEPTH deep, then
+HISTORY commits on master and on each of BRANCHES branches forked from the
+initial commit.  Each of those commits changes 1% of the files; master and
+each branch change disjoint files, so merges do not conflict.  Then time,
+in a fresh process each, the commands in COMMANDS below, and compare each
+time with its threshold:
+
+   seconds <= base + per_kfile * N / 1000
+
+and, between consecutive scales N1 < N2, the growth exponent
+
+   log(max(T2, min_seconds) / max(T1, min_seconds)) / log(N2 / N1)
+
+with max_exponent, so that a command whose time grows faster than the
+repository fails even if it is still within its absolute limit.  The
+thresholds file is JSON:
+
+   { "max_exponent": E, "min_seconds": S,
+     "commands": { NAME: { "base": B, "per_kfile": K }, ... } }
+
+The results are written as JSON:
+
+   { "parameters": {...},
+     "results": [ { "command", "files", "seconds", "limit", "passed" } ],
+     "scaling": [ { "command", "from", "to", "exponent", "limit",
+                    "passed" } ],
+     "passed": true|false }
+
+Exits with status 1 if any command fails or exceeds a threshold."""
+
+GITLET_COMMAND = ["java", "gitlet.Main"]
+TIMEOUT = 1800
+
+# Commands timed at each scale, in order, with their arguments and a
+# regular expression their output must match.  The arguments STREAM, HEAD
+# and BRANCH are filled in when run.  The changes made before
+# status-dirty are staged by add and committed by commit; merge then
+# merges a branch that changed other files.
+COMMANDS = [
+    ("import", ["import", "STREAM"], r"Imported \d+ commits .*"),
+    ("reset", ["reset", "HEAD"], r""),
+    ("status", ["status"], r"=== Branches ===\n.*"),
+    ("status-dirty", ["status"], r"=== Branches ===\n.*"),
+    ("add", ["add", "."], r""),
+    ("commit", ["commit", "scale edit"], r""),
+    ("checkout", ["checkout", "BRANCH"], r""),
+    ("checkout-back", ["checkout", "master"], r""),
+    ("merge", ["merge", "BRANCH"], r""),
+    ("branch-list", ["branch", "--list", "b*"], r"(b\d+\n)*"),
+]
+
+# Approximate number of files in each directory at the bottom of the tree.
+FILES_PER_DIR = 16
+
+WORDS = ("alpha bravo charlie delta echo foxtrot golf hotel india juliet "
+         "kilo lima mike november oscar papa quebec romeo sierra tango "
+         "uniform victor whiskey xray yankee zulu").split()
+
+def Usage():
+    print(SHORT_USAGE, file=sys.stderr)
+    sys.exit(1)
+
+def filePath(i, files, depth):
+    """The path of file I of FILES, DEPTH directories deep."""
+    fanout = max(1, ceil((files / FILES_PER_DIR) ** (1 / depth))) \
+             if depth > 0 else 1
+    dirs = []
+    for level in range(depth):
+        dirs.append("d{}".format(i // fanout ** level % fanout))
+    return "/".join(dirs + ["f{}.txt".format(i)])
+
+def fileContents(rand, size):
+    """Text of about SIZE bytes, chosen with RAND."""
+    target = rand.randint(size // 2, size + size // 2)
+    lines, length = [], 0
+    while length < target:
+        line = " ".join(rand.choice(WORDS) for k in range(8))
+        lines.append(line)
+        length += len(line) + 1
+    return "".join(line + "\n" for line in lines).encode()
+
+def writeData(out, data):
+    out.write("data {}\n".format(len(data)).encode())
+    out.write(data)
+    out.write(b"\n")
+
+def generate(stream, files, depth, size, history, branches, rand):
+    """Write to the file STREAM a fast-import stream of a repository of
+    FILES files DEPTH directories deep, of about SIZE bytes each, with
+    HISTORY commits on master and on each of BRANCHES branches after the
+    initial commit.  Return the number of files each later commit
+    changes."""
+    change = max(1, files // 100)
+    stripes = branches + 1
+    time = 1000000000
+    with open(stream, "wb") as out:
+        out.write(b"commit refs/heads/master\nmark :1\n")
+        out.write("committer scale <scale> {} +0000\n".format(time).encode())
+        writeData(out, b"initial files")
+        for i in range(files):
+            out.write("M 100644 inline {}\n".format(
+                filePath(i, files, depth)).encode())
+            writeData(out, fileContents(rand, size))
+        out.write(b"\n")
+        for stripe in range(stripes):
+            branch = "master" if stripe == 0 else "b{}".format(stripe)
+            members = list(range(stripe, files, stripes))
+            for n in range(history):
+                time += 1
+                out.write("commit refs/heads/{}\n".format(branch).encode())
+                out.write("committer scale <scale> {} +0000\n"
+                          .format(time).encode())
+                writeData(out, "edit {} of {}".format(n, branch).encode())
+                if n == 0:
+                    out.write(b"from :1\n")
+                for k in range(change):
+                    i = members[(n * change + k) % len(members)]
+                    out.write("M 100644 inline {}\n".format(
+                        filePath(i, files, depth)).encode())
+                    writeData(out, fileContents(rand, size))
+                out.write(b"\n")
+            if history == 0 and stripe > 0:
+                out.write("reset refs/heads/{}\nfrom :1\n\n"
+                          .format(branch).encode())
+    return change
+
+def gitlet(args, dir):
+    """Run gitlet with ARGS in DIR and return its exit status, output and
+    elapsed seconds."""
+    start = perf_counter()
+    try:
+        result = run(GITLET_COMMAND + args, cwd=dir, stdin=DEVNULL,
+                     stdout=PIPE, stderr=STDOUT, universal_newlines=True,
+                     timeout=TIMEOUT)
+        return result.returncode, result.stdout, perf_counter() - start
+    except TimeoutExpired:
+        return "timeout", "", perf_counter() - start
+
+def runScale(files, params, thresholds, rand, keep):
+    """Generate a repository of FILES files as PARAMS describes and time
+    each command of COMMANDS in it.  Return a list of results."""
+    base = mkdtemp(prefix="gitlet-scale-")
+    repo = join(base, "repo")
+    makedirs(repo)
+    stream = join(base, "stream")
+    change = generate(stream, files, params["depth"], params["size"],
+                      params["history"], params["branches"], rand)
+    changed = [filePath(i, files, params["depth"])
+               for i in range(0, files, files // change)][:change]
+    status, out, seconds = gitlet(["init"], repo)
+    results = []
+    try:
+        for name, template, expected in COMMANDS:
+            if name == "reset":
+                # The import moved master without writing any files;
+                # move back to the initial commit so that resetting to
+                # the import writes them all.
+                tip = reflogEntry(repo, 0)
+                gitlet(["reset", reflogEntry(repo, 1)], repo)
+            elif name == "status-dirty":
+                for path in changed:
+                    with open(join(repo, path), "ab") as f:
+                        f.write(b"scale edit\n")
+            args = []
+            for arg in template:
+                if arg == "STREAM":
+                    args.append(stream)
+                elif arg == "HEAD":
+                    args.append(tip)
+                elif arg == "BRANCH":
+                    args.append("b1")
+                else:
+                    args.append(arg)
+            status, out, seconds = gitlet(args, repo)
+            limit = limitFor(thresholds, name, files)
+            correct = status == 0 \
+                      and re.fullmatch(expected, out, re.DOTALL) is not None
+            result = { "command": name, "files": files,
+                       "seconds": round(seconds, 3),
+                       "limit": None if limit is None else round(limit, 3),
+                       "passed": correct and (limit is None
+                                              or seconds <= limit) }
+            if not correct:
+                result["error"] = "exit status {}: {}".format(
+                    status, out.strip()[-200:])
+            results.append(result)
+    finally:
+        if keep:
+            print("kept {}".format(base), file=sys.stderr)
+        else:
+            rmtree(base, ignore_errors=True)
+    return results
+
+def reflogEntry(repo, k):
+    """The SHA-1 value of the Kth newest head commit of the repository in
+    REPO."""
+    status, out, seconds = gitlet(["reflog", "-n", str(k + 1)], repo)
+    lines = out.splitlines()
+    return lines[k].split()[0] if len(lines) > k else "none"
+
+def limitFor(thresholds, name, files):
+    """The most seconds command NAME may take with FILES files, or None
+    if THRESHOLDS has no limit for it."""
+    limits = thresholds.get("commands", {}).get(name)
+    if limits is None:
+        return None
+    return limits.get("base", 0) + limits.get("per_kfile", 0) * files / 1000
+
+def scaling(results, thresholds):
+    """The growth exponents between consecutive scales of each command in
+    RESULTS, checked against THRESHOLDS."""
+    floor = thresholds.get("min_seconds", 0)
+    bound = thresholds.get("max_exponent")
+    checks = []
+    for name, template, expected in COMMANDS:
+        times = sorted((r["files"], r["seconds"]) for r in results
+                       if r["command"] == name)
+        for (n1, t1), (n2, t2) in zip(times, times[1:]):
+            if n2 <= n1:
+                continue
+            exponent = log(max(t2, floor, 1e-3) / max(t1, floor, 1e-3)) \
+                       / log(n2 / n1)
+            checks.append({ "command": name, "from": n1, "to": n2,
+                            "exponent": round(exponent, 3),
+                            "limit": bound,
+                            "passed": bound is None or exponent <= bound })
+    return checks
+
+if __name__ == "__main__":
+    scales = [1000, 10000, 100000]
+    params = { "depth": 3, "size": 256, "history": 10, "branches": 4,
+               "seed": 61 }
+    thresholds_file = join(dirname(abspath(__file__)),
+                           "scale-thresholds.json")
+    output = None
+    keep = False
+    prog_dir = None
+
+    try:
+        opts, args = \
+            getopt(sys.argv[1:], '',
+                   ['scales=', 'depth=', 'size=', 'history=', 'branches=',
+                    'seed=', 'thresholds=', 'output=', 'progdir=',
+                    'timeout=', 'keep', 'help'])
+        for opt, val in opts:
+            if opt == '--scales':
+                scales = sorted(int(n) for n in val.split(','))
+            elif opt in ('--depth', '--size', '--history', '--branches',
+                         '--seed'):
+                params[opt[2:]] = int(val)
+            elif opt == '--thresholds':
+                thresholds_file = val
+            elif opt == '--output':
+                output = val
+            elif opt == '--progdir':
+                prog_dir = val
+            elif opt == '--timeout':
+                TIMEOUT = int(val)
+            elif opt == '--keep':
+                keep = True
+            elif opt == '--help':
+                print(USAGE)
+                sys.exit(0)
+        if prog_dir is None:
+            prog_dir = dirname(abspath(getcwd()))
+        else:
+            prog_dir = abspath(prog_dir)
+    except (GetoptError, ValueError):
+        Usage()
+    if args or params["branches"] < 1 or params["depth"] < 0:
+        Usage()
+
+    environ['CLASSPATH'] = "{}:{}".format(prog_dir,
+                                          environ.get('CLASSPATH', ''))
+    with open(thresholds_file) as inp:
+        thresholds = json.load(inp)
+
+    rand = random.Random(params["seed"])
+    results = []
+    for files in scales:
+        print("Timing {} files...".format(files), file=sys.stderr)
+        results.extend(runScale(files, params, thresholds, rand, keep))
+    checks = scaling(results, thresholds)
+    passed = all(r["passed"] for r in results + checks)
+    report = { "parameters": dict(params, scales=scales),
+               "results": results, "scaling": checks, "passed": passed }
+    text = json.dumps(report, indent=2)
+    if output is None:
+        print(text)
+    else:
+        with open(output, "w") as out:
+            out.write(text + "\n")
+    for r in results + checks:
+        if not r["passed"]:
+            print("FAILED: {}".format(json.dumps(r)), file=sys.stderr)
+    sys.exit(0 if passed else 1)